@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.ClickHouseQueryUtils;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.ZIPKIN_SPANS_TABLE;
+
+/**
+ * Synthetic spans which look like a real trace: a few services calling each other, with tags and annotations
+ */
+public final class BenchmarkSpans {
+    private static final long START_MICROS = TimeUnit.MILLISECONDS.toMicros(1_696_161_600_000L);
+    private static final Endpoint FRONTEND = Endpoint.newBuilder().serviceName("frontend").ip("172.17.0.13").port(8080).build();
+    private static final Endpoint BACKEND = Endpoint.newBuilder().serviceName("backend").ip("172.17.0.14").port(9000).build();
+    private static final Endpoint DATABASE = Endpoint.newBuilder().serviceName("postgres").ip("172.17.0.15").port(5432).build();
+
+    private BenchmarkSpans() {
+    }
+
+    /**
+     * @return {@code traces} traces of {@code spansPerTrace} spans each
+     */
+    public static List<Span> create(int traces, int spansPerTrace) {
+        List<Span> spans = new ArrayList<>(traces * spansPerTrace);
+        for (int trace = 0; trace < traces; trace++) {
+            String traceId = "%016x".formatted(0x463ac35c9f6413adL + trace);
+            for (int i = 0; i < spansPerTrace; i++) {
+                spans.add(createSpan(traceId, i));
+            }
+        }
+        return spans;
+    }
+
+    private static Span createSpan(String traceId, int index) {
+        long timestamp = START_MICROS + index * 1_000L;
+        Span.Builder builder = Span.newBuilder()
+                .traceId(traceId)
+                .id("%016x".formatted(index + 1L))
+                .name("get /api/v%d".formatted(index % 4))
+                .timestamp(timestamp)
+                .duration(150L + index)
+                .putTag("http.method", "GET")
+                .putTag("http.path", "/api/v%d".formatted(index % 4))
+                .addAnnotation(timestamp + 10, "wire.send")
+                .addAnnotation(timestamp + 100, "wire.recv");
+        if (index > 0) {
+            builder.parentId("%016x".formatted((long) index));
+        }
+
+        switch (index % 3) {
+            case 0 -> builder.kind(Span.Kind.SERVER).localEndpoint(FRONTEND);
+            case 1 -> builder.kind(Span.Kind.CLIENT).localEndpoint(FRONTEND).remoteEndpoint(BACKEND);
+            default -> builder.kind(Span.Kind.CLIENT).localEndpoint(BACKEND).remoteEndpoint(DATABASE)
+                    .putTag("error", "timeout");
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return rows of {@code zipkin_spans} table as they are read from DB
+     */
+    public static Result<Record> toRecords(List<Span> spans) {
+        DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        for (Span span : spans) {
+            Record record = dslContext.newRecord(ZIPKIN_SPANS_TABLE.fields());
+            record.fromArray(span.traceId(), span.parentId() == null ? span.id() : span.parentId(), span.id(), span.kind(), span.name(),
+                    span.timestamp(), new Timestamp(TimeUnit.MICROSECONDS.toMillis(ClickHouseQueryUtils.getTimestamp(span))), span.duration(),
+                    serviceName(span.localEndpoint()), ipv4(span.localEndpoint()), ipv6(span.localEndpoint()), port(span.localEndpoint()),
+                    serviceName(span.remoteEndpoint()), ipv4(span.remoteEndpoint()), ipv6(span.remoteEndpoint()), port(span.remoteEndpoint()),
+                    annotations(span), span.tags(), (short) 0, (short) 0);
+            result.add(record);
+        }
+        return result;
+    }
+
+    private static Map<String, Long> annotations(Span span) {
+        return span.annotations()
+                .stream()
+                .collect(Collectors.toMap(Annotation::value, Annotation::timestamp));
+    }
+
+    private static String serviceName(Endpoint endpoint) {
+        return endpoint == null || endpoint.serviceName() == null ? "" : endpoint.serviceName();
+    }
+
+    private static String ipv4(Endpoint endpoint) {
+        return endpoint == null || endpoint.ipv4() == null ? "" : endpoint.ipv4();
+    }
+
+    private static String ipv6(Endpoint endpoint) {
+        return endpoint == null || endpoint.ipv6() == null ? "" : endpoint.ipv6();
+    }
+
+    private static int port(Endpoint endpoint) {
+        return endpoint == null ? 0 : endpoint.portAsInt();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.ClickHouseQueryUtils;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps already fetched jOOQ records to spans
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BuildSpanBenchmark {
+    private Result<Record> records;
+
+    @Setup
+    public void setUp() {
+        records = BenchmarkSpans.toRecords(BenchmarkSpans.create(10, 10));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public void buildSpan(Blackhole blackhole) {
+        for (Record record : records) {
+            blackhole.consume(ClickHouseQueryUtils.buildSpan(record));
+        }
+    }
+}
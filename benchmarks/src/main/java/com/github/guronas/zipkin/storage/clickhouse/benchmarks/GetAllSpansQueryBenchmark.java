@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.GetAllSpansQuery;
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.openjdk.jmh.annotations.*;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.TRACE_ID;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.ZIPKIN_SPANS_TABLE;
+
+/**
+ * Builds and renders both statements of a trace search. The mock connection returns trace ids, but no spans,
+ * so span decoding isn't measured here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GetAllSpansQueryBenchmark {
+    @Param({"10", "100"})
+    private int limit;
+
+    private DSLContext dslContext;
+    private QueryRequest simpleRequest;
+    private QueryRequest filteredRequest;
+
+    @Setup
+    public void setUp() {
+        DSLContext create = DSL.using(SQLDialect.MYSQL);
+        Result<Record1<String>> traceIds = create.newResult(TRACE_ID);
+        BenchmarkSpans.create(limit, 1).forEach(span -> traceIds.add(create.newRecord(TRACE_ID).values(span.traceId())));
+        MockResult[] traceIdsResult = {new MockResult(traceIds.size(), traceIds)};
+        MockResult[] spansResult = {new MockResult(0, create.newResult(ZIPKIN_SPANS_TABLE))};
+        dslContext = DSL.using(new MockConnection(ctx -> ctx.sql().startsWith("select distinct") ? traceIdsResult : spansResult),
+                SQLDialect.MYSQL);
+
+        long endTs = 1_696_161_600_000L;
+        simpleRequest = QueryRequest.newBuilder()
+                .endTs(endTs)
+                .lookback(TimeUnit.HOURS.toMillis(1))
+                .limit(limit)
+                .build();
+        filteredRequest = QueryRequest.newBuilder()
+                .endTs(endTs)
+                .lookback(TimeUnit.HOURS.toMillis(1))
+                .limit(limit)
+                .serviceName("frontend")
+                .remoteServiceName("backend")
+                .spanName("get /api/v1")
+                .parseAnnotationQuery("error and http.method=GET and http.path=/api/v1")
+                .minDuration(100L)
+                .maxDuration(10_000L)
+                .build();
+    }
+
+    @Benchmark
+    public List<Span> simpleSearch() {
+        return new GetAllSpansQuery(dslContext, simpleRequest).get();
+    }
+
+    @Benchmark
+    public List<Span> filteredSearch() {
+        return new GetAllSpansQuery(dslContext, filteredRequest).get();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.storage.GroupByTraceId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups spans of a search result into traces, as {@code ClickHouseSpanStore} does for every search
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GroupByTraceIdBenchmark {
+    @Param({"10", "100"})
+    private int traces;
+
+    @Param({"10", "100"})
+    private int spansPerTrace;
+
+    private final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId = GroupByTraceId.create(false);
+    private List<Span> spans;
+
+    @Setup
+    public void setUp() {
+        spans = new ArrayList<>(BenchmarkSpans.create(traces, spansPerTrace));
+        //Spans come from DB in no particular order
+        Collections.shuffle(spans, new Random(42));
+    }
+
+    @Benchmark
+    public List<List<Span>> groupByTraceId() {
+        return groupByTraceId.map(spans);
+    }
+}
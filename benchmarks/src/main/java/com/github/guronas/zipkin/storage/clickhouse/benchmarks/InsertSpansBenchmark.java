@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.InsertSpansQuery;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.openjdk.jmh.annotations.*;
+import zipkin2.Span;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders and executes the SQL insert of one batch of spans. The mock connection only counts rendered characters,
+ * so the score is the cost of building the statement on the JVM side.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InsertSpansBenchmark {
+    @Param({"10", "100", "1000"})
+    private int spans;
+
+    private List<Span> batch;
+    private DSLContext dslContext;
+    private SpanNameResolver spanNameResolver;
+    private long renderedChars;
+
+    @Setup
+    public void setUp() {
+        batch = BenchmarkSpans.create(spans / 10, 10);
+        dslContext = DSL.using(new MockConnection(ctx -> {
+            renderedChars += ctx.sql().length();
+            return new MockResult[]{new MockResult(spans)};
+        }), SQLDialect.MYSQL);
+        spanNameResolver = new SpanNameResolver(dslContext);
+    }
+
+    @Benchmark
+    public long insertSpans() {
+        new InsertSpansQuery(dslContext, batch, spanNameResolver).get();
+        return renderedChars;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.MapFieldValue;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders tags and annotations maps as ClickHouse map literals, which is done twice for every inserted span
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapFieldValueBenchmark {
+    @Param({"2", "10", "50"})
+    private int entries;
+
+    private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+    private MapFieldValue<String, String> tags;
+    private MapFieldValue<String, Long> annotations;
+
+    @Setup
+    public void setUp() {
+        Map<String, String> tagValues = new TreeMap<>();
+        Map<String, Long> annotationValues = new TreeMap<>();
+        for (int i = 0; i < entries; i++) {
+            tagValues.put("http.header.x-request-%d".formatted(i), "4bf92f3577b34da6a3ce929d0e0e%04d".formatted(i));
+            annotationValues.put("event.%d".formatted(i), 1_696_161_600_000_000L + i);
+        }
+        tags = MapFieldValue.map(tagValues);
+        annotations = MapFieldValue.map(annotationValues);
+    }
+
+    @Benchmark
+    public String renderTags() {
+        return dslContext.renderInlined(tags);
+    }
+
+    @Benchmark
+    public String renderAnnotations() {
+        return dslContext.renderInlined(annotations);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.benchmarks;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.ClickHouseQueryUtils;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanRowDecoder;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockConnection;
+import org.jooq.tools.jdbc.MockResult;
+import org.openjdk.jmh.annotations.*;
+import zipkin2.Span;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.ZIPKIN_SPANS_TABLE;
+
+/**
+ * Compares reading spans through jOOQ records with {@link SpanRowDecoder}.
+ * Both read the same rows from a mock connection, run with {@code -prof gc} to see allocations per span.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanDecodingBenchmark {
+    @Param({"100", "1000"})
+    private int spans;
+
+    private DSLContext dslContext;
+
+    @Setup
+    public void setUp() {
+        Result<Record> rows = BenchmarkSpans.toRecords(BenchmarkSpans.create(spans / 10, 10));
+        MockResult[] result = {new MockResult(rows.size(), rows)};
+        dslContext = DSL.using(new MockConnection(ctx -> result), SQLDialect.MYSQL);
+    }
+
+    @Benchmark
+    public List<Span> buildSpansFromRecords() {
+        return dslContext.selectFrom(ZIPKIN_SPANS_TABLE)
+                .fetchStream()
+                .map(ClickHouseQueryUtils::buildSpan)
+                .toList();
+    }
+
+    @Benchmark
+    public List<Span> decodeSpanRows() {
+        return SpanRowDecoder.decodeAll(dslContext.selectFrom(ZIPKIN_SPANS_TABLE));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+/**
+ * Classes of work which get their own executor, so a burst of one of them doesn't starve the others
+ */
+public enum Bulkhead {
+    /**
+     * Span inserts and buffer flushes
+     */
+    INGEST("ingest"),
+    /**
+     * Trace lookup by trace ids
+     */
+    TRACE_LOOKUP("traceLookup"),
+    /**
+     * Trace search, dependency links and their rollup
+     */
+    SEARCH("search"),
+    /**
+     * Service, remote service, span names and tag values
+     */
+    AUTOCOMPLETE("autocomplete");
+
+    private final String tag;
+
+    Bulkhead(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @return value of {@code executor} tag of the executor metrics
+     */
+    public String getTag() {
+        return tag;
+    }
+
+    public static Bulkhead of(QueryType queryType) {
+        return switch (queryType) {
+            case INSERT -> INGEST;
+            case GET_TRACE -> TRACE_LOOKUP;
+            case GET_TRACES, DEPENDENCIES, DEPENDENCY_ROLLUP -> SEARCH;
+            case NAMES, TAGS -> AUTOCOMPLETE;
+        };
+    }
+}
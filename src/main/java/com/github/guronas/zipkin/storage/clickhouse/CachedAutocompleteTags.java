@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.InsertTagValuesQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.util.StringUtils;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+import zipkin2.storage.AutocompleteTags;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves values of autocomplete tags from memory. Values are captured from accepted spans, so they are visible at once,
+ * and written to {@code zipkin_tag_values} once a day per value, so other storages see them too.
+ * Values of other storages are loaded with {@code delegate} on the first request and reloaded in background
+ * every {@code autocompleteCacheRefreshInterval}. Values not seen for {@code autocompleteCacheValueTtl} are dropped,
+ * and at most {@code autocompleteCacheMaxValuesPerKey} values are kept for every key.
+ */
+@Slf4j
+public class CachedAutocompleteTags implements AutocompleteTags, Closeable {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final AutocompleteTags delegate;
+    /**
+     * Runs writes of captured values
+     */
+    private final Executor executor;
+    private final DSLContext dslContext;
+    private final List<String> autocompleteKeys;
+    private final ClickHouseStorageMetrics metrics;
+    private final Clock clock;
+    private final int maxValuesPerKey;
+    private final long ttlMillis;
+    private final long refreshIntervalMillis;
+    private final Map<String, KeyValues> values = new HashMap<>();
+    /**
+     * Values seen for the first time today, which aren't written to DB yet
+     */
+    private final ConcurrentLinkedQueue<Map.Entry<String, String>> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledFuture<?> scheduledFlush;
+
+    public CachedAutocompleteTags(AutocompleteTags delegate,
+                                  Executor executor,
+                                  ScheduledExecutorService scheduler,
+                                  DSLContext dslContext,
+                                  List<String> autocompleteKeys,
+                                  ClickHouseStorageSettings settings,
+                                  ClickHouseStorageMetrics metrics) {
+        this(delegate, executor, scheduler, dslContext, autocompleteKeys, settings, metrics, Clock.systemUTC());
+    }
+
+    CachedAutocompleteTags(AutocompleteTags delegate,
+                           Executor executor,
+                           ScheduledExecutorService scheduler,
+                           DSLContext dslContext,
+                           List<String> autocompleteKeys,
+                           ClickHouseStorageSettings settings,
+                           ClickHouseStorageMetrics metrics,
+                           Clock clock) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.dslContext = dslContext;
+        this.autocompleteKeys = autocompleteKeys;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.maxValuesPerKey = settings.getAutocompleteCacheMaxValuesPerKey();
+        this.ttlMillis = settings.getAutocompleteCacheValueTtl().toMillis();
+        this.refreshIntervalMillis = settings.getAutocompleteCacheRefreshInterval().toMillis();
+        //Keys are fixed, so the map is never modified after construction
+        for (String key : autocompleteKeys) {
+            values.put(key, new KeyValues(key));
+        }
+        long flushIntervalMillis = settings.getAutocompleteCacheFlushInterval().toMillis();
+        this.scheduledFlush = scheduler.scheduleWithFixedDelay(this::requestFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Call<List<String>> getKeys() {
+        return delegate.getKeys();
+    }
+
+    @Override
+    public Call<List<String>> getValues(String key) {
+        KeyValues keyValues = StringUtils.hasLength(key) ? values.get(key) : null;
+        if (keyValues == null) {
+            return delegate.getValues(key);
+        }
+
+        long now = clock.millis();
+        if (!keyValues.isLoaded()) {
+            log.debug("There are no cached values of tag [{}], loading them from DB", key);
+            return delegate.getValues(key).map(loaded -> {
+                keyValues.merge(loaded, clock.millis());
+                return keyValues.snapshot(clock.millis());
+            });
+        }
+
+        //Snapshot is taken first, so the values don't change under the caller if the reload finishes at once
+        List<String> snapshot = keyValues.snapshot(now);
+        if (now - keyValues.loadedAt > refreshIntervalMillis) {
+            keyValues.refresh();
+        }
+        return Call.create(snapshot);
+    }
+
+    /**
+     * Adds values of autocomplete tags of accepted spans
+     */
+    public void record(List<Span> spans) {
+        long now = clock.millis();
+        long today = now / DAY_MILLIS;
+        for (Span span : spans) {
+            if (span.tags().isEmpty()) {
+                continue;
+            }
+            for (KeyValues keyValues : values.values()) {
+                String value = span.tags().get(keyValues.key);
+                if (StringUtils.hasLength(value) && keyValues.see(value, now, today)) {
+                    pending.add(Map.entry(keyValues.key, value));
+                }
+            }
+        }
+    }
+
+    private void requestFlush() {
+        if (pending.isEmpty() || !flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    flush();
+                } finally {
+                    flushRequested.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Values stay pending until the next attempt
+            log.warn("Unable to schedule tag values flush, executor is busy");
+            flushRequested.set(false);
+        }
+    }
+
+    /**
+     * Writes values seen for the first time today to DB
+     */
+    public void flush() {
+        List<Map.Entry<String, String>> batch = new ArrayList<>();
+        for (Map.Entry<String, String> tagValue; (tagValue = pending.poll()) != null; ) {
+            batch.add(tagValue);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            metrics.record(QueryType.TAGS, new InsertTagValuesQuery(dslContext, batch, LocalDate.now(clock)));
+        } catch (Exception e) {
+            Call.propagateIfFatal(e);
+            log.warn("Failed to write {} tag values, they are retried with the next flush", batch.size(), e);
+            pending.addAll(batch);
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduledFlush.cancel(false);
+        flush();
+    }
+
+    private class KeyValues {
+        private final String key;
+        private final ConcurrentMap<String, Value> entries = new ConcurrentHashMap<>();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        /**
+         * Zero means values were only captured from spans and were never loaded from DB
+         */
+        private volatile long loadedAt;
+
+        KeyValues(String key) {
+            this.key = key;
+        }
+
+        boolean isLoaded() {
+            return loadedAt != 0L;
+        }
+
+        /**
+         * @return true if the value isn't written to DB today yet
+         */
+        boolean see(String value, long now, long today) {
+            Value entry = entries.get(value);
+            if (entry == null) {
+                if (entries.size() >= maxValuesPerKey) {
+                    return false;
+                }
+                entry = entries.computeIfAbsent(value, v -> new Value());
+            }
+            entry.lastSeen = now;
+            if (entry.persistedDay == today) {
+                return false;
+            }
+            entry.persistedDay = today;
+            return true;
+        }
+
+        void merge(List<String> loaded, long now) {
+            for (String value : loaded) {
+                if (entries.size() >= maxValuesPerKey) {
+                    break;
+                }
+                //Values loaded from DB are written again as soon as they are seen in spans, so their date in DB is moved
+                entries.computeIfAbsent(value, v -> new Value()).lastSeen = now;
+            }
+            loadedAt = now;
+        }
+
+        List<String> snapshot(long now) {
+            entries.values().removeIf(entry -> now - entry.lastSeen > ttlMillis);
+            List<String> snapshot = new ArrayList<>(entries.keySet());
+            snapshot.sort(null);
+            return snapshot;
+        }
+
+        void refresh() {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+
+            log.debug("Reloading cached values of tag [{}]", key);
+            delegate.getValues(key).enqueue(new Callback<>() {
+                @Override
+                public void onSuccess(List<String> loaded) {
+                    merge(loaded, clock.millis());
+                    refreshing.set(false);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    log.warn("Failed to reload cached values of tag [{}]", key, t);
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    private static class Value {
+        private volatile long lastSeen;
+        /**
+         * Day since epoch the value was last written to DB
+         */
+        private volatile long persistedDay = -1L;
+    }
+}
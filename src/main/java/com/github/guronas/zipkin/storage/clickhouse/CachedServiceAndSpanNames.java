@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.StringUtils;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.storage.ServiceAndSpanNames;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Serves service and span names from memory. Names are loaded from DB on the first request,
+ * reloaded in background on {@code clickHouseExecutor} when they are older than {@code nameCacheTtl}
+ * and also added as soon as spans with them are accepted by {@link ClickhouseSpanConsumer}.
+ */
+@Slf4j
+public class CachedServiceAndSpanNames implements ServiceAndSpanNames {
+    private static final String SERVICE_NAMES_KEY = "";
+
+    private final Executor clickHouseExecutor;
+    private final long ttlMillis;
+    private final int maxServices;
+    private final int maxNamesPerService;
+    private final NamesCache serviceNames;
+    private final NamesCache spanNames;
+    private final NamesCache remoteServiceNames;
+
+    public CachedServiceAndSpanNames(Executor clickHouseExecutor,
+                                     ServiceAndSpanNames delegate,
+                                     ClickHouseStorageSettings settings) {
+        this.clickHouseExecutor = clickHouseExecutor;
+        this.ttlMillis = settings.getNameCacheTtl().toMillis();
+        this.maxServices = settings.getNameCacheMaxServices();
+        this.maxNamesPerService = settings.getNameCacheMaxNamesPerService();
+        this.serviceNames = new NamesCache("service names", key -> delegate.getServiceNames(), maxServices);
+        this.spanNames = new NamesCache("span names", delegate::getSpanNames, maxNamesPerService);
+        this.remoteServiceNames = new NamesCache("remote service names", delegate::getRemoteServiceNames, maxNamesPerService);
+    }
+
+    @Override
+    public Call<List<String>> getServiceNames() {
+        return serviceNames.get(SERVICE_NAMES_KEY);
+    }
+
+    @Override
+    public Call<List<String>> getRemoteServiceNames(String serviceName) {
+        if (!StringUtils.hasLength(serviceName)) {
+            return Call.emptyList();
+        }
+        return remoteServiceNames.get(serviceName);
+    }
+
+    @Override
+    public Call<List<String>> getSpanNames(String serviceName) {
+        if (!StringUtils.hasLength(serviceName)) {
+            return Call.emptyList();
+        }
+        return spanNames.get(serviceName);
+    }
+
+    /**
+     * Adds names of accepted spans, so they are visible before the next reload from DB
+     */
+    public void record(List<Span> spans) {
+        for (Span span : spans) {
+            String serviceName = span.localServiceName();
+            if (serviceName == null) {
+                continue;
+            }
+
+            serviceNames.record(SERVICE_NAMES_KEY, serviceName);
+            if (span.name() != null) {
+                spanNames.record(serviceName, span.name());
+            }
+            if (span.remoteServiceName() != null) {
+                remoteServiceNames.record(serviceName, span.remoteServiceName());
+            }
+        }
+    }
+
+    private class NamesCache {
+        private final String description;
+        private final Function<String, Call<List<String>>> loader;
+        private final int maxNames;
+        private final ConcurrentMap<String, Names> entries = new ConcurrentHashMap<>();
+
+        NamesCache(String description, Function<String, Call<List<String>>> loader, int maxNames) {
+            this.description = description;
+            this.loader = loader;
+            this.maxNames = maxNames;
+        }
+
+        Call<List<String>> get(String key) {
+            Names names = entries.get(key);
+            if (names == null || !names.isLoaded()) {
+                log.debug("There are no cached {} for [{}], loading them from DB", description, key);
+                return loader.apply(key).map(loadedNames -> {
+                    Names loaded = getOrCreate(key);
+                    if (loaded == null) {
+                        return loadedNames;
+                    }
+                    loaded.replace(loadedNames, maxNames);
+                    return loaded.snapshot();
+                });
+            }
+
+            //Snapshot is taken first, so stale names are returned even if the reload finishes at once
+            List<String> snapshot = names.snapshot();
+            if (names.isExpired(ttlMillis)) {
+                refresh(key, names);
+            }
+            return Call.create(snapshot);
+        }
+
+        void record(String key, String name) {
+            Names names = getOrCreate(key);
+            if (names != null) {
+                names.add(name, maxNames);
+            }
+        }
+
+        private Names getOrCreate(String key) {
+            Names names = entries.get(key);
+            if (names != null || entries.size() >= maxServices) {
+                return names;
+            }
+            return entries.computeIfAbsent(key, k -> new Names());
+        }
+
+        private void refresh(String key, Names names) {
+            if (!names.refreshing.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                clickHouseExecutor.execute(() -> {
+                    try {
+                        log.debug("Reloading cached {} for [{}]", description, key);
+                        names.replace(loader.apply(key).execute(), maxNames);
+                    } catch (Exception e) {
+                        Call.propagateIfFatal(e);
+                        log.warn("Failed to reload cached {} for [{}]", description, key, e);
+                    } finally {
+                        names.refreshing.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("Unable to reload cached {} for [{}], executor is busy", description, key);
+                names.refreshing.set(false);
+            }
+        }
+    }
+
+    private static class Names {
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile Set<String> values = ConcurrentHashMap.newKeySet();
+        /**
+         * Zero means names were only recorded from spans and were never loaded from DB
+         */
+        private volatile long loadedAt;
+
+        boolean isLoaded() {
+            return loadedAt != 0L;
+        }
+
+        boolean isExpired(long ttlMillis) {
+            return System.currentTimeMillis() - loadedAt > ttlMillis;
+        }
+
+        void add(String name, int maxNames) {
+            Set<String> current = values;
+            if (current.size() < maxNames) {
+                current.add(name);
+            }
+        }
+
+        void replace(List<String> names, int maxNames) {
+            Set<String> loaded = ConcurrentHashMap.newKeySet();
+            //Names recorded before the first load may be not stored in DB yet
+            if (!isLoaded()) {
+                loaded.addAll(values);
+            }
+            for (String name : names) {
+                if (loaded.size() >= maxNames) {
+                    break;
+                }
+                loaded.add(name);
+            }
+            values = loaded;
+            loadedAt = System.currentTimeMillis();
+        }
+
+        List<String> snapshot() {
+            List<String> snapshot = new ArrayList<>(values);
+            snapshot.sort(null);
+            return snapshot;
+        }
+    }
+}
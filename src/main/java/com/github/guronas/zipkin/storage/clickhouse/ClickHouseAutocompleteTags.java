@@ -19,20 +19,43 @@ package com.github.guronas.zipkin.storage.clickhouse;
 import com.github.guronas.zipkin.storage.clickhouse.query.GetTagsQuery;
 import lombok.RequiredArgsConstructor;
 import org.jooq.DSLContext;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.util.StringUtils;
 import zipkin2.Call;
 import zipkin2.storage.AutocompleteTags;
 
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import static org.springframework.util.Assert.isTrue;
 
 @RequiredArgsConstructor
 public class ClickHouseAutocompleteTags implements AutocompleteTags {
-    private final ThreadPoolTaskExecutor executor;
+    private final Executor executor;
     private final DSLContext dslContext;
     private final List<String> autocompleteKeys;
+    /**
+     * Read values from {@code zipkin_tag_values} table instead of {@code zipkin_spans}
+     */
+    private final boolean useNameTables;
+    private final ClickHouseStorageMetrics metrics;
+    /**
+     * Only values seen during this number of last days are read, all of them if zero
+     */
+    private final int lookbackDays;
+
+    public ClickHouseAutocompleteTags(Executor executor, DSLContext dslContext, List<String> autocompleteKeys) {
+        this(executor, dslContext, autocompleteKeys, false, ClickHouseStorageMetrics.NOOP);
+    }
+
+    public ClickHouseAutocompleteTags(Executor executor,
+                                      DSLContext dslContext,
+                                      List<String> autocompleteKeys,
+                                      boolean useNameTables,
+                                      ClickHouseStorageMetrics metrics) {
+        this(executor, dslContext, autocompleteKeys, useNameTables, metrics, 0);
+    }
 
     @Override
     public Call<List<String>> getKeys() {
@@ -42,6 +65,7 @@ public class ClickHouseAutocompleteTags implements AutocompleteTags {
     @Override
     public Call<List<String>> getValues(String key) {
         isTrue(StringUtils.hasLength(key), "Key is empty");
-        return new ClickHouseCall<>(executor, new GetTagsQuery(dslContext, key));
+        LocalDate since = lookbackDays > 0 ? LocalDate.now(ZoneOffset.UTC).minusDays(lookbackDays) : null;
+        return new ClickHouseCall<>(executor, metrics, QueryType.TAGS, new GetTagsQuery(dslContext, key, useNameTables, since));
     }
 }
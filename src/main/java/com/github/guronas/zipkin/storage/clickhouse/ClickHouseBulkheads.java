@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executors queries are run on, one for every {@link Bulkhead} or the same one for all of them.
+ * Bulkhead pools have bounded queues, tasks above the queue capacity are rejected and counted in {@code executor.rejected}.
+ */
+@Slf4j
+public class ClickHouseBulkheads implements Closeable {
+    private final Map<Bulkhead, Executor> executors;
+    private final List<Runnable> shutdownHooks;
+
+    private ClickHouseBulkheads(Map<Bulkhead, Executor> executors, List<Runnable> shutdownHooks) {
+        this.executors = executors;
+        this.shutdownHooks = shutdownHooks;
+    }
+
+    /**
+     * @return bulkheads which all run on the given executor, it isn't shut down on {@link #close()}
+     */
+    public static ClickHouseBulkheads shared(Executor executor) {
+        Map<Bulkhead, Executor> executors = new EnumMap<>(Bulkhead.class);
+        for (Bulkhead bulkhead : Bulkhead.values()) {
+            executors.put(bulkhead, executor);
+        }
+        return new ClickHouseBulkheads(executors, List.of());
+    }
+
+    /**
+     * Creates a pool for every bulkhead. With virtual threads every admitted query runs at once,
+     * so a bulkhead admits as many queries as its pool threads and queue capacity together
+     */
+    public static ClickHouseBulkheads create(ClickHouseStorageSettings settings, boolean virtualThreads, ClickHouseStorageMetrics metrics) {
+        Map<Bulkhead, Executor> executors = new EnumMap<>(Bulkhead.class);
+        List<Runnable> shutdownHooks = new ArrayList<>();
+        for (Bulkhead bulkhead : Bulkhead.values()) {
+            String name = "clickhouse-" + bulkhead.getTag();
+            int threads = getThreads(settings, bulkhead);
+            int queueCapacity = getQueueCapacity(settings, bulkhead);
+
+            VirtualThreadQueryExecutor virtualThreadExecutor = virtualThreads
+                    ? VirtualThreadQueryExecutor.create(threads + queueCapacity, name, metrics)
+                    : null;
+            if (virtualThreadExecutor != null) {
+                executors.put(bulkhead, virtualThreadExecutor);
+                shutdownHooks.add(virtualThreadExecutor::close);
+                continue;
+            }
+
+            ThreadPoolTaskExecutor pool = createPool(name, threads, queueCapacity, metrics.rejections(name));
+            metrics.monitorExecutor(name, pool);
+            executors.put(bulkhead, pool);
+            shutdownHooks.add(pool::shutdown);
+        }
+        log.debug("Created ClickHouse bulkheads: {}", executors.keySet());
+        return new ClickHouseBulkheads(executors, shutdownHooks);
+    }
+
+    public Executor get(QueryType queryType) {
+        return get(Bulkhead.of(queryType));
+    }
+
+    public Executor get(Bulkhead bulkhead) {
+        return executors.get(bulkhead);
+    }
+
+    private static ThreadPoolTaskExecutor createPool(String name, int threads, int queueCapacity, Counter rejections) {
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(threads);
+        pool.setMaxPoolSize(threads);
+        pool.setQueueCapacity(queueCapacity);
+        pool.setThreadNamePrefix(name + "-");
+        pool.setDaemon(true);
+        pool.setRejectedExecutionHandler((task, executor) -> {
+            rejections.increment();
+            throw new RejectedExecutionException("Executor [%s] is overloaded, %s tasks are queued".formatted(name, executor.getQueue().size()));
+        });
+        pool.initialize();
+        return pool;
+    }
+
+    private static int getThreads(ClickHouseStorageSettings settings, Bulkhead bulkhead) {
+        return switch (bulkhead) {
+            case INGEST -> settings.getIngestThreads();
+            case TRACE_LOOKUP -> settings.getTraceLookupThreads();
+            case SEARCH -> settings.getSearchThreads();
+            case AUTOCOMPLETE -> settings.getAutocompleteThreads();
+        };
+    }
+
+    private static int getQueueCapacity(ClickHouseStorageSettings settings, Bulkhead bulkhead) {
+        return switch (bulkhead) {
+            case INGEST -> settings.getIngestQueueCapacity();
+            case TRACE_LOOKUP -> settings.getTraceLookupQueueCapacity();
+            case SEARCH -> settings.getSearchQueueCapacity();
+            case AUTOCOMPLETE -> settings.getAutocompleteQueueCapacity();
+        };
+    }
+
+    @Override
+    public void close() {
+        shutdownHooks.forEach(Runnable::run);
+    }
+}
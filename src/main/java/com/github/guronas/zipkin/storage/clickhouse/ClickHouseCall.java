@@ -16,25 +16,58 @@
 
 package com.github.guronas.zipkin.storage.clickhouse;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import zipkin2.Call;
 import zipkin2.Callback;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Supplier;
 
 @Slf4j
-@AllArgsConstructor
 public class ClickHouseCall<V> extends Call.Base<V> {
-    private final ThreadPoolTaskExecutor executor;
+    private final Executor executor;
+    private final ClickHouseStorageMetrics metrics;
+    private final QueryType queryType;
     private final Supplier<V> querySupplier;
+    @Nullable
+    private final QueryLimits limits;
+    private final QueryExecution execution;
+
+    /**
+     * Call without metrics and limits, it is reported as {@link QueryType#GET_TRACES} in errors
+     */
+    public ClickHouseCall(ThreadPoolTaskExecutor executor, Supplier<V> querySupplier) {
+        this(executor, ClickHouseStorageMetrics.NOOP, QueryType.GET_TRACES, querySupplier, QueryLimits.NONE);
+    }
+
+    public ClickHouseCall(Executor executor, ClickHouseStorageMetrics metrics, QueryType queryType, Supplier<V> querySupplier) {
+        this(executor, metrics, queryType, querySupplier, null);
+    }
+
+    /**
+     * @param limits are sent instead of the limits configured for {@code queryType}, if not null
+     */
+    public ClickHouseCall(Executor executor,
+                          ClickHouseStorageMetrics metrics,
+                          QueryType queryType,
+                          Supplier<V> querySupplier,
+                          @Nullable QueryLimits limits) {
+        this.executor = executor;
+        this.metrics = metrics;
+        this.queryType = queryType;
+        this.querySupplier = querySupplier;
+        this.limits = limits;
+        this.execution = new QueryExecution(queryType, limits);
+    }
 
     @Override
     protected V doExecute() {
         try {
             log.trace("Executing call with query [{}]", querySupplier);
-            return querySupplier.get();
+            return execution.run(() -> metrics.record(queryType, querySupplier));
         } catch (Exception e) {
             log.error("Failed to execute query [{}]", querySupplier, e);
             throw e;
@@ -44,18 +77,28 @@ public class ClickHouseCall<V> extends Call.Base<V> {
     @Override
     protected void doEnqueue(Callback<V> callback) {
         log.trace("Trying to enqueue call with query [{}]", querySupplier);
-        executor.execute(() -> {
-            try {
-                callback.onSuccess(doExecute());
-            } catch (Exception e) {
-                propagateIfFatal(e);
-                callback.onError(e);
-            }
-        });
+        try {
+            executor.execute(() -> {
+                try {
+                    callback.onSuccess(doExecute());
+                } catch (Exception e) {
+                    propagateIfFatal(e);
+                    callback.onError(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Call with query [{}] is rejected: {}", querySupplier, e.getMessage());
+            callback.onError(e);
+        }
+    }
+
+    @Override
+    protected void doCancel() {
+        execution.cancel();
     }
 
     @Override
     public Call<V> clone() {
-        return new ClickHouseCall<>(executor, querySupplier);
+        return new ClickHouseCall<>(executor, metrics, queryType, querySupplier, limits);
     }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.GetLastDependencyBucketQuery;
+import com.github.guronas.zipkin.storage.clickhouse.query.RollupDependenciesQuery;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import zipkin2.Call;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Periodically aggregates dependency links of every finished hour into {@code zipkin_dependencies} table,
+ * so {@link ClickHouseSpanStore#getDependencies(long, long)} reads only a few pre-aggregated rows.
+ * An hour is rolled up once {@code dependencyRollupDelay} passed after its end, so late spans are counted too.
+ * Rolled up hours are tracked in memory and restored from the table on start.
+ * Instances don't coordinate, so only one storage of a DB may run the rollup, otherwise hours are inserted several times.
+ */
+@Slf4j
+public class ClickHouseDependencyRollup implements Closeable {
+    private static final Duration BUCKET = Duration.ofHours(1);
+
+    private final Executor executor;
+    private final DSLContext dslContext;
+    private final ClickHouseStorageMetrics metrics;
+    private final Clock clock;
+    private final Duration delay;
+    private final Duration initialLookback;
+    private final ScheduledFuture<?> scheduledRollup;
+    private final AtomicBoolean rollupRequested = new AtomicBoolean();
+    /**
+     * Start of the first hour which isn't rolled up yet, {@code null} until it's looked up in DB
+     */
+    private volatile Instant nextBucket;
+
+    /**
+     * @param executor rollup queries run on, the bulkhead of {@link QueryType#DEPENDENCY_ROLLUP}
+     */
+    public ClickHouseDependencyRollup(Executor executor,
+                                      ScheduledExecutorService scheduler,
+                                      DSLContext dslContext,
+                                      ClickHouseStorageSettings settings,
+                                      ClickHouseStorageMetrics metrics) {
+        this(executor, scheduler, dslContext, settings, metrics, Clock.systemUTC());
+    }
+
+    ClickHouseDependencyRollup(Executor executor,
+                               ScheduledExecutorService scheduler,
+                               DSLContext dslContext,
+                               ClickHouseStorageSettings settings,
+                               ClickHouseStorageMetrics metrics,
+                               Clock clock) {
+        this.executor = executor;
+        this.dslContext = dslContext;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.delay = settings.getDependencyRollupDelay();
+        this.initialLookback = settings.getDependencyRollupInitialLookback();
+        long intervalMillis = settings.getDependencyRollupInterval().toMillis();
+        this.scheduledRollup = scheduler.scheduleWithFixedDelay(this::requestRollup, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void requestRollup() {
+        if (!rollupRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    rollup();
+                } finally {
+                    rollupRequested.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule dependency links rollup, executor is busy");
+            rollupRequested.set(false);
+        }
+    }
+
+    /**
+     * Rolls up every hour which is finished at least {@code dependencyRollupDelay} ago, one query per hour
+     */
+    void rollup() {
+        try {
+            Instant bucket = nextBucket != null ? nextBucket : findFirstBucket();
+            Instant now = clock.instant();
+            while (!bucket.plus(BUCKET).plus(delay).isAfter(now)) {
+                Instant bucketEnd = bucket.plus(BUCKET);
+                int links = metrics.record(QueryType.DEPENDENCY_ROLLUP, new RollupDependenciesQuery(dslContext, bucket, bucketEnd, delay));
+                log.debug("Rolled up {} dependency links of [{}]", links, bucket);
+                bucket = bucketEnd;
+                nextBucket = bucket;
+            }
+        } catch (Exception e) {
+            Call.propagateIfFatal(e);
+            //Failed hour is rolled up again next time
+            log.error("Failed to roll up dependency links", e);
+        }
+    }
+
+    private Instant findFirstBucket() {
+        Instant lastBucket = new GetLastDependencyBucketQuery(dslContext).get();
+        Instant firstBucket = lastBucket != null
+                ? lastBucket.plus(BUCKET)
+                : clock.instant().minus(initialLookback).truncatedTo(ChronoUnit.HOURS);
+        nextBucket = firstBucket;
+        return firstBucket;
+    }
+
+    @Override
+    public void close() {
+        scheduledRollup.cancel(false);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.AggregationByServiceNameQuery;
+import com.github.guronas.zipkin.storage.clickhouse.query.GetServiceNamesQuery;
+import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinRemoteServiceNames;
+import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpanNames;
+import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.springframework.util.StringUtils;
+import zipkin2.Call;
+import zipkin2.storage.ServiceAndSpanNames;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads service and span names from DB on every call
+ */
+@Slf4j
+public class ClickHouseServiceAndSpanNames implements ServiceAndSpanNames {
+    private final Executor clickHouseExecutor;
+    private final DSLContext dslContext;
+    private final boolean useNameTables;
+    private final ClickHouseStorageMetrics metrics;
+    private final ClickHouseCall<List<String>> serviceNamesCall;
+
+    public ClickHouseServiceAndSpanNames(Executor clickHouseExecutor, DSLContext dslContext) {
+        this(clickHouseExecutor, dslContext, false, ClickHouseStorageMetrics.NOOP);
+    }
+
+    /**
+     * @param useNameTables read names from tables filled by materialized views instead of {@link ZipkinSpans}
+     */
+    public ClickHouseServiceAndSpanNames(Executor clickHouseExecutor,
+                                         DSLContext dslContext,
+                                         boolean useNameTables,
+                                         ClickHouseStorageMetrics metrics) {
+        this.clickHouseExecutor = clickHouseExecutor;
+        this.dslContext = dslContext;
+        this.useNameTables = useNameTables;
+        this.metrics = metrics;
+        this.serviceNamesCall = new ClickHouseCall<>(clickHouseExecutor, metrics, QueryType.NAMES, new GetServiceNamesQuery(dslContext, useNameTables));
+    }
+
+    @Override
+    public Call<List<String>> getServiceNames() {
+        log.debug("Creating ClickHouse call for getting local service names");
+        return serviceNamesCall.clone();
+    }
+
+    @Override
+    public Call<List<String>> getRemoteServiceNames(String serviceName) {
+        log.debug("Creating ClickHouse call for getting remote service names");
+        if (useNameTables) {
+            return aggregateFieldsByServiceName(serviceName, ZipkinRemoteServiceNames.REMOTE_SERVICE_NAME, ZipkinRemoteServiceNames.SERVICE_NAME);
+        }
+        return aggregateFieldsByServiceName(serviceName, ZipkinSpans.REMOTE_SERVICE_NAME, ZipkinSpans.LOCAL_SERVICE_NAME);
+    }
+
+    @Override
+    public Call<List<String>> getSpanNames(String serviceName) {
+        log.debug("Creating ClickHouse call for getting span names by service name [{}]", serviceName);
+        if (useNameTables) {
+            return aggregateFieldsByServiceName(serviceName, ZipkinSpanNames.SPAN_NAME, ZipkinSpanNames.SERVICE_NAME);
+        }
+        return aggregateFieldsByServiceName(serviceName, ZipkinSpans.NAME, ZipkinSpans.LOCAL_SERVICE_NAME);
+    }
+
+    private Call<List<String>> aggregateFieldsByServiceName(String serviceName,
+                                                            TableField<Record, String> field,
+                                                            TableField<Record, String> serviceNameField) {
+        if (!StringUtils.hasLength(serviceName)) {
+            return Call.emptyList();
+        }
+        AggregationByServiceNameQuery query = new AggregationByServiceNameQuery(dslContext, serviceName, field, serviceNameField);
+        return new ClickHouseCall<>(clickHouseExecutor, metrics, QueryType.NAMES, query);
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.lang.Nullable;
+import zipkin2.Call;
+import zipkin2.Callback;
+import zipkin2.Span;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Collects spans of many {@link ClickhouseSpanConsumer#accept(List)} calls and writes them with one insert,
+ * so ClickHouse gets a few big parts instead of thousands of tiny ones.
+ * The buffer is flushed when it holds {@code spanBufferBatchSize} spans or every {@code spanBufferFlushInterval},
+ * whatever comes first. Spans of one {@code accept} call are accepted or rejected together.
+ */
+@Slf4j
+public class ClickHouseSpanBuffer implements Closeable {
+    private final Executor executor;
+    private final DSLContext dslContext;
+    private final SpanNameResolver spanNameResolver;
+    private final SpanInsertFormat spanInsertFormat;
+    private final boolean binaryIds;
+    private final ClickHouseStorageMetrics metrics;
+    @Nullable
+    private final ClickHouseSpanSpill spill;
+    @Nullable
+    private final ClickHouseTraceCache traceCache;
+    private final BlockingQueue<Span> queue = new LinkedBlockingQueue<>();
+    /**
+     * Free places of the buffer, a batch takes them all at once before it is queued, so it is accepted or rejected as a whole
+     */
+    private final Semaphore capacity;
+    private final int maxCapacity;
+    private final int batchSize;
+    private final SpanBufferOverflowStrategy overflowStrategy;
+    private final long blockTimeoutNanos;
+    private final ScheduledFuture<?> scheduledFlush;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    /**
+     * Spans are queued under the read lock and {@code closed} is set under the write lock,
+     * so every batch accepted before close is in the queue when the final flush drains it
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+    public ClickHouseSpanBuffer(Executor executor,
+                                ScheduledExecutorService scheduler,
+                                DSLContext dslContext,
+                                SpanNameResolver spanNameResolver,
+                                ClickHouseStorageSettings settings,
+                                ClickHouseStorageMetrics metrics) {
+        this(executor, scheduler, dslContext, spanNameResolver, settings, metrics, null);
+    }
+
+    /**
+     * @param spill spans of failed flushes are spilled to, they are dropped if null
+     */
+    public ClickHouseSpanBuffer(Executor executor,
+                                ScheduledExecutorService scheduler,
+                                DSLContext dslContext,
+                                SpanNameResolver spanNameResolver,
+                                ClickHouseStorageSettings settings,
+                                ClickHouseStorageMetrics metrics,
+                                @Nullable ClickHouseSpanSpill spill) {
+        this(executor, scheduler, dslContext, spanNameResolver, settings, metrics, spill, null);
+    }
+
+    /**
+     * @param traceCache cached traces of flushed spans are dropped from, if not null
+     */
+    public ClickHouseSpanBuffer(Executor executor,
+                                ScheduledExecutorService scheduler,
+                                DSLContext dslContext,
+                                SpanNameResolver spanNameResolver,
+                                ClickHouseStorageSettings settings,
+                                ClickHouseStorageMetrics metrics,
+                                @Nullable ClickHouseSpanSpill spill,
+                                @Nullable ClickHouseTraceCache traceCache) {
+        this.executor = executor;
+        this.traceCache = traceCache;
+        this.spill = spill;
+        this.metrics = metrics;
+        this.dslContext = dslContext;
+        this.spanNameResolver = spanNameResolver;
+        this.spanInsertFormat = settings.getSpanInsertFormat();
+        this.binaryIds = settings.isBinaryIdsEnabled();
+        this.maxCapacity = settings.getSpanBufferCapacity();
+        this.capacity = new Semaphore(maxCapacity);
+        this.batchSize = settings.getSpanBufferBatchSize();
+        this.overflowStrategy = settings.getSpanBufferOverflowStrategy();
+        this.blockTimeoutNanos = settings.getSpanBufferBlockTimeout().toNanos();
+        long flushIntervalMillis = settings.getSpanBufferFlushInterval().toMillis();
+        this.scheduledFlush = scheduler.scheduleWithFixedDelay(this::requestFlush, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public Call<Void> offer(List<Span> spans) {
+        return new OfferCall(spans);
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+    void add(List<Span> spans) {
+        if (closed) {
+            throw new ClickHouseStorageException("Span buffer is closed, %s spans were rejected", spans.size());
+        }
+
+        if (!reserve(spans.size())) {
+            throw new ClickHouseStorageException("Span buffer is full, %s spans were rejected", spans.size());
+        }
+        closeLock.readLock().lock();
+        try {
+            //Buffer may be closed while waiting for free space
+            if (closed) {
+                capacity.release(spans.size());
+                throw new ClickHouseStorageException("Span buffer is closed, %s spans were rejected", spans.size());
+            }
+            queue.addAll(spans);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+
+        if (queue.size() >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Takes places for all spans of a batch, none of them are taken if there isn't enough room
+     */
+    private boolean reserve(int spans) {
+        if (spans > maxCapacity) {
+            return false;
+        }
+        if (capacity.tryAcquire(spans)) {
+            return true;
+        }
+
+        requestFlush();
+        if (overflowStrategy == SpanBufferOverflowStrategy.REJECT) {
+            return false;
+        }
+
+        try {
+            return capacity.tryAcquire(spans, blockTimeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void requestFlush() {
+        if (queue.isEmpty() || !flushRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    flush();
+                } finally {
+                    flushRequested.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Spans stay in the buffer until the next attempt
+            log.warn("Unable to schedule span buffer flush, executor is busy");
+            flushRequested.set(false);
+        }
+    }
+
+    /**
+     * Writes everything the buffer holds at the moment, in batches of {@code spanBufferBatchSize} spans
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<Span> batch;
+            do {
+                batch = new ArrayList<>(Math.min(batchSize, queue.size()));
+                queue.drainTo(batch, batchSize);
+                capacity.release(batch.size());
+                if (!batch.isEmpty()) {
+                    insert(batch);
+                }
+            } while (batch.size() == batchSize);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void insert(List<Span> batch) {
+        try {
+            log.trace("Flushing {} buffered spans", batch.size());
+            Supplier<Void> query = spanInsertFormat.createQuery(dslContext, batch, spanNameResolver, binaryIds);
+            if (spill == null) {
+                metrics.record(QueryType.INSERT, query);
+            } else if (!metrics.record(QueryType.INSERT, () -> spill.insertOrSpill(batch, query))) {
+                //Spilled spans drop their traces from the cache when they are replayed
+                return;
+            }
+            metrics.recordInsert(batch);
+            if (traceCache != null) {
+                traceCache.invalidate(batch);
+            }
+        } catch (Exception e) {
+            Call.propagateIfFatal(e);
+            log.error("Failed to flush {} buffered spans, they are dropped", batch.size(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        scheduledFlush.cancel(false);
+        flush();
+    }
+
+    private class OfferCall extends Call.Base<Void> {
+        private final List<Span> spans;
+
+        private OfferCall(List<Span> spans) {
+            this.spans = spans;
+        }
+
+        @Override
+        protected Void doExecute() {
+            add(spans);
+            return null;
+        }
+
+        @Override
+        protected void doEnqueue(Callback<Void> callback) {
+            try {
+                callback.onSuccess(doExecute());
+            } catch (Exception e) {
+                propagateIfFatal(e);
+                callback.onError(e);
+            }
+        }
+
+        @Override
+        public Call<Void> clone() {
+            return new OfferCall(spans);
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.springframework.lang.Nullable;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesDecoder;
+import zipkin2.codec.SpanBytesEncoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Keeps spans on local disk while ClickHouse fails or is slow and replays them once it recovers.
+ * <p>
+ * Spans are appended in proto3 encoding to memory mapped segment files of {@code spillSegmentSize} bytes in {@code spillDirectory},
+ * at most {@code spillMaxDiskBytes} of them, spans which don't fit are dropped. As soon as an insert fails or takes longer
+ * than {@code spillLatencyThreshold}, the spill is engaged and new spans go to disk without trying ClickHouse,
+ * until the drainer replays all segments in batches of {@code spillDrainBatchSize} spans. Segments left by a previous run
+ * are replayed too. Replay is at least once: spans of a batch which failed in the middle of a segment are sent again.
+ * Records which can't be decoded are skipped, so a damaged segment doesn't block the ones after it.
+ */
+@Slf4j
+public class ClickHouseSpanSpill implements Closeable {
+    private static final String SEGMENT_PREFIX = "spans-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    /**
+     * Every record is prefixed with its length
+     */
+    private static final int RECORD_HEADER_SIZE = 4;
+
+    private final Executor executor;
+    private final DSLContext dslContext;
+    private final SpanNameResolver spanNameResolver;
+    private final SpanInsertFormat spanInsertFormat;
+    private final boolean binaryIds;
+    private final ClickHouseStorageMetrics metrics;
+    @Nullable
+    private final ClickHouseTraceCache traceCache;
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxSegments;
+    private final long latencyThresholdNanos;
+    private final int drainBatchSize;
+    private final Counter spilledSpans;
+    private final Counter drainedSpans;
+    private final Counter droppedSpans;
+    private final Counter corruptedRecords;
+    private final ScheduledFuture<?> scheduledDrain;
+    private final AtomicBoolean drainRequested = new AtomicBoolean();
+    private final ReentrantLock drainLock = new ReentrantLock();
+    /**
+     * Segments which are complete and wait for the drainer, oldest first. Guarded by {@code this}
+     */
+    private final Deque<Path> sealedSegments = new ArrayDeque<>();
+    /**
+     * Segment spans are appended to, guarded by {@code this}
+     */
+    @Nullable
+    private MappedByteBuffer activeSegment;
+    @Nullable
+    private Path activeSegmentPath;
+    private long nextSequence;
+    /**
+     * Position in the oldest sealed segment up to which spans are replayed, only used by the drainer
+     */
+    private int drainPosition;
+    private volatile boolean engaged;
+
+    public ClickHouseSpanSpill(Executor executor,
+                               ScheduledExecutorService scheduler,
+                               DSLContext dslContext,
+                               SpanNameResolver spanNameResolver,
+                               ClickHouseStorageSettings settings,
+                               ClickHouseStorageMetrics metrics) {
+        this(executor, scheduler, dslContext, spanNameResolver, settings, metrics, null);
+    }
+
+    /**
+     * @param traceCache cached traces of replayed spans are dropped from, if not null
+     */
+    public ClickHouseSpanSpill(Executor executor,
+                               ScheduledExecutorService scheduler,
+                               DSLContext dslContext,
+                               SpanNameResolver spanNameResolver,
+                               ClickHouseStorageSettings settings,
+                               ClickHouseStorageMetrics metrics,
+                               @Nullable ClickHouseTraceCache traceCache) {
+        this.executor = executor;
+        this.traceCache = traceCache;
+        this.dslContext = dslContext;
+        this.spanNameResolver = spanNameResolver;
+        this.spanInsertFormat = settings.getSpanInsertFormat();
+        this.binaryIds = settings.isBinaryIdsEnabled();
+        this.metrics = metrics;
+        this.directory = settings.getSpillDirectory();
+        this.segmentSize = settings.getSpillSegmentSize();
+        this.maxSegments = Math.max(1L, settings.getSpillMaxDiskBytes() / segmentSize);
+        this.latencyThresholdNanos = settings.getSpillLatencyThreshold().toNanos();
+        this.drainBatchSize = settings.getSpillDrainBatchSize();
+        this.spilledSpans = metrics.spillSpans("spilled");
+        this.drainedSpans = metrics.spillSpans("drained");
+        this.droppedSpans = metrics.spillSpans("dropped");
+        this.corruptedRecords = metrics.spillCorruptedRecords();
+        recoverSegments();
+        metrics.monitorSpill(this);
+        long drainIntervalMillis = settings.getSpillDrainInterval().toMillis();
+        this.scheduledDrain = scheduler.scheduleWithFixedDelay(this::requestDrain, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Inserts spans into ClickHouse or appends them to disk if the spill is engaged, the insert fails or is too slow
+     *
+     * @return true if spans are inserted into ClickHouse, false if they are spilled
+     * @throws RuntimeException of the insert if spans can't be spilled either
+     */
+    public boolean insertOrSpill(List<Span> spans, Supplier<Void> insert) {
+        if (engaged && spill(spans)) {
+            return false;
+        }
+
+        long start = System.nanoTime();
+        try {
+            insert.get();
+        } catch (RuntimeException e) {
+            if (!spill(spans)) {
+                throw e;
+            }
+            log.warn("Failed to insert {} spans, they are spilled to disk until ClickHouse recovers: {}", spans.size(), e.getMessage());
+            return false;
+        }
+
+        if (System.nanoTime() - start > latencyThresholdNanos && !engaged) {
+            log.warn("ClickHouse inserts are slow, new spans are spilled to disk until they are replayed");
+            engaged = true;
+        }
+        return true;
+    }
+
+    /**
+     * Appends spans to the active segment and engages the spill, so the next spans don't overtake them
+     *
+     * @return false if spans are dropped because there is no space left
+     */
+    public boolean spill(List<Span> spans) {
+        byte[] record = SpanBytesEncoder.PROTO3.encodeList(spans);
+        synchronized (this) {
+            try {
+                if (record.length + RECORD_HEADER_SIZE > segmentSize || !ensureActiveSegment(record.length + RECORD_HEADER_SIZE)) {
+                    log.warn("Spill is full, {} spans are dropped", spans.size());
+                    droppedSpans.increment(spans.size());
+                    return false;
+                }
+            } catch (IOException e) {
+                log.error("Failed to create spill segment, {} spans are dropped", spans.size(), e);
+                droppedSpans.increment(spans.size());
+                return false;
+            }
+            activeSegment.putInt(record.length);
+            activeSegment.put(record);
+            //Set under the lock, so the drainer can't disengage the spill between the append and this line
+            engaged = true;
+        }
+        spilledSpans.increment(spans.size());
+        return true;
+    }
+
+    public boolean isEngaged() {
+        return engaged;
+    }
+
+    /**
+     * @return number of bytes the segments take on disk
+     */
+    public synchronized long getDiskUsage() {
+        return (long) segmentSize * (sealedSegments.size() + (activeSegment != null ? 1 : 0));
+    }
+
+    /**
+     * @return number of segments waiting for the drainer, including the active one if it's not empty
+     */
+    public synchronized int getBacklog() {
+        return sealedSegments.size() + (activeSegment != null && activeSegment.position() > 0 ? 1 : 0);
+    }
+
+    private void requestDrain() {
+        if (getBacklog() == 0 || !drainRequested.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    drain();
+                } finally {
+                    drainRequested.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Unable to schedule spill drain, executor is busy");
+            drainRequested.set(false);
+        }
+    }
+
+    /**
+     * Replays spilled spans until all segments are drained or an insert fails
+     */
+    public void drain() {
+        drainLock.lock();
+        try {
+            Path segment;
+            while ((segment = nextSegmentToDrainOrDisengage()) != null) {
+                if (!drain(segment)) {
+                    return;
+                }
+                synchronized (this) {
+                    sealedSegments.removeFirst();
+                }
+                drainPosition = 0;
+                Files.deleteIfExists(segment);
+            }
+        } catch (IOException e) {
+            log.error("Failed to drain spill", e);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private boolean drain(Path segment) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.position(drainPosition);
+
+        List<Span> batch = new ArrayList<>();
+        while (buffer.remaining() > RECORD_HEADER_SIZE) {
+            int length = buffer.getInt();
+            //Zero length is the unwritten tail of the segment
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] record = new byte[length];
+            buffer.get(record);
+            try {
+                batch.addAll(SpanBytesDecoder.PROTO3.decodeList(record));
+            } catch (RuntimeException e) {
+                log.error("Skipped corrupted record of {} bytes in spill segment {}, its spans are lost: {}", length, segment, e.getMessage());
+                corruptedRecords.increment();
+                if (batch.isEmpty()) {
+                    drainPosition = buffer.position();
+                }
+                continue;
+            }
+
+            if (batch.size() >= drainBatchSize) {
+                if (!insert(batch)) {
+                    return false;
+                }
+                drainPosition = buffer.position();
+                batch = new ArrayList<>();
+            }
+        }
+        return batch.isEmpty() || insert(batch);
+    }
+
+    private boolean insert(List<Span> batch) {
+        try {
+            metrics.record(QueryType.INSERT, spanInsertFormat.createQuery(dslContext, batch, spanNameResolver, binaryIds));
+            metrics.recordInsert(batch);
+            drainedSpans.increment(batch.size());
+            if (traceCache != null) {
+                traceCache.invalidate(batch);
+            }
+            return true;
+        } catch (Exception e) {
+            Call.propagateIfFatal(e);
+            log.warn("Failed to replay {} spilled spans, they are retried later: {}", batch.size(), e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Disengages the spill if there is nothing left to drain, under the same lock spans are appended with
+     */
+    @Nullable
+    private synchronized Path nextSegmentToDrainOrDisengage() {
+        if (sealedSegments.isEmpty() && activeSegment != null && activeSegment.position() > 0) {
+            sealActiveSegment();
+        }
+        Path segment = sealedSegments.peekFirst();
+        if (segment == null && engaged) {
+            log.info("Spilled spans are replayed, new spans are inserted into ClickHouse again");
+            engaged = false;
+        }
+        return segment;
+    }
+
+    private boolean ensureActiveSegment(int recordSize) throws IOException {
+        if (activeSegment != null && activeSegment.remaining() >= recordSize) {
+            return true;
+        }
+        if (activeSegment != null) {
+            sealActiveSegment();
+        }
+        if (sealedSegments.size() + 1 > maxSegments) {
+            return false;
+        }
+
+        Path path = directory.resolve(SEGMENT_PREFIX + "%020d".formatted(nextSequence++) + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //Mapping stays valid after the channel is closed
+            activeSegment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        activeSegmentPath = path;
+        return true;
+    }
+
+    private void sealActiveSegment() {
+        activeSegment.force();
+        sealedSegments.addLast(activeSegmentPath);
+        activeSegment = null;
+        activeSegmentPath = null;
+    }
+
+    private void recoverSegments() {
+        try {
+            Files.createDirectories(directory);
+            List<Path> segments;
+            try (Stream<Path> files = Files.list(directory)) {
+                segments = files.filter(file -> file.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                        .filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                        .sorted()
+                        .toList();
+            }
+            for (Path segment : segments) {
+                sealedSegments.addLast(segment);
+                String name = segment.getFileName().toString();
+                long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                nextSequence = Math.max(nextSequence, sequence + 1);
+            }
+        } catch (IOException | NumberFormatException e) {
+            throw new ClickHouseStorageException(e, "Unable to open spill directory %s", directory);
+        }
+
+        if (!sealedSegments.isEmpty()) {
+            log.info("Found {} spill segments of a previous run, they are replayed", sealedSegments.size());
+            engaged = true;
+        }
+    }
+
+    /**
+     * Stops the drainer, spans left on disk are replayed after restart
+     */
+    @Override
+    public synchronized void close() {
+        scheduledDrain.cancel(false);
+        if (activeSegment == null) {
+            return;
+        }
+        if (activeSegment.position() > 0) {
+            sealActiveSegment();
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(activeSegmentPath);
+        } catch (IOException e) {
+            log.warn("Failed to delete empty spill segment {}", activeSegmentPath, e);
+        }
+        activeSegment = null;
+        activeSegmentPath = null;
+    }
+}
@@ -19,40 +19,84 @@ package com.github.guronas.zipkin.storage.clickhouse;
 import com.github.guronas.zipkin.storage.clickhouse.query.*;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
-import org.jooq.Record;
-import org.jooq.TableField;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
-import org.springframework.util.StringUtils;
+import org.springframework.lang.Nullable;
 import zipkin2.Call;
 import zipkin2.DependencyLink;
 import zipkin2.Span;
 import zipkin2.storage.*;
 
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 @Slf4j
 public class ClickHouseSpanStore implements SpanStore, Traces, ServiceAndSpanNames {
-    private final ThreadPoolTaskExecutor clickHouseExecutor;
+    private final ClickHouseBulkheads bulkheads;
     private final DSLContext dslContext;
     private final boolean strictTraceId;
-    private final ClickHouseCall<List<String>> serviceNamesCall;
+    private final ClickHouseStorageSettings settings;
+    private final ServiceAndSpanNames serviceAndSpanNames;
+    private final ClickHouseStorageMetrics metrics;
+    @Nullable
+    private final ClickHouseTraceCache traceCache;
     private final Call.Mapper<List<Span>, List<List<Span>>> groupByTraceId;
 
-    public ClickHouseSpanStore(ThreadPoolTaskExecutor clickHouseExecutor,
+    public ClickHouseSpanStore(Executor clickHouseExecutor,
                                DSLContext dslContext,
                                boolean strictTraceId) {
-        this.clickHouseExecutor = clickHouseExecutor;
+        this(clickHouseExecutor, dslContext, strictTraceId, ClickHouseStorageSettings.defaults(),
+                new ClickHouseServiceAndSpanNames(clickHouseExecutor, dslContext), ClickHouseStorageMetrics.NOOP);
+    }
+
+    public ClickHouseSpanStore(Executor clickHouseExecutor,
+                               DSLContext dslContext,
+                               boolean strictTraceId,
+                               ClickHouseStorageSettings settings,
+                               ServiceAndSpanNames serviceAndSpanNames,
+                               ClickHouseStorageMetrics metrics) {
+        this(ClickHouseBulkheads.shared(clickHouseExecutor), dslContext, strictTraceId, settings, serviceAndSpanNames, metrics);
+    }
+
+    public ClickHouseSpanStore(ClickHouseBulkheads bulkheads,
+                               DSLContext dslContext,
+                               boolean strictTraceId,
+                               ClickHouseStorageSettings settings,
+                               ServiceAndSpanNames serviceAndSpanNames,
+                               ClickHouseStorageMetrics metrics) {
+        this(bulkheads, dslContext, strictTraceId, settings, serviceAndSpanNames, metrics, null);
+    }
+
+    public ClickHouseSpanStore(ClickHouseBulkheads bulkheads,
+                               DSLContext dslContext,
+                               boolean strictTraceId,
+                               ClickHouseStorageSettings settings,
+                               ServiceAndSpanNames serviceAndSpanNames,
+                               ClickHouseStorageMetrics metrics,
+                               @Nullable ClickHouseTraceCache traceCache) {
+        this.bulkheads = bulkheads;
+        this.traceCache = traceCache;
         this.dslContext = dslContext;
         this.strictTraceId = strictTraceId;
-        this.serviceNamesCall = new ClickHouseCall<>(clickHouseExecutor, new GetServiceNamesQuery(dslContext));
+        this.settings = settings;
+        this.serviceAndSpanNames = serviceAndSpanNames;
+        this.metrics = metrics;
         this.groupByTraceId = GroupByTraceId.create(strictTraceId);
     }
 
     @Override
     public Call<List<List<Span>>> getTraces(QueryRequest request) {
         log.debug("Creating ClickHouse call for getting traces");
-        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, request);
-        Call<List<List<Span>>> result = new ClickHouseCall<>(clickHouseExecutor, query).map(groupByTraceId);
+        if (settings.isPartitionedSearchEnabled() && PartitionedSearch.isSplittable(request)) {
+            Call<List<List<Span>>> result = searchPartitions(request).map(groupByTraceId);
+            return strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
+        }
+
+        Supplier<List<Span>> query = settings.isIncrementalSearchEnabled()
+                ? new IncrementalSearchQuery(dslContext, request, settings.getIncrementalSearchInitialSlice().toMillis(),
+                settings.isTraceSummariesEnabled(), settings.isTraceIndexEnabled(), settings.isBinaryIdsEnabled())
+                : new GetAllSpansQuery(dslContext, request, settings.isSingleQuerySearchEnabled(),
+                settings.isTraceSummariesEnabled(), settings.isBinaryIdsEnabled());
+        Call<List<List<Span>>> result = call(QueryType.GET_TRACES, query).map(groupByTraceId);
 
         result = strictTraceId ? result.map(StrictTraceId.filterTraces(request)) : result;
         return result;
@@ -61,15 +105,21 @@ public class ClickHouseSpanStore implements SpanStore, Traces, ServiceAndSpanNam
     @Override
     public Call<List<Span>> getTrace(String traceId) {
         log.debug("Creating ClickHouse call for getting trace by trace id [{}]", traceId);
+        String normalizedTraceId = normalizeTraceId(traceId);
 
-        // make sure we have a 16 or 32 character trace ID
-        traceId = Span.normalizeTraceId(traceId);
-
-        // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
-        if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+        List<Span> cached = traceCache != null ? traceCache.get(normalizedTraceId) : null;
+        if (cached != null) {
+            log.trace("Trace [{}] is found in cache", normalizedTraceId);
+            return Call.create(cached);
+        }
 
-        GetSpansByTraceQuery query = new GetSpansByTraceQuery(dslContext, Collections.singleton(traceId));
-        return new ClickHouseCall<>(clickHouseExecutor, query);
+        GetSpansByTraceQuery query = new GetSpansByTraceQuery(dslContext, Collections.singleton(normalizedTraceId),
+                settings.isTraceIndexEnabled(), settings.isBinaryIdsEnabled());
+        Call<List<Span>> result = call(QueryType.GET_TRACE, query);
+        return traceCache == null ? result : result.map(spans -> {
+            traceCache.put(normalizedTraceId, spans);
+            return spans;
+        });
     }
 
     @Override
@@ -77,52 +127,142 @@ public class ClickHouseSpanStore implements SpanStore, Traces, ServiceAndSpanNam
         log.debug("Creating ClickHouse call for getting trace by trace ids [{}]", traceIds);
         Set<String> normalizedTraceIds = new LinkedHashSet<>();
         for (String traceId : traceIds) {
-            // make sure we have a 16 or 32 character trace ID
-            traceId = Span.normalizeTraceId(traceId);
-
-            // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
-            if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+            normalizedTraceIds.add(normalizeTraceId(traceId));
+        }
 
-            normalizedTraceIds.add(traceId);
+        List<List<Span>> cachedTraces = new ArrayList<>();
+        if (traceCache != null) {
+            for (Iterator<String> i = normalizedTraceIds.iterator(); i.hasNext(); ) {
+                List<Span> cached = traceCache.get(i.next());
+                if (cached != null) {
+                    cachedTraces.add(cached);
+                    i.remove();
+                }
+            }
         }
 
         if (normalizedTraceIds.isEmpty()) {
-            return Call.emptyList();
+            return cachedTraces.isEmpty() ? Call.emptyList() : Call.create(cachedTraces);
         }
-        GetSpansByTraceQuery query = new GetSpansByTraceQuery(dslContext, normalizedTraceIds);
-        return new ClickHouseCall<>(clickHouseExecutor, query).map(groupByTraceId);
+        Call<List<List<Span>>> result = getSpans(normalizedTraceIds).map(groupByTraceId);
+        if (traceCache == null) {
+            return result;
+        }
+        return result.map(traces -> {
+            for (List<Span> trace : traces) {
+                traceCache.put(normalizeTraceId(trace.get(0).traceId()), trace);
+            }
+            if (cachedTraces.isEmpty()) {
+                return traces;
+            }
+            List<List<Span>> merged = new ArrayList<>(cachedTraces);
+            merged.addAll(traces);
+            return merged;
+        });
     }
 
     @Override
     public Call<List<String>> getServiceNames() {
-        log.debug("Creating ClickHouse call for getting local service names");
-        return serviceNamesCall.clone();
+        return serviceAndSpanNames.getServiceNames();
     }
 
     @Override
     public Call<List<String>> getSpanNames(String serviceName) {
-        log.debug("Creating ClickHouse call for getting span names by service name [{}]", serviceName);
-        return aggregateFieldsByServiceName(serviceName, ZipkinSpans.NAME);
+        return serviceAndSpanNames.getSpanNames(serviceName);
     }
 
     @Override
     public Call<List<DependencyLink>> getDependencies(long endTs, long lookback) {
-        //We don't use this functionality
-        log.warn("Dependencies functionality is not supported in this version");
-        return Call.emptyList();
+        if (!settings.isDependencyLinksEnabled()) {
+            log.warn("Dependencies functionality is disabled");
+            return Call.emptyList();
+        }
+        if (endTs <= 0) throw new IllegalArgumentException("endTs <= 0");
+        if (lookback <= 0) throw new IllegalArgumentException("lookback <= 0");
+
+        log.debug("Creating ClickHouse call for getting dependency links before [{}] with lookback [{}]", endTs, lookback);
+        GetDependenciesQuery query = new GetDependenciesQuery(dslContext, Math.max(0L, endTs - lookback), endTs);
+        return call(QueryType.DEPENDENCIES, query);
     }
 
     @Override
     public Call<List<String>> getRemoteServiceNames(String serviceName) {
-        log.debug("Creating ClickHouse call for getting remote service names");
-        return aggregateFieldsByServiceName(serviceName, ZipkinSpans.REMOTE_SERVICE_NAME);
+        return serviceAndSpanNames.getRemoteServiceNames(serviceName);
     }
 
-    private Call<List<String>> aggregateFieldsByServiceName(String serviceName, TableField<Record, String> field) {
-        if (StringUtils.hasLength(serviceName)) {
-            return Call.emptyList();
+    private <V> Call<V> call(QueryType queryType, Supplier<V> query) {
+        return new ClickHouseCall<>(bulkheads.get(queryType), metrics, queryType, query);
+    }
+
+    /**
+     * Searches trace ids in every day of the lookback window with its own query, see {@link PartitionedSearch},
+     * and reads spans of the merged traces in the lookback window. All queries are limited as {@link QueryType#GET_TRACES}
+     * and stopped by ClickHouse after {@code partitionedSearchTimeout}
+     */
+    private Call<List<Span>> searchPartitions(QueryRequest request) {
+        QueryLimits limits = settings.getQueryLimits().getOrDefault(QueryType.GET_TRACES, QueryLimits.NONE)
+                .toBuilder()
+                .maxExecutionTime(settings.getPartitionedSearchTimeout())
+                .build();
+        List<Call<List<String>>> partitions = new ArrayList<>();
+        for (QueryRequest partition : PartitionedSearch.splitByDay(request)) {
+            GetAllSpansQuery query = new GetAllSpansQuery(dslContext, partition, false,
+                    settings.isTraceSummariesEnabled(), settings.isBinaryIdsEnabled());
+            Call<List<String>> call = new ClickHouseCall<>(bulkheads.get(QueryType.GET_TRACES), metrics, QueryType.GET_TRACES,
+                    query::getTraceIds, limits);
+            partitions.add(call.handleError(PartitionedSearch.skipFailed(partition)));
+        }
+        log.debug("Searching traces in {} partitions", partitions.size());
+        return new FanOutCall<>(partitions, settings.getPartitionedSearchMaxInFlight())
+                .map(results -> PartitionedSearch.merge(results, request.limit()))
+                .flatMap(traceIds -> traceIds.isEmpty() ? Call.emptyList() : getSpans(traceIds, request, limits));
+    }
+
+    /**
+     * Reads spans of the traces with one query or, if there are more than {@code traceLookupChunkSize} of them,
+     * with concurrent queries of {@code traceLookupChunkSize} traces each
+     */
+    private Call<List<Span>> getSpans(Set<String> traceIds) {
+        return getSpans(traceIds, null, null);
+    }
+
+    /**
+     * @param search traces are found by, spans are read in its lookback window as {@link QueryType#GET_TRACES} then
+     * @param limits of the search queries, if not null
+     */
+    private Call<List<Span>> getSpans(Set<String> traceIds, @Nullable QueryRequest search, @Nullable QueryLimits limits) {
+        QueryType queryType = search != null ? QueryType.GET_TRACES : QueryType.GET_TRACE;
+        int chunkSize = settings.getTraceLookupChunkSize();
+        if (chunkSize <= 0 || traceIds.size() <= chunkSize) {
+            return new ClickHouseCall<>(bulkheads.get(queryType), metrics, queryType, new GetSpansByTraceQuery(dslContext, traceIds,
+                    settings.isTraceIndexEnabled(), settings.isBinaryIdsEnabled(), search), limits);
+        }
+
+        List<Call<List<Span>>> chunks = new ArrayList<>(traceIds.size() / chunkSize + 1);
+        List<String> ids = new ArrayList<>(traceIds);
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            Set<String> chunk = new LinkedHashSet<>(ids.subList(from, Math.min(from + chunkSize, ids.size())));
+            chunks.add(new ClickHouseCall<>(bulkheads.get(queryType), metrics, queryType, new GetSpansByTraceQuery(dslContext, chunk,
+                    settings.isTraceIndexEnabled(), settings.isBinaryIdsEnabled(), search), limits));
+        }
+        log.debug("Looking up {} traces with {} queries", traceIds.size(), chunks.size());
+        return new FanOutCall<>(chunks, settings.getTraceLookupMaxInFlight()).map(ClickHouseSpanStore::flatten);
+    }
+
+    private static List<Span> flatten(List<List<Span>> chunks) {
+        List<Span> spans = new ArrayList<>();
+        for (List<Span> chunk : chunks) {
+            spans.addAll(chunk);
         }
-        AggregationByServiceNameQuery query = new AggregationByServiceNameQuery(dslContext, serviceName, field);
-        return new ClickHouseCall<>(clickHouseExecutor, query);
+        return spans;
+    }
+
+    private String normalizeTraceId(String traceId) {
+        // make sure we have a 16 or 32 character trace ID
+        traceId = Span.normalizeTraceId(traceId);
+
+        // Unless we are strict, truncate the trace ID to 64bit (encoded as 16 characters)
+        if (!strictTraceId && traceId.length() == 32) traceId = traceId.substring(16);
+        return traceId;
     }
 }
@@ -16,11 +16,18 @@
 
 package com.github.guronas.zipkin.storage.clickhouse;
 
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
 import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import zipkin2.Call;
 import zipkin2.CheckResult;
@@ -29,32 +36,132 @@ import zipkin2.storage.*;
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 @Slf4j
 public class ClickHouseStorage extends StorageComponent {
     private final ThreadPoolTaskExecutor clickHouseExecutor;
+    @Nullable
+    private final VirtualThreadQueryExecutor virtualThreadExecutor;
+    /**
+     * Executors queries are run on: separate pools, {@code clickHouseExecutor} or virtual threads
+     */
+    private final ClickHouseBulkheads bulkheads;
     private final DSLContext dslContext;
     private final List<String> autocompleteKeys;
+    private final ClickHouseStorageSettings settings;
+    private final ClickHouseStorageMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final SpanNameResolver spanNameResolver;
+    @Nullable
+    private final ClickHouseSpanSpill spill;
+    @Nullable
+    private final ClickHouseSpanBuffer spanBuffer;
+    private final ServiceAndSpanNames serviceAndSpanNames;
+    @Nullable
+    private final CachedServiceAndSpanNames cachedServiceAndSpanNames;
+    @Nullable
+    private final ClickHouseDependencyRollup dependencyRollup;
+    @Nullable
+    private final ClickHouseTraceCache traceCache;
+    @Nullable
+    private final CachedAutocompleteTags cachedAutocompleteTags;
 
     public ClickHouseStorage(ThreadPoolTaskExecutor clickHouseExecutor,
                              DataSource dataSource,
                              List<String> autocompleteKeys) {
+        this(clickHouseExecutor, dataSource, autocompleteKeys, ClickHouseStorageSettings.defaults());
+    }
+
+    public ClickHouseStorage(ThreadPoolTaskExecutor clickHouseExecutor,
+                             DataSource dataSource,
+                             List<String> autocompleteKeys,
+                             ClickHouseStorageSettings settings) {
+        this(clickHouseExecutor, dataSource, autocompleteKeys, settings, Metrics.globalRegistry);
+    }
+
+    /**
+     * @param meterRegistry registry storage metrics are reported to, zipkin-server reports the global one by default
+     */
+    public ClickHouseStorage(ThreadPoolTaskExecutor clickHouseExecutor,
+                             DataSource dataSource,
+                             List<String> autocompleteKeys,
+                             ClickHouseStorageSettings settings,
+                             MeterRegistry meterRegistry) {
+        if (settings.isBinaryIdsEnabled() && settings.getSpanInsertFormat() != SpanInsertFormat.ROW_BINARY) {
+            throw new IllegalArgumentException("Binary ids require ROW_BINARY span insert format");
+        }
+
         this.clickHouseExecutor = clickHouseExecutor;
         this.autocompleteKeys = autocompleteKeys;
+        this.settings = settings;
+        this.metrics = new ClickHouseStorageMetrics(meterRegistry);
+        metrics.monitorExecutor("clickhouse", clickHouseExecutor);
+        log.debug("Creating ClickHouse storage with settings: {}", settings);
+        this.virtualThreadExecutor = settings.isVirtualThreadsEnabled() && !settings.isBulkheadsEnabled()
+                ? createVirtualThreadExecutor(settings, metrics)
+                : null;
+        this.bulkheads = settings.isBulkheadsEnabled()
+                ? ClickHouseBulkheads.create(settings, settings.isVirtualThreadsEnabled(), metrics)
+                : ClickHouseBulkheads.shared(virtualThreadExecutor != null ? virtualThreadExecutor : clickHouseExecutor);
 
         //We pretend here that ClickHouse is just MySQL DB
         //because jooq doesn't support ClickHouse dialect but also ClickHouse has quite the same syntax in general
-        this.dslContext = DSL.using(dataSource, SQLDialect.MYSQL);
+        this.dslContext = DSL.using(dataSource, SQLDialect.MYSQL)
+                .configuration()
+                .derive(new DefaultExecuteListenerProvider(new QueryLimitsListener(settings.getQueryLimits())))
+                .dsl();
+
+        CustomizableThreadFactory schedulerThreadFactory = new CustomizableThreadFactory("clickhouse-scheduler-");
+        schedulerThreadFactory.setDaemon(true);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(schedulerThreadFactory);
+        this.spanNameResolver = new SpanNameResolver(dslContext, settings.getSpanNameCacheSize(), settings.getSpanNameLookupWindow(),
+                settings.isBinaryIdsEnabled());
+        this.traceCache = settings.isTraceCacheEnabled() ? new ClickHouseTraceCache(settings, metrics) : null;
+        this.spill = settings.getSpillDirectory() != null
+                ? new ClickHouseSpanSpill(bulkheads.get(Bulkhead.INGEST), scheduler, dslContext, spanNameResolver, settings, metrics, traceCache)
+                : null;
+        this.spanBuffer = settings.isSpanBufferEnabled()
+                ? new ClickHouseSpanBuffer(bulkheads.get(Bulkhead.INGEST), scheduler, dslContext, spanNameResolver, settings, metrics, spill,
+                traceCache)
+                : null;
+
+        ClickHouseServiceAndSpanNames dbServiceAndSpanNames = new ClickHouseServiceAndSpanNames(bulkheads.get(Bulkhead.AUTOCOMPLETE), dslContext,
+                settings.isNameTablesEnabled(), metrics);
+        this.cachedServiceAndSpanNames = settings.isNameCacheEnabled()
+                ? new CachedServiceAndSpanNames(bulkheads.get(Bulkhead.AUTOCOMPLETE), dbServiceAndSpanNames, settings)
+                : null;
+        this.serviceAndSpanNames = cachedServiceAndSpanNames != null ? cachedServiceAndSpanNames : dbServiceAndSpanNames;
+        this.dependencyRollup = settings.isDependencyLinksEnabled() && settings.isDependencyRollupEnabled()
+                ? new ClickHouseDependencyRollup(bulkheads.get(QueryType.DEPENDENCY_ROLLUP), scheduler, dslContext, settings, metrics)
+                : null;
+        this.cachedAutocompleteTags = settings.isAutocompleteCacheEnabled() && !autocompleteKeys.isEmpty()
+                ? new CachedAutocompleteTags(createAutocompleteTags(true), bulkheads.get(Bulkhead.AUTOCOMPLETE), scheduler, dslContext,
+                autocompleteKeys, settings, metrics)
+                : null;
+    }
+
+    @Nullable
+    private static VirtualThreadQueryExecutor createVirtualThreadExecutor(ClickHouseStorageSettings settings,
+                                                                         ClickHouseStorageMetrics metrics) {
+        VirtualThreadQueryExecutor executor = VirtualThreadQueryExecutor.create(settings.getMaxConcurrentQueries(),
+                "clickhouse-virtual", metrics);
+        if (executor == null) {
+            log.warn("Virtual threads aren't supported by this JVM, queries are run on the storage executor");
+        }
+        return executor;
     }
 
     @Override
     public SpanStore spanStore() {
-        return new ClickHouseSpanStore(clickHouseExecutor, dslContext, false);
+        return new ClickHouseSpanStore(bulkheads, dslContext, false, settings, serviceAndSpanNames, metrics, traceCache);
     }
 
     @Override
     public SpanConsumer spanConsumer() {
-        return new ClickhouseSpanConsumer(clickHouseExecutor, dslContext);
+        return new ClickhouseSpanConsumer(bulkheads.get(Bulkhead.INGEST), dslContext, spanNameResolver, settings.getSpanInsertFormat(),
+                settings.isBinaryIdsEnabled(), spanBuffer, cachedServiceAndSpanNames, cachedAutocompleteTags, spill, traceCache, metrics);
     }
 
     /**
@@ -67,7 +174,17 @@ public class ClickHouseStorage extends StorageComponent {
 
     @Override
     public AutocompleteTags autocompleteTags() {
-        return new ClickHouseAutocompleteTags(clickHouseExecutor, dslContext, autocompleteKeys);
+        return cachedAutocompleteTags != null ? cachedAutocompleteTags : createAutocompleteTags(false);
+    }
+
+    /**
+     * @param cached values are loaded into {@link CachedAutocompleteTags}, which writes them to {@code zipkin_tag_values},
+     *               so they are read from that table and only as far back as they stay cached
+     */
+    private ClickHouseAutocompleteTags createAutocompleteTags(boolean cached) {
+        int lookbackDays = cached ? (int) Math.max(1L, settings.getAutocompleteCacheValueTtl().toDays()) : 0;
+        return new ClickHouseAutocompleteTags(bulkheads.get(Bulkhead.AUTOCOMPLETE), dslContext, autocompleteKeys,
+                cached || settings.isNameTablesEnabled(), metrics, lookbackDays);
     }
 
     /**
@@ -75,7 +192,7 @@ public class ClickHouseStorage extends StorageComponent {
      */
     @Override
     public ServiceAndSpanNames serviceAndSpanNames() {
-        return (ServiceAndSpanNames) spanStore();
+        return serviceAndSpanNames;
     }
 
     @Override
@@ -94,6 +211,25 @@ public class ClickHouseStorage extends StorageComponent {
 
     @Override
     public void close() throws IOException {
+        //Buffered spans are flushed before the executor stops
+        if (spanBuffer != null) {
+            spanBuffer.close();
+        }
+        //Spans of the last flush may be spilled
+        if (spill != null) {
+            spill.close();
+        }
+        if (dependencyRollup != null) {
+            dependencyRollup.close();
+        }
+        if (cachedAutocompleteTags != null) {
+            cachedAutocompleteTags.close();
+        }
+        scheduler.shutdown();
+        bulkheads.close();
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.close();
+        }
         clickHouseExecutor.shutdown();
         super.close();
     }
@@ -39,4 +39,8 @@ public class ClickHouseStorageException extends RuntimeException {
     public ClickHouseStorageException(String message, Object... args) {
         super(message.formatted(args));
     }
+
+    public ClickHouseStorageException(Throwable cause, String message, Object... args) {
+        super(message.formatted(args), cause);
+    }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters of the storage: latency, failures and rows of every {@link QueryType},
+ * written spans and their size, and load of the executors queries run on
+ */
+public class ClickHouseStorageMetrics {
+    /**
+     * Metrics which are not reported anywhere
+     */
+    public static final ClickHouseStorageMetrics NOOP = new ClickHouseStorageMetrics(new CompositeMeterRegistry());
+
+    private static final String PREFIX = "zipkin.storage.clickhouse.";
+    /**
+     * Estimated size of a timestamp, a duration and the other fixed width columns of a span
+     */
+    private static final int FIXED_SPAN_SIZE = 8 * 3 + 4 * 2 + 4;
+
+    private final MeterRegistry registry;
+    private final Map<QueryType, Timer> latencies = new EnumMap<>(QueryType.class);
+    private final Map<QueryType, Counter> failures = new EnumMap<>(QueryType.class);
+    private final Map<QueryType, Counter> rowsRead = new EnumMap<>(QueryType.class);
+    private final Counter spansWritten;
+    private final DistributionSummary spansPerInsert;
+    private final Counter bytesSent;
+
+    public ClickHouseStorageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        for (QueryType type : QueryType.values()) {
+            latencies.put(type, Timer.builder(PREFIX + "query")
+                    .description("Time of ClickHouse queries, including the time they wait for a connection")
+                    .tag("type", type.getTag())
+                    .publishPercentileHistogram()
+                    .register(registry));
+            failures.put(type, Counter.builder(PREFIX + "query.failures")
+                    .description("Number of failed ClickHouse queries")
+                    .tag("type", type.getTag())
+                    .register(registry));
+            rowsRead.put(type, Counter.builder(PREFIX + "rows.read")
+                    .description("Number of rows returned by ClickHouse queries")
+                    .tag("type", type.getTag())
+                    .register(registry));
+        }
+        this.spansWritten = Counter.builder(PREFIX + "spans.written")
+                .description("Number of spans inserted into ClickHouse")
+                .register(registry);
+        this.spansPerInsert = DistributionSummary.builder(PREFIX + "insert.spans")
+                .description("Number of spans in one insert")
+                .register(registry);
+        this.bytesSent = Counter.builder(PREFIX + "insert.bytes")
+                .description("Estimated size of span data sent to ClickHouse")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public MeterRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * Runs the query and records its latency, failure or number of returned rows
+     */
+    public <V> V record(QueryType type, Supplier<V> query) {
+        Timer.Sample sample = Timer.start(registry);
+        try {
+            V result = query.get();
+            if (result instanceof Collection<?> rows) {
+                rowsRead.get(type).increment(rows.size());
+            }
+            return result;
+        } catch (RuntimeException e) {
+            failures.get(type).increment();
+            throw e;
+        } finally {
+            sample.stop(latencies.get(type));
+        }
+    }
+
+    /**
+     * Records spans which are successfully inserted
+     */
+    public void recordInsert(Collection<Span> spans) {
+        spansWritten.increment(spans.size());
+        spansPerInsert.record(spans.size());
+        long bytes = 0L;
+        for (Span span : spans) {
+            bytes += estimateSize(span);
+        }
+        bytesSent.increment(bytes);
+    }
+
+    /**
+     * Reports queue depth, active and pool threads of the executor, tagged with the given name
+     */
+    public void monitorExecutor(String name, ThreadPoolTaskExecutor executor) {
+        Gauge.builder(PREFIX + "executor.queued", executor, ClickHouseStorageMetrics::getQueueSize)
+                .description("Number of tasks waiting in the executor queue")
+                .tag("executor", name)
+                .register(registry);
+        Gauge.builder(PREFIX + "executor.active", executor, ThreadPoolTaskExecutor::getActiveCount)
+                .description("Number of executor threads which are running tasks")
+                .tag("executor", name)
+                .register(registry);
+        Gauge.builder(PREFIX + "executor.pool.size", executor, ThreadPoolTaskExecutor::getPoolSize)
+                .description("Number of executor threads")
+                .tag("executor", name)
+                .register(registry);
+    }
+
+    /**
+     * Reports queries in flight of a concurrency limiter with the given number of permits
+     *
+     * @return counter of tasks rejected by the limiter
+     */
+    public Counter monitorLimiter(String name, Semaphore permits, int maxPermits) {
+        Gauge.builder(PREFIX + "executor.active", permits, p -> maxPermits - p.availablePermits())
+                .description("Number of executor threads which are running tasks")
+                .tag("executor", name)
+                .register(registry);
+        return rejections(name);
+    }
+
+    /**
+     * @return counter of tasks the executor with the given name rejected
+     */
+    public Counter rejections(String name) {
+        return Counter.builder(PREFIX + "executor.rejected")
+                .description("Number of tasks rejected because the executor is overloaded")
+                .tag("executor", name)
+                .register(registry);
+    }
+
+    /**
+     * @param result {@code hit} or {@code miss}
+     * @return counter of requests to the cache with the given name
+     */
+    public Counter cacheRequests(String cache, String result) {
+        return Counter.builder(PREFIX + "cache.requests")
+                .description("Number of requests served by a storage cache or passed to ClickHouse")
+                .tag("cache", cache)
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * Reports the size of the cache with the given name, in whatever it counts its entries by
+     */
+    public <T> void monitorCacheSize(String cache, T state, ToDoubleFunction<T> size) {
+        Gauge.builder(PREFIX + "cache.size", state, size)
+                .description("Size of a storage cache")
+                .tag("cache", cache)
+                .register(registry);
+    }
+
+    /**
+     * @param result {@code spilled}, {@code drained} or {@code dropped}
+     * @return counter of spans which went through the disk spill with the given result
+     */
+    public Counter spillSpans(String result) {
+        return Counter.builder(PREFIX + "spill.spans")
+                .description("Number of spans spilled to disk, replayed from it or dropped because it is full")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    /**
+     * @return counter of spill records which couldn't be decoded, their spans are lost
+     */
+    public Counter spillCorruptedRecords() {
+        return Counter.builder(PREFIX + "spill.corrupted.records")
+                .description("Number of spill records skipped because they couldn't be decoded")
+                .register(registry);
+    }
+
+    /**
+     * Reports disk usage and backlog of the spill
+     */
+    public void monitorSpill(ClickHouseSpanSpill spill) {
+        Gauge.builder(PREFIX + "spill.bytes", spill, ClickHouseSpanSpill::getDiskUsage)
+                .description("Disk space taken by spill segments")
+                .baseUnit("bytes")
+                .register(registry);
+        Gauge.builder(PREFIX + "spill.backlog", spill, ClickHouseSpanSpill::getBacklog)
+                .description("Number of spill segments waiting to be replayed")
+                .register(registry);
+        Gauge.builder(PREFIX + "spill.engaged", spill, s -> s.isEngaged() ? 1 : 0)
+                .description("1 if new spans are spilled without trying ClickHouse")
+                .register(registry);
+    }
+
+    private static double getQueueSize(ThreadPoolTaskExecutor executor) {
+        try {
+            ThreadPoolExecutor threadPoolExecutor = executor.getThreadPoolExecutor();
+            return threadPoolExecutor.getQueue().size();
+        } catch (IllegalStateException e) {
+            //Executor isn't initialized yet
+            return 0;
+        }
+    }
+
+    private static long estimateSize(Span span) {
+        long size = FIXED_SPAN_SIZE
+                + length(span.traceId()) + length(span.parentId()) + length(span.id()) + length(span.name())
+                + estimateSize(span.localEndpoint()) + estimateSize(span.remoteEndpoint());
+        for (Annotation annotation : span.annotations()) {
+            size += length(annotation.value()) + 8;
+        }
+        for (Map.Entry<String, String> tag : span.tags().entrySet()) {
+            size += length(tag.getKey()) + length(tag.getValue());
+        }
+        return size;
+    }
+
+    private static long estimateSize(@Nullable Endpoint endpoint) {
+        if (endpoint == null) {
+            return 0L;
+        }
+        return length(endpoint.serviceName()) + length(endpoint.ipv4()) + length(endpoint.ipv6());
+    }
+
+    private static int length(@Nullable String value) {
+        return value == null ? 0 : value.length();
+    }
+}
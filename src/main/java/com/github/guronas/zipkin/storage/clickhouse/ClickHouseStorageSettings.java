@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.lang.Nullable;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Tuning options of {@link ClickHouseStorage}. Every option has a default, so
+ * {@code ClickHouseStorageSettings.builder().build()} gives the same behaviour as the storage had before the option appeared.
+ * Options which read tables added to {@code clickhouse.sql} later than {@code zipkin_spans} are disabled by default,
+ * those tables have to be created from {@code clickhouse.sql} before the options are enabled.
+ */
+@Getter
+@Builder
+@ToString
+public class ClickHouseStorageSettings {
+
+    /**
+     * ClickHouse resource limits sent with selects of each query type, types without limits use server defaults
+     */
+    @Builder.Default
+    private final Map<QueryType, QueryLimits> queryLimits = Map.of();
+
+    /**
+     * Run every query on its own virtual thread instead of the storage executor, so slow queries don't exhaust its pool.
+     * Requires Java 21, on older JVMs the storage executor is used
+     */
+    @Builder.Default
+    private final boolean virtualThreadsEnabled = false;
+
+    /**
+     * Max number of queries run on virtual threads at once, calls above the limit fail at once
+     */
+    @Builder.Default
+    private final int maxConcurrentQueries = 256;
+
+    /**
+     * Run ingest, trace lookup, search and autocomplete on separate executors with bounded queues,
+     * so expensive searches don't slow down span ingestion. Otherwise everything shares the storage executor
+     */
+    @Builder.Default
+    private final boolean bulkheadsEnabled = false;
+
+    @Builder.Default
+    private final int ingestThreads = 4;
+
+    /**
+     * Max number of inserts and buffer flushes waiting for an ingest thread
+     */
+    @Builder.Default
+    private final int ingestQueueCapacity = 10_000;
+
+    @Builder.Default
+    private final int traceLookupThreads = 4;
+
+    /**
+     * Max number of trace lookups waiting for a thread
+     */
+    @Builder.Default
+    private final int traceLookupQueueCapacity = 100;
+
+    @Builder.Default
+    private final int searchThreads = 2;
+
+    /**
+     * Max number of searches waiting for a thread
+     */
+    @Builder.Default
+    private final int searchQueueCapacity = 20;
+
+    @Builder.Default
+    private final int autocompleteThreads = 2;
+
+    /**
+     * Max number of autocomplete queries waiting for a thread
+     */
+    @Builder.Default
+    private final int autocompleteQueueCapacity = 100;
+
+    /**
+     * Accumulate spans of many {@code accept} calls in memory and write them with one big insert
+     */
+    @Builder.Default
+    private final boolean spanBufferEnabled = false;
+
+    /**
+     * Max number of spans waiting in the buffer
+     */
+    @Builder.Default
+    private final int spanBufferCapacity = 100_000;
+
+    /**
+     * Buffer is flushed as soon as it holds this number of spans
+     */
+    @Builder.Default
+    private final int spanBufferBatchSize = 10_000;
+
+    /**
+     * Buffer is flushed at least this often, even if it isn't full enough
+     */
+    @Builder.Default
+    private final Duration spanBufferFlushInterval = Duration.ofSeconds(1);
+
+    /**
+     * What to do with new spans when the buffer is full
+     */
+    @Builder.Default
+    private final SpanBufferOverflowStrategy spanBufferOverflowStrategy = SpanBufferOverflowStrategy.REJECT;
+
+    /**
+     * How long {@link SpanBufferOverflowStrategy#BLOCK} waits for free space before rejecting spans
+     */
+    @Builder.Default
+    private final Duration spanBufferBlockTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Max number of span names remembered for spans which will come later without a name
+     */
+    @Builder.Default
+    private final int spanNameCacheSize = 10_000;
+
+    /**
+     * How far from the timestamps of unnamed spans their relatives are looked up in DB
+     */
+    @Builder.Default
+    private final Duration spanNameLookupWindow = Duration.ofMinutes(10);
+
+    /**
+     * How spans are sent to ClickHouse
+     */
+    @Builder.Default
+    private final SpanInsertFormat spanInsertFormat = SpanInsertFormat.SQL_VALUES;
+
+    /**
+     * Spans are stored in the binary ids schema ({@code clickhouse-binary-ids.sql}), where trace id is {@code FixedString(16)}
+     * and span ids are {@code Int64}. Requires {@link SpanInsertFormat#ROW_BINARY}
+     */
+    @Builder.Default
+    private final boolean binaryIdsEnabled = false;
+
+    /**
+     * Directory spans are spilled to while ClickHouse fails or is slow, see {@link ClickHouseSpanSpill}. Spill is disabled if null
+     */
+    @Nullable
+    private final Path spillDirectory;
+
+    /**
+     * Size of one spill segment file, the biggest batch of spans which can be spilled
+     */
+    @Builder.Default
+    private final int spillSegmentSize = 64 * 1024 * 1024;
+
+    /**
+     * Max disk space taken by spill segments, spans which don't fit are dropped
+     */
+    @Builder.Default
+    private final long spillMaxDiskBytes = 1024L * 1024 * 1024;
+
+    /**
+     * Inserts slower than this engage the spill, as failed ones do
+     */
+    @Builder.Default
+    private final Duration spillLatencyThreshold = Duration.ofSeconds(10);
+
+    /**
+     * How often spilled spans are tried to be replayed
+     */
+    @Builder.Default
+    private final Duration spillDrainInterval = Duration.ofSeconds(5);
+
+    /**
+     * Spilled spans are replayed with inserts of this many spans
+     */
+    @Builder.Default
+    private final int spillDrainBatchSize = 10_000;
+
+    /**
+     * Look up time window of a trace in {@code zipkin_trace_index} table before reading its spans.
+     * Requires the table and its materialized view from {@code clickhouse.sql}, traces stored before they were created
+     * are looked up in the whole spans table
+     */
+    @Builder.Default
+    private final boolean traceIndexEnabled = false;
+
+    /**
+     * Search traces with one query, which finds matching trace ids in a subquery, instead of two round trips
+     */
+    @Builder.Default
+    private final boolean singleQuerySearchEnabled = false;
+
+    /**
+     * Search traces newest first in growing slices of the lookback window and stop as soon as enough traces are found,
+     * see {@link com.github.guronas.zipkin.storage.clickhouse.query.IncrementalSearchQuery}.
+     * Slices only fetch trace ids, so {@code singleQuerySearchEnabled} doesn't apply to it
+     */
+    @Builder.Default
+    private final boolean incrementalSearchEnabled = false;
+
+    /**
+     * Length of the first slice of an incremental search, every next slice is twice as long
+     */
+    @Builder.Default
+    private final Duration incrementalSearchInitialSlice = Duration.ofMinutes(15);
+
+    /**
+     * Search lookback windows longer than a day with a query per daily partition, which run concurrently,
+     * and read spans of the merged trace ids, see {@link PartitionedSearch}. Takes precedence over incremental search
+     */
+    @Builder.Default
+    private final boolean partitionedSearchEnabled = false;
+
+    /**
+     * Max number of partitions of one search searched at once
+     */
+    @Builder.Default
+    private final int partitionedSearchMaxInFlight = 4;
+
+    /**
+     * Partition queries running longer are stopped by ClickHouse and their traces are left out of the result
+     */
+    @Builder.Default
+    private final Duration partitionedSearchTimeout = Duration.ofSeconds(10);
+
+    /**
+     * Pick and rank traces of a search in {@code zipkin_trace_summaries} table instead of sorting spans.
+     * Requires the table and its materialized view from {@code clickhouse.sql}, traces stored before they were created aren't found
+     */
+    @Builder.Default
+    private final boolean traceSummariesEnabled = false;
+
+    /**
+     * Trace lookups by more ids than this are split into queries of this many ids, which run concurrently.
+     * Zero sends all ids in one query
+     */
+    @Builder.Default
+    private final int traceLookupChunkSize = 0;
+
+    /**
+     * Max number of queries of one chunked trace lookup running at once
+     */
+    @Builder.Default
+    private final int traceLookupMaxInFlight = 4;
+
+    /**
+     * Serve repeated lookups of settled traces from memory, see {@link ClickHouseTraceCache}
+     */
+    @Builder.Default
+    private final boolean traceCacheEnabled = false;
+
+    /**
+     * Max total number of spans of cached traces
+     */
+    @Builder.Default
+    private final long traceCacheMaxSpans = 100_000;
+
+    /**
+     * Traces are cached only if their last span ended longer than this ago, younger traces may still get spans
+     */
+    @Builder.Default
+    private final Duration traceCacheSettleAge = Duration.ofMinutes(5);
+
+    /**
+     * Serve service, remote service and span names from memory instead of querying DB every time
+     */
+    @Builder.Default
+    private final boolean nameCacheEnabled = true;
+
+    /**
+     * Cached names older than this are reloaded from DB in background
+     */
+    @Builder.Default
+    private final Duration nameCacheTtl = Duration.ofMinutes(1);
+
+    /**
+     * Max number of services names are cached for
+     */
+    @Builder.Default
+    private final int nameCacheMaxServices = 10_000;
+
+    /**
+     * Max number of span or remote service names cached for one service
+     */
+    @Builder.Default
+    private final int nameCacheMaxNamesPerService = 1_000;
+
+    /**
+     * Serve values of autocomplete keys from memory, capture them from accepted spans
+     * and write them to {@code zipkin_tag_values} table, see {@link CachedAutocompleteTags}.
+     * Values are loaded from the table too, whether {@code nameTablesEnabled} is set or not, so it requires the table
+     * from {@code clickhouse.sql}
+     */
+    @Builder.Default
+    private final boolean autocompleteCacheEnabled = false;
+
+    /**
+     * Max number of values cached for one autocomplete key, new values above it are ignored
+     */
+    @Builder.Default
+    private final int autocompleteCacheMaxValuesPerKey = 1_000;
+
+    /**
+     * Values not seen for this long are dropped from the cache and aren't loaded from DB
+     */
+    @Builder.Default
+    private final Duration autocompleteCacheValueTtl = Duration.ofDays(7);
+
+    /**
+     * Cached values are merged with the values in DB this often, so values written by other storages appear
+     */
+    @Builder.Default
+    private final Duration autocompleteCacheRefreshInterval = Duration.ofMinutes(1);
+
+    /**
+     * Values captured from spans are written to DB this often
+     */
+    @Builder.Default
+    private final Duration autocompleteCacheFlushInterval = Duration.ofSeconds(10);
+
+    /**
+     * Read service, span, remote service names and tag values from the small tables filled by materialized views
+     * ({@code zipkin_span_names}, {@code zipkin_remote_service_names}, {@code zipkin_tag_values}) instead of scanning spans.
+     * Requires the tables and their materialized views from {@code clickhouse.sql}, they only get names of spans stored after that.
+     * {@code zipkin_tag_values} gets values of the keys listed in its view only, the list should match {@code AUTOCOMPLETE_KEYS}.
+     * The view has to be dropped and created again when the keys change
+     */
+    @Builder.Default
+    private final boolean nameTablesEnabled = false;
+
+    /**
+     * Read dependency links from {@code zipkin_dependencies} table, requires the table from {@code clickhouse.sql}
+     */
+    @Builder.Default
+    private final boolean dependencyLinksEnabled = false;
+
+    /**
+     * Aggregate dependency links of finished hours into {@code zipkin_dependencies} table in background.
+     * Must be enabled on exactly one of the storages sharing one DB: rollups don't coordinate, so every instance running it
+     * inserts the same hours again and links are counted several times
+     */
+    @Builder.Default
+    private final boolean dependencyRollupEnabled = false;
+
+    /**
+     * How often the storage checks if there are hours to roll up
+     */
+    @Builder.Default
+    private final Duration dependencyRollupInterval = Duration.ofMinutes(1);
+
+    /**
+     * How long after its end an hour is rolled up, spans which come later aren't counted
+     */
+    @Builder.Default
+    private final Duration dependencyRollupDelay = Duration.ofMinutes(5);
+
+    /**
+     * How far in the past the first rollup starts if there are no links in the table yet
+     */
+    @Builder.Default
+    private final Duration dependencyRollupInitialLookback = Duration.ofDays(1);
+
+    public static ClickHouseStorageSettings defaults() {
+        return ClickHouseStorageSettings.builder().build();
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import zipkin2.Span;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps spans of recently looked up traces, so opening the same trace again doesn't query ClickHouse.
+ * Only settled traces, whose last span ended more than {@code traceCacheSettleAge} ago, are cached,
+ * because younger traces may still get spans. Size is limited by the total number of cached spans,
+ * least recently used traces are evicted first. Spans written late, by {@link ClickhouseSpanConsumer}, {@link ClickHouseSpanBuffer}
+ * or {@link ClickHouseSpanSpill}, drop the cached traces they belong to.
+ */
+@Slf4j
+public class ClickHouseTraceCache {
+    private final long maxSpans;
+    private final long settleMicros;
+    private final Clock clock;
+    private final Counter hits;
+    private final Counter misses;
+    /**
+     * Guarded by {@code this}
+     */
+    private final LinkedHashMap<String, List<Span>> traces = new LinkedHashMap<>(16, 0.75f, true);
+    private long spans;
+
+    public ClickHouseTraceCache(ClickHouseStorageSettings settings, ClickHouseStorageMetrics metrics) {
+        this(settings, metrics, Clock.systemUTC());
+    }
+
+    ClickHouseTraceCache(ClickHouseStorageSettings settings, ClickHouseStorageMetrics metrics, Clock clock) {
+        this.maxSpans = settings.getTraceCacheMaxSpans();
+        this.settleMicros = TimeUnit.MILLISECONDS.toMicros(settings.getTraceCacheSettleAge().toMillis());
+        this.clock = clock;
+        this.hits = metrics.cacheRequests("trace", "hit");
+        this.misses = metrics.cacheRequests("trace", "miss");
+        metrics.monitorCacheSize("trace", this, ClickHouseTraceCache::size);
+    }
+
+    /**
+     * @param traceId normalized trace id, as it's sent to DB
+     * @return cached spans of the trace or null if it isn't cached
+     */
+    @Nullable
+    public synchronized List<Span> get(String traceId) {
+        List<Span> trace = traces.get(traceId);
+        (trace == null ? misses : hits).increment();
+        return trace;
+    }
+
+    /**
+     * Caches the trace if it's settled and fits the cache
+     */
+    public void put(String traceId, List<Span> trace) {
+        if (trace.isEmpty() || trace.size() > maxSpans || !isSettled(trace)) {
+            return;
+        }
+
+        List<Span> copy = List.copyOf(trace);
+        synchronized (this) {
+            List<Span> previous = traces.put(traceId, copy);
+            spans += copy.size() - (previous == null ? 0 : previous.size());
+            Iterator<Map.Entry<String, List<Span>>> eldest = traces.entrySet().iterator();
+            while (spans > maxSpans && eldest.hasNext()) {
+                spans -= eldest.next().getValue().size();
+                eldest.remove();
+            }
+        }
+        log.trace("Trace [{}] of {} spans is cached", traceId, copy.size());
+    }
+
+    /**
+     * Drops cached traces of the written spans, so they are read from DB with these spans next time
+     */
+    public synchronized void invalidate(Collection<Span> written) {
+        for (Span span : written) {
+            String traceId = span.traceId();
+            remove(traceId);
+            //Trace ids are cached truncated to 64 bits unless they are strict
+            if (traceId.length() == 32) {
+                remove(traceId.substring(16));
+            }
+        }
+    }
+
+    private void remove(String traceId) {
+        List<Span> removed = traces.remove(traceId);
+        if (removed != null) {
+            spans -= removed.size();
+            log.trace("Cached trace [{}] is dropped, it got new spans", traceId);
+        }
+    }
+
+    /**
+     * @return number of cached spans
+     */
+    public synchronized long size() {
+        return spans;
+    }
+
+    private boolean isSettled(List<Span> trace) {
+        long settledBefore = TimeUnit.MILLISECONDS.toMicros(clock.millis()) - settleMicros;
+        for (Span span : trace) {
+            if (span.timestampAsLong() + span.durationAsLong() > settledBefore) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -16,22 +16,93 @@
 
 package com.github.guronas.zipkin.storage.clickhouse;
 
-import com.github.guronas.zipkin.storage.clickhouse.query.InsertSpansQuery;
-import lombok.RequiredArgsConstructor;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.DSLContext;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.lang.Nullable;
 import zipkin2.Call;
 import zipkin2.Span;
 import zipkin2.storage.SpanConsumer;
 
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
 @Slf4j
-@RequiredArgsConstructor
 public class ClickhouseSpanConsumer implements SpanConsumer {
-    private final ThreadPoolTaskExecutor executor;
+    private final Executor executor;
     private final DSLContext dslContext;
+    private final SpanNameResolver spanNameResolver;
+    private final SpanInsertFormat spanInsertFormat;
+    private final boolean binaryIds;
+    @Nullable
+    private final ClickHouseSpanBuffer spanBuffer;
+    @Nullable
+    private final CachedServiceAndSpanNames serviceAndSpanNames;
+    @Nullable
+    private final CachedAutocompleteTags autocompleteTags;
+    @Nullable
+    private final ClickHouseSpanSpill spill;
+    @Nullable
+    private final ClickHouseTraceCache traceCache;
+    private final ClickHouseStorageMetrics metrics;
+
+    public ClickhouseSpanConsumer(Executor executor, DSLContext dslContext) {
+        this(executor, dslContext, new SpanNameResolver(dslContext), SpanInsertFormat.SQL_VALUES, false, null, null, ClickHouseStorageMetrics.NOOP);
+    }
+
+    public ClickhouseSpanConsumer(Executor executor,
+                                  DSLContext dslContext,
+                                  SpanNameResolver spanNameResolver,
+                                  SpanInsertFormat spanInsertFormat,
+                                  boolean binaryIds,
+                                  @Nullable ClickHouseSpanBuffer spanBuffer,
+                                  @Nullable CachedServiceAndSpanNames serviceAndSpanNames,
+                                  ClickHouseStorageMetrics metrics) {
+        this(executor, dslContext, spanNameResolver, spanInsertFormat, binaryIds, spanBuffer, serviceAndSpanNames, null, null, metrics);
+    }
+
+    public ClickhouseSpanConsumer(Executor executor,
+                                  DSLContext dslContext,
+                                  SpanNameResolver spanNameResolver,
+                                  SpanInsertFormat spanInsertFormat,
+                                  boolean binaryIds,
+                                  @Nullable ClickHouseSpanBuffer spanBuffer,
+                                  @Nullable CachedServiceAndSpanNames serviceAndSpanNames,
+                                  @Nullable CachedAutocompleteTags autocompleteTags,
+                                  @Nullable ClickHouseSpanSpill spill,
+                                  ClickHouseStorageMetrics metrics) {
+        this(executor, dslContext, spanNameResolver, spanInsertFormat, binaryIds, spanBuffer, serviceAndSpanNames, autocompleteTags,
+                spill, null, metrics);
+    }
+
+    /**
+     * @param traceCache cached traces of inserted spans are dropped from, if not null
+     */
+    public ClickhouseSpanConsumer(Executor executor,
+                                  DSLContext dslContext,
+                                  SpanNameResolver spanNameResolver,
+                                  SpanInsertFormat spanInsertFormat,
+                                  boolean binaryIds,
+                                  @Nullable ClickHouseSpanBuffer spanBuffer,
+                                  @Nullable CachedServiceAndSpanNames serviceAndSpanNames,
+                                  @Nullable CachedAutocompleteTags autocompleteTags,
+                                  @Nullable ClickHouseSpanSpill spill,
+                                  @Nullable ClickHouseTraceCache traceCache,
+                                  ClickHouseStorageMetrics metrics) {
+        this.executor = executor;
+        this.dslContext = dslContext;
+        this.spanNameResolver = spanNameResolver;
+        this.spanInsertFormat = spanInsertFormat;
+        this.binaryIds = binaryIds;
+        this.spanBuffer = spanBuffer;
+        this.serviceAndSpanNames = serviceAndSpanNames;
+        this.autocompleteTags = autocompleteTags;
+        this.spill = spill;
+        this.traceCache = traceCache;
+        this.metrics = metrics;
+    }
 
     @Override
     public Call<Void> accept(List<Span> spans) {
@@ -39,7 +110,39 @@ public class ClickhouseSpanConsumer implements SpanConsumer {
             return Call.create(null);
         }
 
+        if (serviceAndSpanNames != null) {
+            serviceAndSpanNames.record(spans);
+        }
+        if (autocompleteTags != null) {
+            autocompleteTags.record(spans);
+        }
+
+        if (spanBuffer != null) {
+            log.trace("Creating call for buffering spans: {}", spans);
+            return spanBuffer.offer(spans);
+        }
+
         log.trace("Creating ClickHouse call for insert spans into DB: {}", spans);
-        return new ClickHouseCall<>(executor, new InsertSpansQuery(dslContext, spans));
+        Supplier<Void> query = spanInsertFormat.createQuery(dslContext, spans, spanNameResolver, binaryIds);
+        if (spill != null) {
+            return new ClickHouseCall<>(executor, metrics, QueryType.INSERT, () -> spill.insertOrSpill(spans, query)).map(inserted -> {
+                //Spilled spans drop their traces from the cache when they are replayed
+                if (inserted) {
+                    recordInsert(spans);
+                }
+                return null;
+            });
+        }
+        return new ClickHouseCall<>(executor, metrics, QueryType.INSERT, query).map(ignored -> {
+            recordInsert(spans);
+            return null;
+        });
+    }
+
+    private void recordInsert(List<Span> spans) {
+        metrics.recordInsert(spans);
+        if (traceCache != null) {
+            traceCache.invalidate(spans);
+        }
     }
 }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import lombok.extern.slf4j.Slf4j;
+import zipkin2.Call;
+import zipkin2.Callback;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs independent calls concurrently, at most {@code maxInFlight} at once, and returns their results in the order of the calls.
+ * The first failure fails the whole call and cancels the calls in flight.
+ */
+@Slf4j
+public class FanOutCall<V> extends Call.Base<List<V>> {
+    private final List<Call<V>> calls;
+    private final int maxInFlight;
+    private volatile Execution execution;
+
+    public FanOutCall(List<Call<V>> calls, int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight <= 0");
+        this.calls = List.copyOf(calls);
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    protected List<V> doExecute() throws IOException {
+        CompletableFuture<List<V>> result = new CompletableFuture<>();
+        doEnqueue(new Callback<>() {
+            @Override
+            public void onSuccess(List<V> value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            doCancel();
+            throw new IOException("Interrupted while waiting for %s calls".formatted(calls.size()), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            propagateIfFatal(cause);
+            if (cause instanceof IOException ioException) throw ioException;
+            if (cause instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new ClickHouseStorageException(cause, "Fan-out of %s calls failed", calls.size());
+        }
+    }
+
+    @Override
+    protected void doEnqueue(Callback<List<V>> callback) {
+        if (calls.isEmpty()) {
+            callback.onSuccess(List.of());
+            return;
+        }
+
+        Execution current = new Execution(callback);
+        execution = current;
+        for (int i = 0; i < Math.min(maxInFlight, calls.size()); i++) {
+            current.startNext();
+        }
+    }
+
+    @Override
+    protected void doCancel() {
+        Execution current = execution;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    @Override
+    public Call<List<V>> clone() {
+        return new FanOutCall<>(calls, maxInFlight);
+    }
+
+    private class Execution {
+        private final Callback<List<V>> callback;
+        private final AtomicReferenceArray<Call<V>> running;
+        private final AtomicReferenceArray<V> results;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        Execution(Callback<List<V>> callback) {
+            this.callback = callback;
+            this.running = new AtomicReferenceArray<>(calls.size());
+            this.results = new AtomicReferenceArray<>(calls.size());
+            this.remaining = new AtomicInteger(calls.size());
+        }
+
+        void startNext() {
+            int index = next.getAndIncrement();
+            if (index >= calls.size() || done.get()) {
+                return;
+            }
+
+            //Calls may be executed already, e.g. when the whole fan-out is cloned
+            Call<V> call = calls.get(index).clone();
+            running.set(index, call);
+            call.enqueue(new Callback<>() {
+                @Override
+                public void onSuccess(V value) {
+                    results.set(index, value);
+                    if (remaining.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                        callback.onSuccess(collectResults());
+                    } else {
+                        startNext();
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    if (done.compareAndSet(false, true)) {
+                        log.debug("Call {} of {} failed, canceling the others", index + 1, calls.size());
+                        cancel();
+                        callback.onError(t);
+                    }
+                }
+            });
+        }
+
+        void cancel() {
+            done.set(true);
+            for (int i = 0; i < running.length(); i++) {
+                Call<V> call = running.get(i);
+                if (call != null) {
+                    call.cancel();
+                }
+            }
+        }
+
+        private List<V> collectResults() {
+            List<V> list = new ArrayList<>(results.length());
+            for (int i = 0; i < results.length(); i++) {
+                list.add(results.get(i));
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import lombok.extern.slf4j.Slf4j;
+import zipkin2.Call;
+import zipkin2.storage.QueryRequest;
+
+import java.util.*;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ClickHouseQueryUtils.startOfDay;
+
+/**
+ * Splits a search over several days into one search per daily partition. Partitions are searched concurrently,
+ * each for ids of the full {@code limit} of traces, which are merged newest first. Spans of the merged traces are read
+ * with one lookup then, so traces crossing midnight are complete. Partitions which fail, e.g. time out,
+ * are left out of the result, so one slow partition doesn't fail the whole search.
+ */
+@Slf4j
+public class PartitionedSearch {
+
+    /**
+     * @return true if the lookback window of the request covers more than one UTC day
+     */
+    public static boolean isSplittable(QueryRequest request) {
+        return startOfDay(request.endTs() - 1) > begin(request);
+    }
+
+    /**
+     * @return requests of the same search limited to one UTC day each, the newest first
+     */
+    public static List<QueryRequest> splitByDay(QueryRequest request) {
+        long begin = begin(request);
+        List<QueryRequest> partitions = new ArrayList<>();
+        long partitionEnd = request.endTs();
+        while (partitionEnd > begin) {
+            long partitionStart = Math.max(begin, startOfDay(partitionEnd - 1));
+            partitions.add(request.toBuilder()
+                    .endTs(partitionEnd)
+                    .lookback(partitionEnd - partitionStart)
+                    .build());
+            partitionEnd = partitionStart;
+        }
+        return partitions;
+    }
+
+    /**
+     * @return error handler which logs the failure of the partition and completes it with null
+     */
+    public static <V> Call.ErrorHandler<V> skipFailed(QueryRequest partition) {
+        return (error, callback) -> {
+            log.warn("Search of partition ending at [{}] failed, its traces are left out: {}", partition.endTs(), error.getMessage());
+            callback.onSuccess(null);
+        };
+    }
+
+    /**
+     * Merges trace ids found in partitions, null for failed ones, and keeps {@code limit} of them.
+     * Partitions and their ids are the newest first, so the order is kept. A trace crossing midnight may be found
+     * by two partitions, it is ranked by the newer one
+     */
+    public static Set<String> merge(List<List<String>> partitions, int limit) {
+        Set<String> traceIds = new LinkedHashSet<>();
+        int failed = 0;
+        for (List<String> partition : partitions) {
+            if (partition == null) {
+                failed++;
+                continue;
+            }
+            for (String traceId : partition) {
+                if (traceIds.size() == limit) {
+                    break;
+                }
+                traceIds.add(traceId);
+            }
+        }
+
+        if (failed == partitions.size()) {
+            throw new ClickHouseStorageException("Search of all %s partitions failed", partitions.size());
+        }
+        if (failed > 0) {
+            log.debug("Search of {} partitions of {} failed, result is partial", failed, partitions.size());
+        }
+        return traceIds;
+    }
+
+    private static long begin(QueryRequest request) {
+        return Math.max(0L, request.endTs() - request.lookback());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.Supplier;
+
+/**
+ * One run of a {@link ClickHouseCall}. Statements the query sends are registered here by {@link QueryLimitsListener},
+ * so the call can cancel them, and ClickHouse errors about exceeded {@link QueryLimits} are turned into short messages.
+ */
+@Slf4j
+public class QueryExecution {
+    private static final ThreadLocal<QueryExecution> CURRENT = new ThreadLocal<>();
+
+    /**
+     * ClickHouse error codes, see {@code ErrorCodes.cpp}
+     */
+    private static final int TOO_MANY_ROWS = 158;
+    private static final int TIMEOUT_EXCEEDED = 159;
+    private static final int MEMORY_LIMIT_EXCEEDED = 241;
+    private static final int QUERY_WAS_CANCELLED = 394;
+
+    private final QueryType queryType;
+    @Nullable
+    private final QueryLimits limits;
+    private volatile boolean canceled;
+    @Nullable
+    private volatile Statement statement;
+
+    public QueryExecution(QueryType queryType) {
+        this(queryType, null);
+    }
+
+    /**
+     * @param limits override limits configured for the query type, if not null
+     */
+    public QueryExecution(QueryType queryType, @Nullable QueryLimits limits) {
+        this.queryType = queryType;
+        this.limits = limits;
+    }
+
+    /**
+     * @return execution the current thread is running or null if it runs none
+     */
+    @Nullable
+    public static QueryExecution current() {
+        return CURRENT.get();
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    @Nullable
+    public QueryLimits getLimits() {
+        return limits;
+    }
+
+    public <V> V run(Supplier<V> query) {
+        if (canceled) {
+            throw new ClickHouseStorageException("Query %s is canceled", queryType.getTag());
+        }
+
+        QueryExecution previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return query.get();
+        } catch (RuntimeException e) {
+            throw translate(e);
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Cancels the statement in flight, ClickHouse driver kills the query on the server by its {@code query_id}
+     */
+    public void cancel() {
+        canceled = true;
+        Statement current = statement;
+        if (current != null) {
+            cancel(current);
+        }
+    }
+
+    void started(Statement statement) {
+        this.statement = statement;
+        //Execution may be canceled between its start and the statement registration
+        if (canceled) {
+            cancel(statement);
+        }
+    }
+
+    void finished() {
+        statement = null;
+    }
+
+    private void cancel(Statement statement) {
+        try {
+            log.debug("Canceling {} query", queryType.getTag());
+            statement.cancel();
+        } catch (SQLException e) {
+            log.warn("Failed to cancel {} query", queryType.getTag(), e);
+        }
+    }
+
+    private RuntimeException translate(RuntimeException e) {
+        int errorCode = getErrorCode(e);
+        if (canceled || errorCode == QUERY_WAS_CANCELLED) {
+            return new ClickHouseStorageException(e, "Query %s is canceled", queryType.getTag());
+        }
+        return switch (errorCode) {
+            case TIMEOUT_EXCEEDED -> new ClickHouseStorageException(e, "Query %s timed out", queryType.getTag());
+            case TOO_MANY_ROWS -> new ClickHouseStorageException(e, "Query %s reads too many rows, narrow down the request",
+                    queryType.getTag());
+            case MEMORY_LIMIT_EXCEEDED -> new ClickHouseStorageException(e, "Query %s needs too much memory, narrow down the request",
+                    queryType.getTag());
+            default -> e;
+        };
+    }
+
+    private static int getErrorCode(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && sqlException.getErrorCode() != 0) {
+                return sqlException.getErrorCode();
+            }
+        }
+        return 0;
+    }
+}
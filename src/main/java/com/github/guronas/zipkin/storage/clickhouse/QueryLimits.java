@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ClickHouse resource limits of one {@link QueryType}, they are sent with every select of that type in {@code SETTINGS} clause.
+ * Absent or zero limits aren't sent, so server defaults are applied
+ */
+@Getter
+@Builder(toBuilder = true)
+@ToString
+public class QueryLimits {
+    public static final QueryLimits NONE = QueryLimits.builder().build();
+
+    /**
+     * {@code max_execution_time}, ClickHouse stops the query with {@code TIMEOUT_EXCEEDED} error after it
+     */
+    @Nullable
+    private final Duration maxExecutionTime;
+
+    /**
+     * {@code max_rows_to_read}
+     */
+    private final long maxRowsToRead;
+
+    /**
+     * {@code max_memory_usage} in bytes
+     */
+    private final long maxMemoryUsage;
+
+    /**
+     * @return {@code SETTINGS} clause to append to a select or an empty string if there are no limits
+     */
+    public String toSettingsClause() {
+        List<String> settings = new ArrayList<>(3);
+        if (maxExecutionTime != null && !maxExecutionTime.isZero()) {
+            //Fractional seconds are allowed
+            settings.add("max_execution_time = " + maxExecutionTime.toMillis() / 1000.0);
+        }
+        if (maxRowsToRead > 0) {
+            settings.add("max_rows_to_read = " + maxRowsToRead);
+        }
+        if (maxMemoryUsage > 0) {
+            settings.add("max_memory_usage = " + maxMemoryUsage);
+        }
+        return settings.isEmpty() ? "" : " SETTINGS " + String.join(", ", settings);
+    }
+}
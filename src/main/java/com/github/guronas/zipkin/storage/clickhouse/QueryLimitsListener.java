@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import org.jooq.ExecuteContext;
+import org.jooq.ExecuteListener;
+import org.jooq.ExecuteType;
+
+import java.util.Map;
+
+/**
+ * Appends {@link QueryLimits} of the running {@link QueryExecution}, its own or configured for its type, to selects and registers their statements for cancellation.
+ * Queries run outside of an execution aren't touched
+ */
+public class QueryLimitsListener implements ExecuteListener {
+    private final Map<QueryType, QueryLimits> limits;
+
+    public QueryLimitsListener(Map<QueryType, QueryLimits> limits) {
+        this.limits = limits;
+    }
+
+    @Override
+    public void renderEnd(ExecuteContext ctx) {
+        QueryExecution execution = QueryExecution.current();
+        if (execution == null || ctx.type() != ExecuteType.READ || ctx.sql() == null) {
+            return;
+        }
+
+        QueryLimits queryLimits = execution.getLimits() != null
+                ? execution.getLimits()
+                : limits.getOrDefault(execution.getQueryType(), QueryLimits.NONE);
+        String settings = queryLimits.toSettingsClause();
+        if (!settings.isEmpty()) {
+            ctx.sql(ctx.sql() + settings);
+        }
+    }
+
+    @Override
+    public void executeStart(ExecuteContext ctx) {
+        QueryExecution execution = QueryExecution.current();
+        if (execution != null && ctx.statement() != null) {
+            execution.started(ctx.statement());
+        }
+    }
+
+    @Override
+    public void end(ExecuteContext ctx) {
+        QueryExecution execution = QueryExecution.current();
+        if (execution != null) {
+            execution.finished();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+/**
+ * Kinds of work the storage sends to ClickHouse, metrics are reported separately for each of them
+ */
+public enum QueryType {
+    /**
+     * Span inserts, buffered or not
+     */
+    INSERT("insert"),
+    /**
+     * Trace search by {@link zipkin2.storage.QueryRequest}
+     */
+    GET_TRACES("getTraces"),
+    /**
+     * Trace lookup by one or many trace ids
+     */
+    GET_TRACE("getTrace"),
+    /**
+     * Service, remote service and span names
+     */
+    NAMES("names"),
+    /**
+     * Autocomplete tag values
+     */
+    TAGS("tags"),
+    DEPENDENCIES("dependencies"),
+    DEPENDENCY_ROLLUP("dependencyRollup");
+
+    private final String tag;
+
+    QueryType(String tag) {
+        this.tag = tag;
+    }
+
+    /**
+     * @return value of {@code type} tag of the query metrics
+     */
+    public String getTag() {
+        return tag;
+    }
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+public enum SpanBufferOverflowStrategy {
+    /**
+     * Fail the {@code accept} call immediately, the collector counts its spans as dropped
+     */
+    REJECT,
+    /**
+     * Wait for the buffer to be flushed, but not longer than the configured block timeout
+     */
+    BLOCK
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.Counter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs every query on its own virtual thread, so calls waiting for ClickHouse don't hold threads of a pool.
+ * Number of queries in flight is limited by {@code maxConcurrentQueries}, calls above the limit are rejected at once.
+ * Virtual threads are created through reflection, because the storage is built for Java 17.
+ */
+@Slf4j
+public class VirtualThreadQueryExecutor implements Executor, Closeable {
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final Counter rejections;
+
+    VirtualThreadQueryExecutor(ExecutorService executor, int maxConcurrentQueries, String name, ClickHouseStorageMetrics metrics) {
+        this.executor = executor;
+        this.permits = new Semaphore(maxConcurrentQueries);
+        this.rejections = metrics.monitorLimiter(name, permits, maxConcurrentQueries);
+    }
+
+    /**
+     * @return executor on virtual threads or null if the JVM doesn't support them
+     */
+    @Nullable
+    public static VirtualThreadQueryExecutor create(int maxConcurrentQueries, String name, ClickHouseStorageMetrics metrics) {
+        ExecutorService executor;
+        try {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException e) {
+            throw new ClickHouseStorageException("Unable to create virtual thread executor: %s", e.getMessage());
+        }
+        return new VirtualThreadQueryExecutor(executor, maxConcurrentQueries, name, metrics);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            rejections.increment();
+            throw new RejectedExecutionException("Too many concurrent ClickHouse queries");
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -32,14 +32,32 @@ public class AggregationByServiceNameQuery implements Supplier<List<String>> {
     private final DSLContext dslContext;
     private final String localServiceName;
     private final TableField<Record, String> aggregationField;
+    /**
+     * Field of the same table as {@code aggregationField} which holds local service name
+     */
+    private final TableField<Record, String> serviceNameField;
+
+    public AggregationByServiceNameQuery(DSLContext dslContext, String localServiceName, TableField<Record, String> aggregationField) {
+        this(dslContext, localServiceName, aggregationField, ZipkinSpans.LOCAL_SERVICE_NAME);
+    }
 
     @Override
     public List<String> get() {
         log.debug("Getting field [{}] aggregated by local service name [{}] from DB", aggregationField.getName(), localServiceName);
-        return dslContext.select(aggregationField)
-                .from(ZipkinSpans.ZIPKIN_SPANS_TABLE)
+        if (serviceNameField == ZipkinSpans.LOCAL_SERVICE_NAME) {
+            return dslContext.select(aggregationField)
+                    .from(ZipkinSpans.ZIPKIN_SPANS_TABLE)
+                    .where(NotEmptyCondition.notEmpty(aggregationField))
+                    .and(ZipkinSpans.LOCAL_SERVICE_NAME.eq(localServiceName))
+                    .fetch(aggregationField);
+        }
+
+        //Name tables are merged in the background, so a name may still be stored more than once
+        return dslContext.selectDistinct(aggregationField)
+                .from(aggregationField.getTable())
                 .where(NotEmptyCondition.notEmpty(aggregationField))
-                .and(ZipkinSpans.LOCAL_SERVICE_NAME.eq(localServiceName))
+                .and(serviceNameField.eq(localServiceName))
+                .orderBy(aggregationField)
                 .fetch(aggregationField);
     }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Condition;
+import org.jooq.Field;
+import org.jooq.QueryPart;
+import org.jooq.impl.DSL;
+import ru.yandex.clickhouse.util.ClickHouseRowBinaryStream;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Ids of the binary ids schema: trace id is stored as {@code FixedString(16)} with big-endian high and low halves,
+ * 64-bit trace ids have zero high half, span and parent ids are stored as {@code Int64} with the same bits as the hex id.
+ * Hex is converted char by char, without intermediate strings or byte arrays.
+ */
+public class BinaryIds {
+    private static final String ZERO_HIGH = "0000000000000000";
+
+    private BinaryIds() {
+    }
+
+    /**
+     * @param hex lower hex id of 16 or 32 chars
+     * @return the low 64 bits of the id
+     */
+    public static long low(String hex) {
+        return parse(hex, hex.length() - 16);
+    }
+
+    /**
+     * @param hex lower hex id of 16 or 32 chars
+     * @return the high 64 bits of a 128-bit id or zero
+     */
+    public static long high(String hex) {
+        return hex.length() == 32 ? parse(hex, 0) : 0L;
+    }
+
+    public static void writeTraceId(ClickHouseRowBinaryStream stream, String traceId) throws IOException {
+        //Stream writes little-endian numbers, FixedString has to keep bytes in the order of hex chars
+        stream.writeInt64(Long.reverseBytes(high(traceId)));
+        stream.writeInt64(Long.reverseBytes(low(traceId)));
+    }
+
+    public static void writeId(ClickHouseRowBinaryStream stream, String id) throws IOException {
+        stream.writeInt64(low(id));
+    }
+
+    /**
+     * Reads one half of a trace id from {@code FixedString(16)} bytes
+     */
+    public static long readLong(byte[] bytes, int offset) {
+        long result = 0L;
+        for (int i = offset; i < offset + 8; i++) {
+            result = (result << 8) | (bytes[i] & 0xFF);
+        }
+        return result;
+    }
+
+    public static Condition traceIdIn(Field<String> field, Collection<String> traceIds) {
+        QueryPart[] values = traceIds.stream()
+                .map(traceId -> DSL.field("unhex({0})", ClickhouseDataType.STRING, DSL.val(toTraceIdHex(traceId))))
+                .toArray(QueryPart[]::new);
+        return DSL.condition("{0} in ({1})", field, DSL.list(values));
+    }
+
+    /**
+     * @return hex of the {@code FixedString(16)} trace id, the bind value of {@link #traceIdIn(Field, Collection)}
+     */
+    public static String toTraceIdHex(String traceId) {
+        return traceId.length() == 32 ? traceId : ZERO_HIGH + traceId;
+    }
+
+    public static Condition idIn(Field<String> field, Collection<String> ids) {
+        QueryPart[] values = ids.stream()
+                .map(id -> DSL.val(low(id)))
+                .toArray(QueryPart[]::new);
+        return DSL.condition("{0} in ({1})", field, DSL.list(values));
+    }
+
+    /**
+     * @return lower hex of an {@code Int64} id column, the same string as {@link zipkin2.Span#id()}
+     */
+    public static Field<String> hex(Field<String> field) {
+        return DSL.field("leftPad(lower(hex({0})), 16, '0')", ClickhouseDataType.STRING, field);
+    }
+
+    /**
+     * @return lower hex of a {@code FixedString(16)} trace id column, 32 chars even if the high half is zero
+     */
+    public static Field<String> traceIdHex(Field<String> field) {
+        return DSL.field("lower(hex({0}))", ClickhouseDataType.STRING, field);
+    }
+
+    /**
+     * @param hex trace id of {@link #traceIdHex(Field)}
+     * @return the id of 16 chars if its high half is zero
+     */
+    public static String trimTraceId(String hex) {
+        return hex.length() == 32 && hex.startsWith(ZERO_HIGH) ? hex.substring(16) : hex;
+    }
+
+    private static long parse(String hex, int offset) {
+        long result = 0L;
+        for (int i = offset; i < offset + 16; i++) {
+            result = (result << 4) | digit(hex.charAt(i));
+        }
+        return result;
+    }
+
+    private static int digit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        throw new IllegalArgumentException("Id isn't lower hex, unexpected char '%s'".formatted(c));
+    }
+}
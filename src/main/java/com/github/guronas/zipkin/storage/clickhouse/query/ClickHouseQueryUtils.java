@@ -19,15 +19,19 @@ package com.github.guronas.zipkin.storage.clickhouse.query;
 import org.jooq.Field;
 import org.jooq.Record;
 import org.springframework.lang.Nullable;
+import org.springframework.util.StringUtils;
 import zipkin2.Endpoint;
 import zipkin2.Span;
 
+import java.time.Instant;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static java.lang.Boolean.TRUE;
 import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
 
 public class ClickHouseQueryUtils {
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
 
     public static Span buildSpan(Record record) {
         Endpoint localEndpoint = buildEndpoint(record, LOCAL_SERVICE_NAME, LOCAL_IPV4, LOCAL_IPV6, LOCAL_PORT);
@@ -54,19 +58,47 @@ public class ClickHouseQueryUtils {
         return spanBuilder.build();
     }
 
+    /**
+     * @return endpoint of the given columns or null if they are all empty
+     */
+    @Nullable
     public static Endpoint buildEndpoint(Record record,
                                          Field<String> serviceNameField,
                                          Field<String> ipv4Field,
                                          Field<String> ipv6Field,
                                          Field<Integer> portField) {
+        Integer port = record.getValue(portField);
+        if (!StringUtils.hasLength(record.getValue(serviceNameField))
+                && !StringUtils.hasLength(record.getValue(ipv4Field))
+                && !StringUtils.hasLength(record.getValue(ipv6Field))
+                && (port == null || port == 0)) {
+            return null;
+        }
+
         return Endpoint.newBuilder()
                 .serviceName(record.getValue(serviceNameField))
                 .ip(record.getValue(ipv4Field))
                 .ip(record.getValue(ipv6Field))
-                .port(record.getValue(portField))
+                .port(port)
                 .build();
     }
 
+    /**
+     * @return span timestamp in epoch micros, spans without timestamp are stored with the current time
+     */
+    public static long getTimestamp(Span span) {
+        Long timestamp = span.timestamp();
+        return timestamp == null ? TimeUnit.SECONDS.toMicros(Instant.now().getEpochSecond()) : timestamp;
+    }
+
+    /**
+     * @return start of the UTC day of epoch millis, spans are partitioned by {@code toYYYYMMDD(date_time)} of the server,
+     * which is expected to run in UTC
+     */
+    public static long startOfDay(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, DAY_MILLIS);
+    }
+
     public static short convertBooleanToShort(@Nullable Boolean flag) {
         return (short) (flag == TRUE ? 1 : 0);
     }
@@ -19,6 +19,7 @@ package com.github.guronas.zipkin.storage.clickhouse.query;
 import org.jooq.DataType;
 import org.jooq.impl.DefaultDataType;
 
+import java.sql.Date;
 import java.sql.Timestamp;
 import java.util.Map;
 
@@ -34,6 +35,10 @@ public class ClickhouseDataType {
 
     public static final DataType<Timestamp> DATE_TIME = new DefaultDataType<>(null, Timestamp.class, "DateTime");
 
+    public static final DataType<Date> DATE = new DefaultDataType<>(null, Date.class, "Date");
+
+    public static final DataType<String[]> STRING_ARRAY = new DefaultDataType<>(null, String[].class, "Array(String)");
+
     public static <T extends Enum<T>> DataType<T> enumDataType(Class<T> clazz) {
         return new DefaultDataType<>(null, String.class, "Enum8").asConvertedDataType(new ClickHouseEnumConverter<>(clazz));
     }
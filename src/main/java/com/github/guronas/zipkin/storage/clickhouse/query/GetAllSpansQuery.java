@@ -19,14 +19,19 @@ package com.github.guronas.zipkin.storage.clickhouse.query;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.*;
+import org.jooq.impl.DSL;
 import org.springframework.util.StringUtils;
 import zipkin2.Span;
 import zipkin2.storage.QueryRequest;
 
+import java.sql.Date;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
 import static org.jooq.impl.DSL.val;
@@ -34,11 +39,40 @@ import static com.github.guronas.zipkin.storage.clickhouse.query.condition.MapCo
 import static com.github.guronas.zipkin.storage.clickhouse.query.condition.TwoValueEqualsCondition.twoValueEquals;
 import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
 
+/**
+ * Searches traces matching {@link QueryRequest} and reads all their spans
+ */
 @Slf4j
 @AllArgsConstructor
 public class GetAllSpansQuery implements Supplier<List<Span>> {
     private final DSLContext dslContext;
     private final QueryRequest queryRequest;
+    /**
+     * Find trace ids with a subquery of the spans query, so search takes one round trip
+     * instead of fetching ids first and sending them back in the second query
+     */
+    private final boolean singleQuery;
+    /**
+     * Pick and rank traces in {@link ZipkinTraceSummaries} instead of sorting all matching spans of the lookback window
+     */
+    private final boolean useTraceSummaries;
+    /**
+     * Ids are stored in the binary ids schema, see {@link BinaryIds}. Trace ids are always found with a subquery then,
+     * because they can't be fetched as strings
+     */
+    private final boolean binaryIds;
+
+    public GetAllSpansQuery(DSLContext dslContext, QueryRequest queryRequest) {
+        this(dslContext, queryRequest, false);
+    }
+
+    public GetAllSpansQuery(DSLContext dslContext, QueryRequest queryRequest, boolean singleQuery) {
+        this(dslContext, queryRequest, singleQuery, false);
+    }
+
+    public GetAllSpansQuery(DSLContext dslContext, QueryRequest queryRequest, boolean singleQuery, boolean useTraceSummaries) {
+        this(dslContext, queryRequest, singleQuery, useTraceSummaries, false);
+    }
 
     @Override
     public List<Span> get() {
@@ -48,10 +82,174 @@ public class GetAllSpansQuery implements Supplier<List<Span>> {
         long lookBack = end - queryRequest.lookback();
         long begin = Math.max(0L, lookBack);
         Timestamp beginTimestamp = Timestamp.from(Instant.ofEpochMilli(begin));
-        SelectConditionStep<Record1<String>> query = dslContext.selectDistinct(TRACE_ID)
+        QueryTemplates templates = QueryTemplates.of(dslContext);
+
+        if (singleQuery || binaryIds) {
+            List<Object> params = new ArrayList<>(List.of(beginTimestamp, endTimestamp));
+            params.addAll(createTraceIdsParams(beginTimestamp, endTimestamp));
+            return SpanRowDecoder.decodeAll(templates.prepare(dslContext, "searchSpans:" + getShape(), params, () -> dslContext.selectFrom(ZIPKIN_SPANS_TABLE)
+                    .where(DATE_TIME.between(beginTimestamp, endTimestamp))
+                    .and(TRACE_ID.in(createTraceIdsQuery(beginTimestamp, endTimestamp, false)))), binaryIds);
+        }
+
+        List<String> traces = fetchTraceIds(beginTimestamp, endTimestamp);
+        if (traces.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<String> paddedTraces = QueryTemplates.padToBucket(traces);
+        List<Object> params = new ArrayList<>(List.of(beginTimestamp, endTimestamp));
+        params.addAll(paddedTraces);
+        return SpanRowDecoder.decodeAll(templates.prepare(dslContext, "searchSpansByIds:" + paddedTraces.size(), params, () -> dslContext.selectFrom(ZIPKIN_SPANS_TABLE)
+                .where(DATE_TIME.between(beginTimestamp, endTimestamp))
+                .and(TRACE_ID.in(paddedTraces))));
+    }
+
+    /**
+     * Searches traces without reading their spans
+     *
+     * @return ids of at most {@code limit} traces matching the request, the most recent first
+     */
+    public List<String> getTraceIds() {
+        log.trace("Getting trace ids from DB by request: {}", queryRequest);
+        long end = queryRequest.endTs();
+        long begin = Math.max(0L, end - queryRequest.lookback());
+        return fetchTraceIds(Timestamp.from(Instant.ofEpochMilli(begin)), Timestamp.from(Instant.ofEpochMilli(end)));
+    }
+
+    private List<String> fetchTraceIds(Timestamp beginTimestamp, Timestamp endTimestamp) {
+        List<String> traceIds = QueryTemplates.of(dslContext)
+                .prepare(dslContext, "searchTraceIds:" + getShape(), createTraceIdsParams(beginTimestamp, endTimestamp),
+                        () -> createTraceIdsQuery(beginTimestamp, endTimestamp, true))
+                .fetch(0, String.class);
+        return binaryIds ? traceIds.stream().map(BinaryIds::trimTraceId).toList() : traceIds;
+    }
+
+    /**
+     * @return key of the clauses the search has, values of the request are bind values and don't change it
+     */
+    private String getShape() {
+        StringBuilder shape = new StringBuilder()
+                .append(useTraceSummaries ? "summaries" : "spans")
+                .append(binaryIds ? ",binaryIds" : "")
+                .append(queryRequest.serviceName() != null ? ",serviceName" : "")
+                .append(queryRequest.remoteServiceName() != null ? ",remoteServiceName" : "")
+                .append(queryRequest.spanName() != null ? ",spanName" : "")
+                .append(queryRequest.minDuration() != null ? ",minDuration" : "")
+                .append(queryRequest.maxDuration() != null ? ",maxDuration" : "");
+        queryRequest.annotationQuery().forEach((key, value) -> shape.append(StringUtils.hasLength(value) ? ",tag" : ",annotation"));
+        return shape.toString();
+    }
+
+    /**
+     * @return bind values of {@link #createTraceIdsQuery(Timestamp, Timestamp, boolean)} in the order they are rendered
+     */
+    private List<Object> createTraceIdsParams(Timestamp beginTimestamp, Timestamp endTimestamp) {
+        List<Object> params = new ArrayList<>();
+        if (!useTraceSummaries) {
+            params.addAll(List.of(beginTimestamp, endTimestamp));
+            params.addAll(createFilterParams());
+        } else {
+            params.addAll(List.of(plusDays(beginTimestamp, -1), plusDays(endTimestamp, 1)));
+            if (hasSpanConditions()) {
+                params.addAll(List.of(beginTimestamp, endTimestamp));
+                params.addAll(createFilterParams());
+            }
+            params.addAll(List.of(toMicros(beginTimestamp), toMicros(endTimestamp)));
+            if (queryRequest.serviceName() != null && !hasSpanConditions()) {
+                params.add(queryRequest.serviceName());
+            }
+        }
+        params.add((long) queryRequest.limit());
+        return params;
+    }
+
+    /**
+     * @param fetched ids are sent to the client rather than used in a subquery, binary ids are selected as hex then
+     */
+    private Select<Record1<String>> createTraceIdsQuery(Timestamp beginTimestamp, Timestamp endTimestamp, boolean fetched) {
+        if (useTraceSummaries) {
+            return createTraceSummariesQuery(beginTimestamp, endTimestamp, fetched);
+        }
+
+        return filterSpans(dslContext.selectDistinct(binaryIds && fetched ? BinaryIds.traceIdHex(TRACE_ID) : TRACE_ID)
                 .from(ZIPKIN_SPANS_TABLE)
-                .where(DATE_TIME.between(beginTimestamp, endTimestamp));
+                .where(DATE_TIME.between(beginTimestamp, endTimestamp)))
+                .orderBy(TIMESTAMP.desc())
+                .limit(queryRequest.limit());
+    }
+
+    /**
+     * Traces are ranked by their start, which is aggregated over the few summary rows of every trace.
+     * Conditions on single spans are still checked in {@link ZipkinSpans}, but with a subquery which doesn't have to be sorted.
+     * Date of a row is the day of the first span of its insert, so rows are read a day around the window:
+     * an earlier row of a trace crossing midnight must not be left out of its start
+     */
+    private Select<Record1<String>> createTraceSummariesQuery(Timestamp beginTimestamp, Timestamp endTimestamp, boolean fetched) {
+        SelectConditionStep<Record1<String>> query = dslContext.select(binaryIds && fetched
+                        ? BinaryIds.traceIdHex(ZipkinTraceSummaries.TRACE_ID)
+                        : ZipkinTraceSummaries.TRACE_ID)
+                .from(ZipkinTraceSummaries.ZIPKIN_TRACE_SUMMARIES_TABLE)
+                .where(ZipkinTraceSummaries.DATE.between(toDate(plusDays(beginTimestamp, -1)), toDate(plusDays(endTimestamp, 1))));
+
+        boolean hasSpanConditions = hasSpanConditions();
+        if (hasSpanConditions) {
+            query.and(ZipkinTraceSummaries.TRACE_ID.in(filterSpans(dslContext.select(TRACE_ID)
+                    .from(ZIPKIN_SPANS_TABLE)
+                    .where(DATE_TIME.between(beginTimestamp, endTimestamp)))));
+        }
 
+        Field<Long> start = DSL.min(ZipkinTraceSummaries.START_TS);
+        Condition having = start.between(toMicros(beginTimestamp), toMicros(endTimestamp));
+        String serviceName = queryRequest.serviceName();
+        if (serviceName != null && !hasSpanConditions) {
+            Field<String[]> services = DSL.field("groupUniqArrayArray({0})", ClickhouseDataType.STRING_ARRAY, ZipkinTraceSummaries.SERVICES);
+            having = having.and(DSL.condition("has({0}, {1})", services, val(serviceName, ClickhouseDataType.STRING)));
+        }
+
+        return query.groupBy(ZipkinTraceSummaries.TRACE_ID)
+                .having(having)
+                .orderBy(start.desc())
+                .limit(queryRequest.limit());
+    }
+
+    private boolean hasSpanConditions() {
+        return queryRequest.remoteServiceName() != null
+                || queryRequest.spanName() != null
+                || !queryRequest.annotationQuery().isEmpty()
+                || queryRequest.minDuration() != null
+                || queryRequest.maxDuration() != null;
+    }
+
+    /**
+     * @return bind values of {@link #filterSpans(SelectConditionStep)} in the order they are rendered
+     */
+    private List<Object> createFilterParams() {
+        List<Object> params = new ArrayList<>();
+        if (queryRequest.serviceName() != null) {
+            params.add(queryRequest.serviceName());
+        }
+        if (queryRequest.remoteServiceName() != null) {
+            params.add(queryRequest.remoteServiceName());
+        }
+        if (queryRequest.spanName() != null) {
+            params.add(queryRequest.spanName());
+        }
+        queryRequest.annotationQuery().forEach((key, value) -> {
+            //An annotation is looked up in both maps, a tag is compared with its value
+            params.add(key);
+            params.add(StringUtils.hasLength(value) ? value : key);
+        });
+        if (queryRequest.minDuration() != null) {
+            params.add(queryRequest.minDuration());
+        }
+        if (queryRequest.maxDuration() != null) {
+            params.add(queryRequest.maxDuration());
+        }
+        return params;
+    }
+
+    private SelectConditionStep<Record1<String>> filterSpans(SelectConditionStep<Record1<String>> query) {
         String serviceName = queryRequest.serviceName();
         if (serviceName != null) {
             query.and(LOCAL_SERVICE_NAME.eq(serviceName));
@@ -85,19 +283,18 @@ public class GetAllSpansQuery implements Supplier<List<Span>> {
             query.and(DURATION.lessOrEqual(maxDuration));
         }
 
-        Result<Record1<String>> traces = query.orderBy(TIMESTAMP.desc())
-                .limit(queryRequest.limit())
-                .fetch();
+        return query;
+    }
+
+    private static Field<Date> toDate(Timestamp timestamp) {
+        return DSL.field("toDate({0})", ClickhouseDataType.DATE, val(timestamp));
+    }
 
-        if (traces.isEmpty()) {
-            return Collections.emptyList();
-        }
+    private static Timestamp plusDays(Timestamp timestamp, long days) {
+        return Timestamp.from(timestamp.toInstant().plus(days, ChronoUnit.DAYS));
+    }
 
-        return dslContext.selectFrom(ZIPKIN_SPANS_TABLE)
-                .where(DATE_TIME.between(beginTimestamp, endTimestamp))
-                .and(TRACE_ID.in(traces))
-                .fetchStream()
-                .map(ClickHouseQueryUtils::buildSpan)
-                .toList();
+    private static long toMicros(Timestamp timestamp) {
+        return TimeUnit.MILLISECONDS.toMicros(timestamp.getTime());
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import zipkin2.DependencyLink;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinDependencies.*;
+
+/**
+ * Sums hourly dependency links of the given time window. Hours which aren't rolled up yet aren't counted
+ */
+@Slf4j
+@AllArgsConstructor
+public class GetDependenciesQuery implements Supplier<List<DependencyLink>> {
+    private final DSLContext dslContext;
+    private final long beginTimestampMillis;
+    private final long endTimestampMillis;
+
+    @Override
+    public List<DependencyLink> get() {
+        log.trace("Getting dependency links from DB between [{}] and [{}]", beginTimestampMillis, endTimestampMillis);
+        return dslContext.select(PARENT, CHILD, DSL.sum(CALL_COUNT), DSL.sum(ERROR_COUNT))
+                .from(ZIPKIN_DEPENDENCIES_TABLE)
+                .where(BUCKET.ge(new Timestamp(beginTimestampMillis)))
+                .and(BUCKET.lt(new Timestamp(endTimestampMillis)))
+                .groupBy(PARENT, CHILD)
+                .fetch(record -> DependencyLink.newBuilder()
+                        .parent(record.value1())
+                        .child(record.value2())
+                        .callCount(record.value3().longValue())
+                        .errorCount(record.value4().longValue())
+                        .build());
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.springframework.lang.Nullable;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinDependencies.*;
+
+/**
+ * Finds the latest hour dependency links are rolled up for, {@code null} if there are no links at all
+ */
+@Slf4j
+@AllArgsConstructor
+public class GetLastDependencyBucketQuery implements Supplier<Instant> {
+    private final DSLContext dslContext;
+
+    @Nullable
+    @Override
+    public Instant get() {
+        log.trace("Getting last dependency links bucket from DB");
+        Timestamp lastBucket = dslContext.select(DSL.max(BUCKET))
+                .from(ZIPKIN_DEPENDENCIES_TABLE)
+                .fetchOne(0, Timestamp.class);
+        //ClickHouse returns zero date instead of null for an empty table
+        if (lastBucket == null || lastBucket.getTime() <= 0L) {
+            return null;
+        }
+        return lastBucket.toInstant();
+    }
+}
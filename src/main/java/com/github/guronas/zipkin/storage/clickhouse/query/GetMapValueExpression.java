@@ -20,9 +20,13 @@ import org.jooq.Context;
 import org.jooq.DataType;
 import org.jooq.Field;
 import org.jooq.impl.CustomField;
+import org.jooq.impl.DSL;
 
 import java.util.Map;
 
+/**
+ * {@code field[key]}, key is sent as a bind value
+ */
 public class GetMapValueExpression<K, V> extends CustomField<V> {
     private final Field<Map<K, V>> field;
     private final K key;
@@ -36,9 +40,9 @@ public class GetMapValueExpression<K, V> extends CustomField<V> {
     @Override
     public void accept(Context<?> ctx) {
         ctx.visit(field)
-                .sql("['")
-                .sql(key.toString())
-                .sql("']");
+                .sql('[')
+                .visit(DSL.val(key))
+                .sql(']');
     }
 
     public static <K, V> GetMapValueExpression<K, V> getMapValue(Field<Map<K, V>> field, K key, DataType<V> valueDataType) {
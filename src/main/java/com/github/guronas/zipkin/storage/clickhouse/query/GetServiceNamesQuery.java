@@ -31,10 +31,25 @@ import static com.github.guronas.zipkin.storage.clickhouse.query.condition.NotEm
 @AllArgsConstructor
 public class GetServiceNamesQuery implements Supplier<List<String>> {
     private final DSLContext dslContext;
+    /**
+     * Read names from {@link ZipkinSpanNames} instead of aggregating {@link ZipkinSpans}
+     */
+    private final boolean useNameTables;
+
+    public GetServiceNamesQuery(DSLContext dslContext) {
+        this(dslContext, false);
+    }
 
     @Override
     public List<String> get() {
         log.trace("Getting all local services from DB");
+        if (useNameTables) {
+            return dslContext.selectDistinct(ZipkinSpanNames.SERVICE_NAME)
+                    .from(ZipkinSpanNames.ZIPKIN_SPAN_NAMES_TABLE)
+                    .orderBy(ZipkinSpanNames.SERVICE_NAME)
+                    .fetch(ZipkinSpanNames.SERVICE_NAME);
+        }
+
         return dslContext.selectDistinct(LOCAL_SERVICE_NAME)
                 .from(ZIPKIN_SPANS_TABLE)
                 .where(notEmpty(LOCAL_SERVICE_NAME))
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.Result;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static com.github.guronas.zipkin.storage.clickhouse.query.condition.NotEmptyCondition.notEmpty;
+
+/**
+ * Selects names of spans with the given ids, their parents and their children within the given time window
+ */
+@Slf4j
+@AllArgsConstructor
+public class GetSpanNamesByIdsQuery implements Supplier<Result<Record3<String, String, String>>> {
+    private final DSLContext dslContext;
+    private final Collection<String> ids;
+    private final Collection<String> parentIds;
+    private final long beginTimestampMicros;
+    private final long endTimestampMicros;
+    /**
+     * Ids are stored in the binary ids schema, see {@link BinaryIds}
+     */
+    private final boolean binaryIds;
+
+    public GetSpanNamesByIdsQuery(DSLContext dslContext,
+                                  Collection<String> ids,
+                                  Collection<String> parentIds,
+                                  long beginTimestampMicros,
+                                  long endTimestampMicros) {
+        this(dslContext, ids, parentIds, beginTimestampMicros, endTimestampMicros, false);
+    }
+
+    @Override
+    public Result<Record3<String, String, String>> get() {
+        log.trace("Getting names of spans {} from DB", ids);
+        Set<String> idsAndParentIds = new HashSet<>(ids);
+        idsAndParentIds.addAll(parentIds);
+        if (binaryIds) {
+            return dslContext.selectDistinct(BinaryIds.hex(ID), BinaryIds.hex(PARENT_ID), NAME)
+                    .from(ZIPKIN_SPANS_TABLE)
+                    .where(DATE_TIME.between(toTimestamp(beginTimestampMicros), toTimestamp(endTimestampMicros)))
+                    .and(notEmpty(NAME))
+                    .and(BinaryIds.idIn(ID, idsAndParentIds).or(BinaryIds.idIn(PARENT_ID, ids)))
+                    .fetch();
+        }
+
+        return dslContext.selectDistinct(ID, PARENT_ID, NAME)
+                .from(ZIPKIN_SPANS_TABLE)
+                .where(DATE_TIME.between(toTimestamp(beginTimestampMicros), toTimestamp(endTimestampMicros)))
+                .and(notEmpty(NAME))
+                .and(ID.in(idsAndParentIds).or(PARENT_ID.in(ids)))
+                .fetch();
+    }
+
+    private static Timestamp toTimestamp(long timestampMicros) {
+        return Timestamp.from(Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(Math.max(0L, timestampMicros))));
+    }
+}
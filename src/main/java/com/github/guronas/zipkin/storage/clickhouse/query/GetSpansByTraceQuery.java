@@ -18,29 +18,113 @@ package com.github.guronas.zipkin.storage.clickhouse.query;
 
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.jooq.Condition;
 import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.impl.DSL;
+import org.springframework.lang.Nullable;
 import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
-import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.TRACE_ID;
-import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.ZIPKIN_SPANS_TABLE;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinTraceIndex.*;
 
 @Slf4j
 @AllArgsConstructor
 public class GetSpansByTraceQuery implements Supplier<List<Span>> {
+    /**
+     * Spans of found traces may be a bit outside the lookback window of the search, e.g. when a trace crosses its start
+     */
+    private static final long SEARCH_WINDOW_SLACK_MILLIS = TimeUnit.HOURS.toMillis(1);
+
     private final DSLContext dslContext;
     private final Collection<String> traceIds;
+    /**
+     * Look up time window of the traces in {@link ZipkinTraceIndex} first, so only partitions of this window are read
+     */
+    private final boolean useTraceIndex;
+    /**
+     * Ids are stored in the binary ids schema, see {@link BinaryIds}
+     */
+    private final boolean binaryIds;
+    /**
+     * Search the traces were found by, if any. Only partitions of its lookback window extended by
+     * {@code SEARCH_WINDOW_SLACK_MILLIS} on both sides are read then, even if the traces aren't in the trace index
+     */
+    @Nullable
+    private final QueryRequest search;
+
+    public GetSpansByTraceQuery(DSLContext dslContext, Collection<String> traceIds) {
+        this(dslContext, traceIds, false);
+    }
+
+    public GetSpansByTraceQuery(DSLContext dslContext, Collection<String> traceIds, boolean useTraceIndex) {
+        this(dslContext, traceIds, useTraceIndex, false);
+    }
+
+    public GetSpansByTraceQuery(DSLContext dslContext, Collection<String> traceIds, boolean useTraceIndex, boolean binaryIds) {
+        this(dslContext, traceIds, useTraceIndex, binaryIds, null);
+    }
 
     @Override
     public List<Span> get() {
         log.trace("Getting spans by trace ids {} from DB", traceIds);
-        return dslContext.selectFrom(ZIPKIN_SPANS_TABLE)
-                .where(TRACE_ID.in(traceIds))
-                .fetchStream()
-                .map(ClickHouseQueryUtils::buildSpan)
-                .toList();
+        QueryTemplates templates = QueryTemplates.of(dslContext);
+        List<String> paddedIds = QueryTemplates.padToBucket(traceIds);
+        List<String> idParams = binaryIds ? paddedIds.stream().map(BinaryIds::toTraceIdHex).toList() : paddedIds;
+        String idsShape = (binaryIds ? "binaryIds:" : "") + paddedIds.size();
+
+        //Conditions are added in front of the trace ids condition, so their values go first too
+        List<Object> params = new ArrayList<>(idParams);
+        String shape = idsShape;
+        Timestamp searchBegin = search != null
+                ? Timestamp.from(Instant.ofEpochMilli(Math.max(0L, search.endTs() - search.lookback() - SEARCH_WINDOW_SLACK_MILLIS)))
+                : null;
+        Timestamp searchEnd = search != null ? Timestamp.from(Instant.ofEpochMilli(search.endTs() + SEARCH_WINDOW_SLACK_MILLIS)) : null;
+        if (search != null) {
+            params.addAll(0, List.of(searchBegin, searchEnd));
+            shape = "search:" + shape;
+        }
+
+        Record window = useTraceIndex
+                ? templates.prepare(dslContext, "traceWindow:" + idsShape, idParams, () -> dslContext.select(
+                                DSL.field("uniqExact({0})", Integer.class, ZipkinTraceIndex.TRACE_ID), DSL.min(MIN_DATE_TIME), DSL.max(MAX_DATE_TIME))
+                        .from(ZIPKIN_TRACE_INDEX_TABLE)
+                        .where(traceIdIn(ZipkinTraceIndex.TRACE_ID, paddedIds)))
+                .fetchOne()
+                : null;
+        //Spans stored before the index was created aren't in it, so the window is used only if it covers every trace
+        boolean windowed = window != null && window.get(0, Integer.class) == new HashSet<>(traceIds).size();
+        Timestamp windowBegin = windowed ? window.get(1, Timestamp.class) : null;
+        Timestamp windowEnd = windowed ? window.get(2, Timestamp.class) : null;
+        if (windowed) {
+            params.addAll(0, List.of(windowBegin, windowEnd));
+            shape = "window:" + shape;
+        }
+
+        return SpanRowDecoder.decodeAll(templates.prepare(dslContext, "spansByTrace:" + shape, params, () -> {
+            Condition condition = traceIdIn(ZipkinSpans.TRACE_ID, paddedIds);
+            if (searchBegin != null) {
+                condition = DATE_TIME.between(searchBegin, searchEnd).and(condition);
+            }
+            if (windowBegin != null) {
+                condition = DATE_TIME.between(windowBegin, windowEnd).and(condition);
+            }
+            return dslContext.selectFrom(ZIPKIN_SPANS_TABLE).where(condition);
+        }), binaryIds);
+    }
+
+    private Condition traceIdIn(Field<String> field, List<String> ids) {
+        return binaryIds ? BinaryIds.traceIdIn(field, ids) : field.in(ids);
     }
 }
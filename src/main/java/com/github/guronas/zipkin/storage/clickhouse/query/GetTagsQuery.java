@@ -20,7 +20,12 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.*;
 import org.jooq.impl.DSL;
+import org.springframework.lang.Nullable;
 
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -32,14 +37,41 @@ public class GetTagsQuery implements Supplier<List<String>> {
     private static final Field<String> MAP_VALUE_ALIAS = DSL.field("value", String.class);
     private final DSLContext dslContext;
     private final String key;
+    /**
+     * Read values from {@link ZipkinTagValues} instead of aggregating {@link ZipkinSpans}
+     */
+    private final boolean useNameTables;
+    /**
+     * Only values seen since this day are read, all of them if null
+     */
+    @Nullable
+    private final LocalDate since;
+
+    public GetTagsQuery(DSLContext dslContext, String key) {
+        this(dslContext, key, false);
+    }
+
+    public GetTagsQuery(DSLContext dslContext, String key, boolean useNameTables) {
+        this(dslContext, key, useNameTables, null);
+    }
 
     @Override
     public List<String> get() {
         log.trace("Getting tags from DB by key [{}]", key);
+        if (useNameTables) {
+            return dslContext.selectDistinct(ZipkinTagValues.VALUE)
+                    .from(ZipkinTagValues.ZIPKIN_TAG_VALUES_TABLE)
+                    .where(ZipkinTagValues.KEY.eq(key))
+                    .and(since == null ? DSL.noCondition() : ZipkinTagValues.DATE.ge(Date.valueOf(since)))
+                    .orderBy(ZipkinTagValues.VALUE)
+                    .fetch(ZipkinTagValues.VALUE);
+        }
+
         GetMapValueExpression<String, String> value = GetMapValueExpression.getMapValue(ZipkinSpans.TAGS, key, ClickhouseDataType.STRING);
         return dslContext.selectDistinct(value.as(MAP_VALUE_ALIAS))
                 .from(ZipkinSpans.ZIPKIN_SPANS_TABLE)
                 .where(notEmpty(DSL.field(MAP_VALUE_ALIAS)))
+                .and(since == null ? DSL.noCondition() : ZipkinSpans.DATE_TIME.ge(Timestamp.from(since.atStartOfDay(ZoneOffset.UTC).toInstant())))
                 .fetch(MAP_VALUE_ALIAS);
     }
 }
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ClickHouseQueryUtils.startOfDay;
+
+/**
+ * Searches traces like {@link GetAllSpansQuery}, but walks the lookback window backwards from {@code endTs}
+ * in slices which double every step and never cross a day, so every slice reads one daily partition.
+ * Search stops as soon as {@code limit} traces are found, so recent traces of a busy service are found
+ * without reading the whole window. Slices only find trace ids, every slice asks for the full {@code limit},
+ * since traces found by a newer slice may be found again. Found traces are read completely with one
+ * {@link GetSpansByTraceQuery} in the lookback window then, because their spans may be spread over several slices.
+ */
+@Slf4j
+@AllArgsConstructor
+public class IncrementalSearchQuery implements Supplier<List<Span>> {
+    private final DSLContext dslContext;
+    private final QueryRequest queryRequest;
+    /**
+     * Length of the first, most recent slice in milliseconds
+     */
+    private final long initialSliceMillis;
+    private final boolean useTraceSummaries;
+    private final boolean useTraceIndex;
+    private final boolean binaryIds;
+
+    @Override
+    public List<Span> get() {
+        long begin = Math.max(0L, queryRequest.endTs() - queryRequest.lookback());
+        Set<String> traceIds = new LinkedHashSet<>();
+        long sliceEnd = queryRequest.endTs();
+        long sliceLength = initialSliceMillis;
+        int slices = 0;
+        while (sliceEnd > begin && traceIds.size() < queryRequest.limit()) {
+            long sliceStart = Math.max(Math.max(begin, sliceEnd - sliceLength), startOfDay(sliceEnd - 1));
+            QueryRequest slice = queryRequest.toBuilder()
+                    .endTs(sliceEnd)
+                    .lookback(sliceEnd - sliceStart)
+                    .build();
+            for (String traceId : new GetAllSpansQuery(dslContext, slice, false, useTraceSummaries, binaryIds).getTraceIds()) {
+                if (traceIds.size() == queryRequest.limit()) {
+                    break;
+                }
+                traceIds.add(traceId);
+            }
+            slices++;
+            sliceEnd = sliceStart;
+            sliceLength *= 2;
+        }
+
+        log.trace("Found {} traces in {} slices of request: {}", traceIds.size(), slices, queryRequest);
+        if (traceIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return new GetSpansByTraceQuery(dslContext, traceIds, useTraceIndex, binaryIds, queryRequest).get();
+    }
+}
@@ -20,6 +20,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.jooq.*;
 import org.jooq.Record;
+import org.springframework.lang.Nullable;
 import org.springframework.util.StringUtils;
 import zipkin2.Annotation;
 import zipkin2.Endpoint;
@@ -27,9 +28,10 @@ import zipkin2.Span;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -42,25 +44,44 @@ import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
 public class InsertSpansQuery implements Supplier<Void> {
     private final DSLContext dslContext;
     private final Collection<Span> spans;
+    private final SpanNameResolver spanNameResolver;
+
+    public InsertSpansQuery(DSLContext dslContext, Collection<Span> spans) {
+        this(dslContext, spans, new SpanNameResolver(dslContext));
+    }
 
     @Override
     public Void get() {
         log.trace("Inserting new spans into DB: {}", spans);
+        List<Span> spanList = new ArrayList<>(spans);
+        List<String> names = spanNameResolver.resolve(spanList);
         InsertSetStep<Record> insert = dslContext.insertInto(ZIPKIN_SPANS_TABLE);
-        spans.stream()
-                .map(span -> createInsert(span, insert))
-                .peek(InsertSetMoreStep::newRecord)
-                .reduce((previousInsert, nextInsert) -> nextInsert)
-                .ifPresent(Query::execute);
+        InsertSetMoreStep<Record> lastInsert = null;
+        for (int i = 0; i < spanList.size(); i++) {
+            lastInsert = createInsert(spanList.get(i), names.get(i), insert);
+            lastInsert.newRecord();
+        }
+
+        if (lastInsert != null) {
+            lastInsert.execute();
+        }
 
         return null;
     }
 
-    private InsertSetMoreStep<Record> createInsert(Span span, InsertSetStep<Record> insert) {
+    private InsertSetMoreStep<Record> createInsert(Span span, String name, InsertSetStep<Record> insert) {
+        Record record = createRecord(span, name);
+        return insert.set(record)
+                .set(ANNOTATIONS, map(record.get(ANNOTATIONS)))
+                .set(TAGS, map(record.get(TAGS)));
+    }
+
+    /**
+     * @return row of {@link ZipkinSpans} table with all the columns set, absent endpoints are written as empty columns
+     */
+    Record createRecord(Span span, String name) {
         //We should store timestamp in epoch micros
-        long timestamp = span.timestamp() == null ? TimeUnit.SECONDS.toMicros(Instant.now().getEpochSecond()) : span.timestamp();
-        Endpoint localEndpoint = span.localEndpoint();
-        Endpoint remoteEndpoint = span.remoteEndpoint();
+        long timestamp = ClickHouseQueryUtils.getTimestamp(span);
         Map<String, Long> annotations = span.annotations()
                 .stream()
                 .collect(Collectors.toMap(Annotation::value, Annotation::timestamp));
@@ -69,45 +90,45 @@ public class InsertSpansQuery implements Supplier<Void> {
             parentId = span.id();
         }
 
-        String name = span.name();
-        if (name == null) {
-            Record1<String> rec = dslContext.selectDistinct(NAME)
-                    .from(ZIPKIN_SPANS_TABLE)
-                    .where((ID.eq(span.id())
-                            .and(NAME.isNotNull()))
-                            .or(ID.eq(span.parentId()))
-                            .or(PARENT_ID.eq(span.id())))
-                    .fetchAny();
+        Record record = dslContext.newRecord(ZIPKIN_SPANS_TABLE);
+        record.set(TRACE_ID, span.traceId());
+        record.set(PARENT_ID, parentId);
+        record.set(ID, span.id());
+        record.set(KIND, span.kind());
+        record.set(NAME, name);
+        record.set(TIMESTAMP, timestamp);
+        record.set(DATE_TIME, Timestamp.from(Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(timestamp))));
+        record.set(DURATION, span.duration());
+        setEndpoint(record, span.localEndpoint(), LOCAL_SERVICE_NAME, LOCAL_IPV4, LOCAL_IPV6, LOCAL_PORT);
+        setEndpoint(record, span.remoteEndpoint(), REMOTE_SERVICE_NAME, REMOTE_IPV4, REMOTE_IPV6, REMOTE_PORT);
+        record.set(ANNOTATIONS, annotations);
+        record.set(TAGS, span.tags());
+        record.set(SHARED, ClickHouseQueryUtils.convertBooleanToShort(span.shared()));
+        record.set(DEBUG, ClickHouseQueryUtils.convertBooleanToShort(span.debug()));
+        return record;
+    }
 
-            name = (rec != null) ? rec.component1() : "processing task";
+    private static void setEndpoint(Record record,
+                                    @Nullable Endpoint endpoint,
+                                    Field<String> serviceNameField,
+                                    Field<String> ipv4Field,
+                                    Field<String> ipv6Field,
+                                    Field<Integer> portField) {
+        if (endpoint == null) {
+            record.set(serviceNameField, "");
+            record.set(ipv4Field, "");
+            record.set(ipv6Field, "");
+            record.set(portField, 0);
+            return;
         }
 
-        Optional.ofNullable(localEndpoint)
-                .ifPresent(endpoint -> setEndpoint(insert, endpoint));
-
-        Optional.ofNullable(remoteEndpoint)
-                .ifPresent(endpoint -> setEndpoint(insert, endpoint));
-
-        Timestamp dateTime = Timestamp.from(Instant.ofEpochMilli(TimeUnit.MICROSECONDS.toMillis(timestamp)));
-        return insert.set(TRACE_ID, span.traceId())
-                .set(PARENT_ID, parentId)
-                .set(ID, span.id())
-                .set(KIND, span.kind())
-                .set(NAME, name)
-                .set(TIMESTAMP, timestamp)
-                .set(DATE_TIME, dateTime)
-                .set(DURATION, span.duration())
-                .set(LOCAL_SERVICE_NAME, span.localServiceName())
-                .set(REMOTE_SERVICE_NAME, span.remoteServiceName())
-                .set(ANNOTATIONS, map(annotations))
-                .set(TAGS, map(span.tags()))
-                .set(SHARED, ClickHouseQueryUtils.convertBooleanToShort(span.shared()))
-                .set(DEBUG, ClickHouseQueryUtils.convertBooleanToShort(span.debug()));
+        record.set(serviceNameField, nullToEmpty(endpoint.serviceName()));
+        record.set(ipv4Field, nullToEmpty(endpoint.ipv4()));
+        record.set(ipv6Field, nullToEmpty(endpoint.ipv6()));
+        record.set(portField, endpoint.portAsInt());
     }
 
-    private void setEndpoint(InsertSetStep<Record> insert, Endpoint endpoint) {
-        insert.set(LOCAL_IPV4, endpoint.ipv4())
-                .set(LOCAL_IPV6, endpoint.ipv6())
-                .set(LOCAL_PORT, endpoint.port());
+    private static String nullToEmpty(@Nullable String value) {
+        return value == null ? "" : value;
     }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep3;
+import org.jooq.Record;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinTagValues.*;
+
+/**
+ * Writes tag values seen on the given day into {@link ZipkinTagValues}, one row per key and value
+ */
+@Slf4j
+@AllArgsConstructor
+public class InsertTagValuesQuery implements Supplier<Void> {
+    private final DSLContext dslContext;
+    private final Collection<Map.Entry<String, String>> tagValues;
+    private final LocalDate date;
+
+    @Override
+    public Void get() {
+        log.trace("Inserting {} tag values seen on {}", tagValues.size(), date);
+        Date day = Date.valueOf(date);
+        InsertValuesStep3<Record, String, String, Date> insert = dslContext.insertInto(ZIPKIN_TAG_VALUES_TABLE, KEY, VALUE, DATE);
+        for (Map.Entry<String, String> tagValue : tagValues) {
+            insert = insert.values(tagValue.getKey(), tagValue.getValue(), day);
+        }
+        insert.execute();
+        return null;
+    }
+}
@@ -24,6 +24,9 @@ import com.github.guronas.zipkin.storage.clickhouse.ClickHouseStorageException;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+/**
+ * Map value sent as one bind value in ClickHouse text format, {@code {'key':'value',...}}
+ */
 public class MapFieldValue<K, V> extends CustomField<Map<K, V>> {
     private static final String MAP_STRING_TEMPLATE = "{%s}";
     private final Map<K, V> value;
@@ -56,9 +59,9 @@ public class MapFieldValue<K, V> extends CustomField<Map<K, V>> {
     }
 
     private <T> void append(StringBuilder builder, T value) {
-        if (value instanceof String) {
+        if (value instanceof String string) {
             builder.append('\'');
-            builder.append(value);
+            escape(builder, string);
             builder.append('\'');
         } else if (value instanceof Number) {
             builder.append(value);
@@ -66,4 +69,17 @@ public class MapFieldValue<K, V> extends CustomField<Map<K, V>> {
             throw new ClickHouseStorageException("Unable to convert value with type: %s", value.getClass());
         }
     }
+
+    /**
+     * Escapes quotes and backslashes as ClickHouse expects them in quoted strings of text formats
+     */
+    private static void escape(StringBuilder builder, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+    }
 }
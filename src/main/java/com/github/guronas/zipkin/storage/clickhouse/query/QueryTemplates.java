@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Param;
+import org.jooq.Query;
+import org.jooq.Record;
+import org.jooq.ResultQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * SQL of hot queries cached by their shape, the set of clauses they have. Queries of one shape differ only by bind values,
+ * so query classes list the bind values of a known shape themselves, and it is sent with the cached SQL without building
+ * or walking the query. Shape keys must cover everything which changes SQL text, that's why all values of these queries
+ * must be bind values. Templates are kept in {@link org.jooq.Configuration#data()}, since rendering depends on the configuration,
+ * at most {@code MAX_TEMPLATES} least recently used ones. Lists of values are padded with {@link #padToBucket(Collection)},
+ * so their sizes don't make a shape per list size.
+ */
+@Slf4j
+public class QueryTemplates {
+    private static final String DATA_KEY = QueryTemplates.class.getName();
+    private static final int MAX_TEMPLATES = 1_000;
+
+    /**
+     * SQL by shape, guarded by itself, access ordered to evict the least recently used template
+     */
+    private final Map<String, String> templates;
+
+    QueryTemplates(int maxTemplates) {
+        this.templates = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxTemplates;
+            }
+        };
+    }
+
+    public static QueryTemplates of(DSLContext dslContext) {
+        return (QueryTemplates) dslContext.configuration()
+                .data()
+                .computeIfAbsent(DATA_KEY, key -> new QueryTemplates(MAX_TEMPLATES));
+    }
+
+    /**
+     * @param params bind values of the query in the order of its SQL
+     * @param query  is built and rendered only if the shape has no template yet
+     * @return query with the cached SQL of the shape and the given bind values
+     */
+    public ResultQuery<Record> prepare(DSLContext dslContext, String shape, List<?> params, Supplier<? extends Query> query) {
+        String sql;
+        synchronized (templates) {
+            sql = templates.get(shape);
+        }
+        if (sql == null) {
+            Query rendered = query.get();
+            List<Object> queryParams = rendered.getParams().values().stream().<Object>map(Param::getValue).toList();
+            if (!queryParams.equals(params)) {
+                //Query class lists its values wrong, so the query is run as usual and its shape isn't cached
+                log.warn("Query of shape [{}] has bind values {}, but {} are listed", shape, queryParams, params);
+                return dslContext.resultQuery(dslContext.render(rendered), rendered.getParams().values().toArray());
+            }
+            sql = dslContext.render(rendered);
+            synchronized (templates) {
+                templates.put(shape, sql);
+            }
+        }
+
+        return dslContext.resultQuery(sql, params.toArray());
+    }
+
+    public int size() {
+        synchronized (templates) {
+            return templates.size();
+        }
+    }
+
+    /**
+     * Pads values to the next power of two by repeating the last one, which doesn't change an {@code in} condition,
+     * so lists of 5 to 8 values share one shape
+     *
+     * @return values of a size which is a power of two
+     */
+    public static List<String> padToBucket(Collection<String> values) {
+        List<String> padded = new ArrayList<>(values);
+        if (padded.size() > 1) {
+            String last = padded.get(padded.size() - 1);
+            int bucket = Integer.highestOneBit(padded.size() - 1) << 1;
+            while (padded.size() < bucket) {
+                padded.add(last);
+            }
+        }
+        return padded;
+    }
+}
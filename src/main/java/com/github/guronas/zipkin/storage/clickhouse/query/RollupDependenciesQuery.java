@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Supplier;
+
+/**
+ * Links services of the spans stored in the given time window and writes the links aggregated per hour
+ * into {@link ZipkinDependencies}. The whole aggregation runs inside ClickHouse, no spans are read into the JVM.
+ * <p>
+ * A link is counted for every server or consumer span whose caller belongs to another service. The caller is the parent span,
+ * or the client/producer half of a span shared with the caller. Client and producer spans of uninstrumented services are
+ * linked to their remote service name. Spans of the window may be linked with callers stored up to {@code callerWindow} away from it.
+ * <p>
+ * Every run appends rows, so the same time window must not be rolled up twice.
+ */
+@Slf4j
+@AllArgsConstructor
+public class RollupDependenciesQuery implements Supplier<Integer> {
+    private static final String ROLLUP_SQL = """
+            insert into zipkin.zipkin_dependencies (bucket, parent, child, call_count, error_count)
+            select toStartOfHour(callee.date_time) as bucket,
+                   caller.local_service_name as parent,
+                   callee.local_service_name as child,
+                   count() as call_count,
+                   countIf(mapContains(caller.tags, 'error') or mapContains(callee.tags, 'error')) as error_count
+            from (select trace_id, if(shared = 1, id, parent_id) as caller_id, shared, date_time, local_service_name, tags
+                  from zipkin.zipkin_spans
+                  where date_time >= {0} and date_time < {1}
+                    and kind in ('SERVER', 'CONSUMER')
+                    and notEmpty(local_service_name)) as callee
+                     inner join
+                 (select trace_id, id, kind, local_service_name, tags
+                  from zipkin.zipkin_spans
+                  where date_time >= {2} and date_time < {3}
+                    and notEmpty(local_service_name)) as caller
+                 on callee.trace_id = caller.trace_id and callee.caller_id = caller.id
+            where caller.local_service_name != callee.local_service_name
+              and (callee.shared = 0 or caller.kind in ('CLIENT', 'PRODUCER'))
+            group by bucket, parent, child
+            union all
+            select toStartOfHour(date_time) as bucket,
+                   local_service_name as parent,
+                   remote_service_name as child,
+                   count() as call_count,
+                   countIf(mapContains(tags, 'error')) as error_count
+            from zipkin.zipkin_spans
+            where date_time >= {0} and date_time < {1}
+              and kind in ('CLIENT', 'PRODUCER')
+              and notEmpty(local_service_name)
+              and notEmpty(remote_service_name)
+              and local_service_name != remote_service_name
+              and (trace_id, id) not in (select trace_id, if(shared = 1, id, parent_id)
+                                         from zipkin.zipkin_spans
+                                         where date_time >= {2} and date_time < {3}
+                                           and kind in ('SERVER', 'CONSUMER'))
+            group by bucket, parent, child""";
+
+    private final DSLContext dslContext;
+    private final Instant begin;
+    private final Instant end;
+    private final Duration callerWindow;
+
+    @Override
+    public Integer get() {
+        log.trace("Rolling up dependency links between [{}] and [{}]", begin, end);
+        return dslContext.execute(ROLLUP_SQL,
+                DSL.val(Timestamp.from(begin)),
+                DSL.val(Timestamp.from(end)),
+                DSL.val(Timestamp.from(begin.minus(callerWindow))),
+                DSL.val(Timestamp.from(end.plus(callerWindow))));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import ru.yandex.clickhouse.ClickHouseConnection;
+import ru.yandex.clickhouse.ClickHouseStatement;
+import ru.yandex.clickhouse.domain.ClickHouseFormat;
+import zipkin2.Span;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Streams spans to ClickHouse in RowBinary format, so neither the client renders SQL with all the values
+ * nor the server parses it
+ */
+@Slf4j
+@AllArgsConstructor
+public class RowBinaryInsertSpansQuery implements Supplier<Void> {
+    private final DSLContext dslContext;
+    private final Collection<Span> spans;
+    private final SpanNameResolver spanNameResolver;
+    /**
+     * Write ids for the binary ids schema, see {@link BinaryIds}
+     */
+    private final boolean binaryIds;
+
+    public RowBinaryInsertSpansQuery(DSLContext dslContext, Collection<Span> spans, SpanNameResolver spanNameResolver) {
+        this(dslContext, spans, spanNameResolver, false);
+    }
+
+    @Override
+    public Void get() {
+        log.trace("Inserting new spans into DB in RowBinary format: {}", spans);
+        List<Span> spanList = new ArrayList<>(spans);
+        List<String> names = spanNameResolver.resolve(spanList);
+        SpanRowBinaryEncoder encoder = new SpanRowBinaryEncoder(binaryIds);
+        dslContext.connection(connection -> {
+            ClickHouseConnection clickHouseConnection = connection.unwrap(ClickHouseConnection.class);
+            try (ClickHouseStatement statement = clickHouseConnection.createStatement()) {
+                statement.write().send(SpanRowBinaryEncoder.INSERT_SQL, stream -> {
+                    for (int i = 0; i < spanList.size(); i++) {
+                        encoder.write(stream, spanList.get(i), names.get(i));
+                    }
+                }, ClickHouseFormat.RowBinary);
+            }
+        });
+
+        return null;
+    }
+}
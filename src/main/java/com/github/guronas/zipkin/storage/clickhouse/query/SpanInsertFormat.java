@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import zipkin2.Span;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+public enum SpanInsertFormat {
+    /**
+     * Spans are rendered by jooq into {@code INSERT ... VALUES} statement
+     */
+    SQL_VALUES {
+        @Override
+        public Supplier<Void> createQuery(DSLContext dslContext, Collection<Span> spans, SpanNameResolver spanNameResolver, boolean binaryIds) {
+            if (binaryIds) {
+                throw new IllegalArgumentException("Binary ids can be inserted only in ROW_BINARY format");
+            }
+            return new InsertSpansQuery(dslContext, spans, spanNameResolver);
+        }
+    },
+    /**
+     * Spans are streamed in RowBinary format, requires ClickHouse JDBC driver under the data source
+     */
+    ROW_BINARY {
+        @Override
+        public Supplier<Void> createQuery(DSLContext dslContext, Collection<Span> spans, SpanNameResolver spanNameResolver, boolean binaryIds) {
+            return new RowBinaryInsertSpansQuery(dslContext, spans, spanNameResolver, binaryIds);
+        }
+    };
+
+    public Supplier<Void> createQuery(DSLContext dslContext, Collection<Span> spans, SpanNameResolver spanNameResolver) {
+        return createQuery(dslContext, spans, spanNameResolver, false);
+    }
+
+    /**
+     * @param binaryIds whether spans are written into the binary ids schema, see {@link BinaryIds}
+     */
+    public abstract Supplier<Void> createQuery(DSLContext dslContext, Collection<Span> spans, SpanNameResolver spanNameResolver, boolean binaryIds);
+}
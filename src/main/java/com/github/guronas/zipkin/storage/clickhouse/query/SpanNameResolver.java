@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.Result;
+import zipkin2.Span;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds names for spans which came without one. A name is taken from a span with the same id,
+ * from the parent span or from a child span, in this order. Spans of the same batch are checked first,
+ * then the cache of recently seen names and only then the DB, with one query for the whole batch.
+ */
+@Slf4j
+public class SpanNameResolver {
+    public static final String DEFAULT_SPAN_NAME = "processing task";
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final Duration DEFAULT_LOOKUP_WINDOW = Duration.ofMinutes(10);
+
+    private final DSLContext dslContext;
+    private final long lookupWindowMicros;
+    private final Map<String, String> cachedNames;
+    private final boolean binaryIds;
+
+    public SpanNameResolver(DSLContext dslContext) {
+        this(dslContext, DEFAULT_CACHE_SIZE, DEFAULT_LOOKUP_WINDOW);
+    }
+
+    public SpanNameResolver(DSLContext dslContext, int cacheSize, Duration lookupWindow) {
+        this(dslContext, cacheSize, lookupWindow, false);
+    }
+
+    /**
+     * @param binaryIds whether spans are stored in the binary ids schema, see {@link BinaryIds}
+     */
+    public SpanNameResolver(DSLContext dslContext, int cacheSize, Duration lookupWindow, boolean binaryIds) {
+        this.dslContext = dslContext;
+        this.binaryIds = binaryIds;
+        this.lookupWindowMicros = TimeUnit.NANOSECONDS.toMicros(lookupWindow.toNanos());
+        this.cachedNames = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > cacheSize;
+            }
+        });
+    }
+
+    /**
+     * @return names of the given spans, in the same order
+     */
+    public List<String> resolve(List<Span> spans) {
+        List<String> names = new ArrayList<>(spans.size());
+        SpanNames batchNames = new SpanNames();
+        boolean hasUnnamedSpans = false;
+        for (Span span : spans) {
+            String name = span.name();
+            names.add(name);
+            if (name == null) {
+                hasUnnamedSpans = true;
+            } else {
+                batchNames.add(span.id(), span.parentId(), name);
+                cachedNames.put(span.id(), name);
+            }
+        }
+
+        if (!hasUnnamedSpans) {
+            return names;
+        }
+
+        List<Integer> unresolved = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i++) {
+            if (names.get(i) == null) {
+                Span span = spans.get(i);
+                String name = batchNames.find(span);
+                if (name == null) {
+                    name = findCached(span);
+                }
+                if (name == null) {
+                    unresolved.add(i);
+                } else {
+                    names.set(i, name);
+                }
+            }
+        }
+
+        if (!unresolved.isEmpty()) {
+            resolveFromDb(spans, names, unresolved);
+        }
+
+        return names;
+    }
+
+    private String findCached(Span span) {
+        String name = cachedNames.get(span.id());
+        if (name == null && span.parentId() != null) {
+            name = cachedNames.get(span.parentId());
+        }
+        return name;
+    }
+
+    private void resolveFromDb(List<Span> spans, List<String> names, List<Integer> unresolved) {
+        Set<String> ids = new HashSet<>();
+        Set<String> parentIds = new HashSet<>();
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int index : unresolved) {
+            Span span = spans.get(index);
+            ids.add(span.id());
+            if (span.parentId() != null) {
+                parentIds.add(span.parentId());
+            }
+            long timestamp = span.timestampAsLong() == 0L ? currentTimeMicros() : span.timestampAsLong();
+            minTimestamp = Math.min(minTimestamp, timestamp);
+            maxTimestamp = Math.max(maxTimestamp, timestamp);
+        }
+
+        log.debug("Looking up names of {} spans in DB", unresolved.size());
+        GetSpanNamesByIdsQuery query = new GetSpanNamesByIdsQuery(dslContext, ids, parentIds,
+                minTimestamp - lookupWindowMicros, maxTimestamp + lookupWindowMicros, binaryIds);
+        SpanNames dbNames = new SpanNames();
+        Result<Record3<String, String, String>> records = query.get();
+        records.forEach(record -> dbNames.add(record.value1(), record.value2(), record.value3()));
+
+        for (int index : unresolved) {
+            Span span = spans.get(index);
+            String name = dbNames.find(span);
+            if (name == null) {
+                name = DEFAULT_SPAN_NAME;
+            } else {
+                cachedNames.put(span.id(), name);
+            }
+            names.set(index, name);
+        }
+    }
+
+    private static long currentTimeMicros() {
+        return TimeUnit.MILLISECONDS.toMicros(Instant.now().toEpochMilli());
+    }
+
+    private static class SpanNames {
+        private final Map<String, String> namesById = new HashMap<>();
+        private final Map<String, String> namesByParentId = new HashMap<>();
+
+        void add(String id, String parentId, String name) {
+            namesById.putIfAbsent(id, name);
+            if (parentId != null && !parentId.equals(id)) {
+                namesByParentId.putIfAbsent(parentId, name);
+            }
+        }
+
+        String find(Span span) {
+            String name = namesById.get(span.id());
+            if (name == null && span.parentId() != null) {
+                name = namesById.get(span.parentId());
+            }
+            if (name == null) {
+                name = namesByParentId.get(span.id());
+            }
+            return name;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Field;
+import org.springframework.lang.Nullable;
+import ru.yandex.clickhouse.util.ClickHouseRowBinaryStream;
+import zipkin2.Annotation;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+
+/**
+ * Writes spans as rows of {@link ZipkinSpans} table in ClickHouse RowBinary format.
+ * Strings are encoded into a buffer which is reused between values, so one instance must not be shared between threads.
+ */
+public class SpanRowBinaryEncoder {
+    /**
+     * Columns in the order the encoder writes them
+     */
+    public static final List<String> COLUMNS = List.of(TRACE_ID, PARENT_ID, ID, KIND, NAME, TIMESTAMP, DATE_TIME, DURATION,
+                    LOCAL_SERVICE_NAME, LOCAL_IPV4, LOCAL_IPV6, LOCAL_PORT,
+                    REMOTE_SERVICE_NAME, REMOTE_IPV4, REMOTE_IPV6, REMOTE_PORT,
+                    ANNOTATIONS, TAGS, SHARED, DEBUG)
+            .stream()
+            .map(Field::getName)
+            .toList();
+
+    public static final String INSERT_SQL = "INSERT INTO %s.%s (%s)".formatted(
+            ZIPKIN_SPANS_TABLE.getSchema().getName(),
+            ZIPKIN_SPANS_TABLE.getName(),
+            COLUMNS.stream().map("`%s`"::formatted).collect(Collectors.joining(", ")));
+
+    /**
+     * Write ids for the binary ids schema, see {@link BinaryIds}
+     */
+    private final boolean binaryIds;
+    private byte[] buffer = new byte[256];
+
+    public SpanRowBinaryEncoder() {
+        this(false);
+    }
+
+    public SpanRowBinaryEncoder(boolean binaryIds) {
+        this.binaryIds = binaryIds;
+    }
+
+    public void write(ClickHouseRowBinaryStream stream, Span span, String name) throws IOException {
+        long timestamp = ClickHouseQueryUtils.getTimestamp(span);
+        String parentId = span.parentId() == null ? span.id() : span.parentId();
+        Span.Kind kind = span.kind();
+        Long duration = span.duration();
+
+        if (binaryIds) {
+            BinaryIds.writeTraceId(stream, span.traceId());
+            BinaryIds.writeId(stream, parentId);
+            BinaryIds.writeId(stream, span.id());
+        } else {
+            writeString(stream, span.traceId());
+            writeString(stream, parentId);
+            writeString(stream, span.id());
+        }
+        //Enum8 values are declared in the same order as Span.Kind
+        stream.writeInt8(kind == null ? 0 : kind.ordinal());
+        writeString(stream, name);
+        stream.writeInt64(timestamp);
+        stream.writeUInt32(TimeUnit.MICROSECONDS.toSeconds(timestamp));
+        stream.writeInt64(duration == null ? 0L : duration);
+        writeEndpoint(stream, span.localEndpoint());
+        writeEndpoint(stream, span.remoteEndpoint());
+        writeAnnotations(stream, span.annotations());
+        writeTags(stream, span.tags());
+        stream.writeUInt8(ClickHouseQueryUtils.convertBooleanToShort(span.shared()));
+        stream.writeUInt8(ClickHouseQueryUtils.convertBooleanToShort(span.debug()));
+    }
+
+    private void writeEndpoint(ClickHouseRowBinaryStream stream, @Nullable Endpoint endpoint) throws IOException {
+        if (endpoint == null) {
+            writeString(stream, null);
+            writeString(stream, null);
+            writeString(stream, null);
+            stream.writeInt32(0);
+            return;
+        }
+
+        writeString(stream, endpoint.serviceName());
+        writeString(stream, endpoint.ipv4());
+        writeString(stream, endpoint.ipv6());
+        stream.writeInt32(endpoint.portAsInt());
+    }
+
+    private void writeAnnotations(ClickHouseRowBinaryStream stream, List<Annotation> annotations) throws IOException {
+        stream.writeUnsignedLeb128(annotations.size());
+        for (Annotation annotation : annotations) {
+            writeString(stream, annotation.value());
+            stream.writeInt64(annotation.timestamp());
+        }
+    }
+
+    private void writeTags(ClickHouseRowBinaryStream stream, Map<String, String> tags) throws IOException {
+        stream.writeUnsignedLeb128(tags.size());
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            writeString(stream, tag.getKey());
+            writeString(stream, tag.getValue());
+        }
+    }
+
+    /**
+     * Same as {@link ClickHouseRowBinaryStream#writeString(String)}, but ASCII strings, which are the most of span data,
+     * are encoded without allocation of a new byte array
+     */
+    private void writeString(ClickHouseRowBinaryStream stream, @Nullable String value) throws IOException {
+        if (value == null) {
+            stream.writeUnsignedLeb128(0);
+            return;
+        }
+
+        int length = value.length();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                stream.writeUnsignedLeb128(bytes.length);
+                stream.writeBytes(bytes);
+                return;
+            }
+            buffer[i] = (byte) c;
+        }
+
+        stream.writeUnsignedLeb128(length);
+        stream.writeBytes(buffer, 0, length);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Field;
+import org.jooq.ResultQuery;
+import org.jooq.exception.DataAccessException;
+import org.springframework.lang.Nullable;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+
+/**
+ * Reads spans straight from JDBC {@link ResultSet} of {@code selectFrom(ZIPKIN_SPANS_TABLE)} by column index.
+ * Unlike {@link ClickHouseQueryUtils#buildSpan(org.jooq.Record)} it doesn't create jOOQ records, doesn't box numbers,
+ * reuses one {@link Span.Builder} for all rows and the same {@link Endpoint} for rows with equal endpoint columns.
+ * Empty endpoints are skipped. One instance must not be shared between threads.
+ */
+public class SpanRowDecoder {
+    private static final int TRACE_ID_INDEX = columnIndex(TRACE_ID);
+    private static final int PARENT_ID_INDEX = columnIndex(PARENT_ID);
+    private static final int ID_INDEX = columnIndex(ID);
+    private static final int KIND_INDEX = columnIndex(KIND);
+    private static final int NAME_INDEX = columnIndex(NAME);
+    private static final int TIMESTAMP_INDEX = columnIndex(TIMESTAMP);
+    private static final int DURATION_INDEX = columnIndex(DURATION);
+    private static final int LOCAL_SERVICE_NAME_INDEX = columnIndex(LOCAL_SERVICE_NAME);
+    private static final int REMOTE_SERVICE_NAME_INDEX = columnIndex(REMOTE_SERVICE_NAME);
+    private static final int ANNOTATIONS_INDEX = columnIndex(ANNOTATIONS);
+    private static final int TAGS_INDEX = columnIndex(TAGS);
+    private static final int SHARED_INDEX = columnIndex(SHARED);
+    private static final int DEBUG_INDEX = columnIndex(DEBUG);
+    private static final Span.Kind[] KINDS = Span.Kind.values();
+
+    /**
+     * Read ids of the binary ids schema, see {@link BinaryIds}
+     */
+    private final boolean binaryIds;
+    private final Span.Builder builder = Span.newBuilder();
+    private final EndpointDecoder localEndpoint = new EndpointDecoder(LOCAL_SERVICE_NAME_INDEX);
+    private final EndpointDecoder remoteEndpoint = new EndpointDecoder(REMOTE_SERVICE_NAME_INDEX);
+
+    public SpanRowDecoder() {
+        this(false);
+    }
+
+    public SpanRowDecoder(boolean binaryIds) {
+        this.binaryIds = binaryIds;
+    }
+
+    public static List<Span> decodeAll(ResultQuery<?> query) {
+        return decodeAll(query, false);
+    }
+
+    /**
+     * Executes the query and decodes all its rows. The query must select all columns of {@link ZipkinSpans} in table order
+     */
+    public static List<Span> decodeAll(ResultQuery<?> query, boolean binaryIds) {
+        SpanRowDecoder decoder = new SpanRowDecoder(binaryIds);
+        try (ResultSet resultSet = query.fetchResultSet()) {
+            List<Span> spans = new ArrayList<>();
+            while (resultSet.next()) {
+                spans.add(decoder.decode(resultSet));
+            }
+            return spans;
+        } catch (SQLException e) {
+            throw new DataAccessException("Failed to read spans", e);
+        }
+    }
+
+    /**
+     * Decodes the current row of the result set
+     */
+    public Span decode(ResultSet resultSet) throws SQLException {
+        builder.clear();
+        if (binaryIds) {
+            byte[] traceId = resultSet.getBytes(TRACE_ID_INDEX);
+            builder.traceId(BinaryIds.readLong(traceId, 0), BinaryIds.readLong(traceId, 8))
+                    .parentId(resultSet.getLong(PARENT_ID_INDEX))
+                    .id(resultSet.getLong(ID_INDEX));
+        } else {
+            builder.traceId(resultSet.getString(TRACE_ID_INDEX))
+                    .parentId(resultSet.getString(PARENT_ID_INDEX))
+                    .id(resultSet.getString(ID_INDEX));
+        }
+
+        builder.kind(decodeKind(resultSet.getString(KIND_INDEX)))
+                .name(resultSet.getString(NAME_INDEX))
+                .timestamp(resultSet.getLong(TIMESTAMP_INDEX))
+                .duration(resultSet.getLong(DURATION_INDEX))
+                .localEndpoint(localEndpoint.decode(resultSet))
+                .remoteEndpoint(remoteEndpoint.decode(resultSet))
+                .shared(resultSet.getInt(SHARED_INDEX) == 1)
+                .debug(resultSet.getInt(DEBUG_INDEX) == 1);
+
+        Map<?, ?> annotations = (Map<?, ?>) resultSet.getObject(ANNOTATIONS_INDEX);
+        if (annotations != null) {
+            for (Map.Entry<?, ?> annotation : annotations.entrySet()) {
+                builder.addAnnotation(((Number) annotation.getValue()).longValue(), (String) annotation.getKey());
+            }
+        }
+
+        Map<?, ?> tags = (Map<?, ?>) resultSet.getObject(TAGS_INDEX);
+        if (tags != null) {
+            for (Map.Entry<?, ?> tag : tags.entrySet()) {
+                builder.putTag((String) tag.getKey(), (String) tag.getValue());
+            }
+        }
+
+        return builder.build();
+    }
+
+    @Nullable
+    private static Span.Kind decodeKind(@Nullable String kind) {
+        if (kind == null) {
+            return null;
+        }
+        for (Span.Kind value : KINDS) {
+            if (value.name().equals(kind)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static int columnIndex(Field<?> field) {
+        return ZIPKIN_SPANS_TABLE.indexOf(field) + 1;
+    }
+
+    /**
+     * Decodes service name, ipv4, ipv6 and port columns which go one after another
+     */
+    private static class EndpointDecoder {
+        private final int serviceNameIndex;
+        @Nullable
+        private Endpoint last;
+        @Nullable
+        private String lastServiceName;
+        @Nullable
+        private String lastIpv4;
+        @Nullable
+        private String lastIpv6;
+        private int lastPort;
+
+        EndpointDecoder(int serviceNameIndex) {
+            this.serviceNameIndex = serviceNameIndex;
+        }
+
+        @Nullable
+        Endpoint decode(ResultSet resultSet) throws SQLException {
+            String serviceName = resultSet.getString(serviceNameIndex);
+            String ipv4 = resultSet.getString(serviceNameIndex + 1);
+            String ipv6 = resultSet.getString(serviceNameIndex + 2);
+            int port = resultSet.getInt(serviceNameIndex + 3);
+            if (isEmpty(serviceName) && isEmpty(ipv4) && isEmpty(ipv6) && port == 0) {
+                return null;
+            }
+
+            //Spans of one trace mostly share endpoints, so the previous one is likely the same
+            if (last != null && port == lastPort && equals(serviceName, lastServiceName) && equals(ipv4, lastIpv4) && equals(ipv6, lastIpv6)) {
+                return last;
+            }
+
+            last = Endpoint.newBuilder()
+                    .serviceName(serviceName)
+                    .ip(ipv4)
+                    .ip(ipv6)
+                    .port(port)
+                    .build();
+            lastServiceName = serviceName;
+            lastIpv4 = ipv4;
+            lastIpv6 = ipv6;
+            lastPort = port;
+            return last;
+        }
+
+        private static boolean isEmpty(@Nullable String value) {
+            return value == null || value.isEmpty();
+        }
+
+        private static boolean equals(@Nullable String value, @Nullable String other) {
+            return value == null ? other == null : value.equals(other);
+        }
+    }
+}
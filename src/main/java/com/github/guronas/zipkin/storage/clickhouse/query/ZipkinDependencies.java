@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import java.sql.Timestamp;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * Dependency links aggregated per hour, filled by {@link RollupDependenciesQuery} from {@link ZipkinSpans}
+ */
+public class ZipkinDependencies extends TableImpl<Record> {
+    public static final ZipkinDependencies ZIPKIN_DEPENDENCIES_TABLE = new ZipkinDependencies();
+
+    private ZipkinDependencies() {
+        super(name("zipkin_dependencies"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, Timestamp> BUCKET = createField(DSL.name("bucket"), ClickhouseDataType.DATE_TIME.nullable(false), ZIPKIN_DEPENDENCIES_TABLE);
+
+    public static final TableField<Record, String> PARENT = createField(DSL.name("parent"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_DEPENDENCIES_TABLE);
+
+    public static final TableField<Record, String> CHILD = createField(DSL.name("child"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_DEPENDENCIES_TABLE);
+
+    public static final TableField<Record, Long> CALL_COUNT = createField(DSL.name("call_count"), ClickhouseDataType.INT64.nullable(false), ZIPKIN_DEPENDENCIES_TABLE);
+
+    public static final TableField<Record, Long> ERROR_COUNT = createField(DSL.name("error_count"), ClickhouseDataType.INT64.nullable(false), ZIPKIN_DEPENDENCIES_TABLE);
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * Remote service names of every service, filled by materialized view from {@link ZipkinSpans}
+ */
+public class ZipkinRemoteServiceNames extends TableImpl<Record> {
+    public static final ZipkinRemoteServiceNames ZIPKIN_REMOTE_SERVICE_NAMES_TABLE = new ZipkinRemoteServiceNames();
+
+    private ZipkinRemoteServiceNames() {
+        super(name("zipkin_remote_service_names"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, String> SERVICE_NAME = createField(DSL.name("service_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_REMOTE_SERVICE_NAMES_TABLE);
+
+    public static final TableField<Record, String> REMOTE_SERVICE_NAME = createField(DSL.name("remote_service_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_REMOTE_SERVICE_NAMES_TABLE);
+}
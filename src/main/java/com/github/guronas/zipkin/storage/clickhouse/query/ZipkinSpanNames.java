@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * Span names of every service, filled by materialized view from {@link ZipkinSpans}
+ */
+public class ZipkinSpanNames extends TableImpl<Record> {
+    public static final ZipkinSpanNames ZIPKIN_SPAN_NAMES_TABLE = new ZipkinSpanNames();
+
+    private ZipkinSpanNames() {
+        super(name("zipkin_span_names"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, String> SERVICE_NAME = createField(DSL.name("service_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_SPAN_NAMES_TABLE);
+
+    public static final TableField<Record, String> SPAN_NAME = createField(DSL.name("span_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_SPAN_NAMES_TABLE);
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import java.sql.Date;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * Values of every tag key, filled by materialized view from {@link ZipkinSpans}
+ * or, for autocomplete keys only, by {@link InsertTagValuesQuery}
+ */
+public class ZipkinTagValues extends TableImpl<Record> {
+    public static final ZipkinTagValues ZIPKIN_TAG_VALUES_TABLE = new ZipkinTagValues();
+
+    private ZipkinTagValues() {
+        super(name("zipkin_tag_values"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, String> KEY = createField(DSL.name("key"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TAG_VALUES_TABLE);
+
+    public static final TableField<Record, String> VALUE = createField(DSL.name("value"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TAG_VALUES_TABLE);
+
+    /**
+     * Last day the value was seen
+     */
+    public static final TableField<Record, Date> DATE = createField(DSL.name("date"), ClickhouseDataType.DATE.nullable(false), ZIPKIN_TAG_VALUES_TABLE);
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import java.sql.Timestamp;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * Time window of every trace, filled by materialized view from {@link ZipkinSpans}
+ */
+public class ZipkinTraceIndex extends TableImpl<Record> {
+    public static final ZipkinTraceIndex ZIPKIN_TRACE_INDEX_TABLE = new ZipkinTraceIndex();
+
+    private ZipkinTraceIndex() {
+        super(name("zipkin_trace_index"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, String> TRACE_ID = createField(DSL.name("trace_id"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TRACE_INDEX_TABLE);
+
+    public static final TableField<Record, Timestamp> MIN_DATE_TIME = createField(DSL.name("min_date_time"), ClickhouseDataType.DATE_TIME.nullable(false), ZIPKIN_TRACE_INDEX_TABLE);
+
+    public static final TableField<Record, Timestamp> MAX_DATE_TIME = createField(DSL.name("max_date_time"), ClickhouseDataType.DATE_TIME.nullable(false), ZIPKIN_TRACE_INDEX_TABLE);
+}
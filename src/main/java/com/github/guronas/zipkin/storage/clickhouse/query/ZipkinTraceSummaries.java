@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.Record;
+import org.jooq.TableField;
+import org.jooq.impl.DSL;
+import org.jooq.impl.TableImpl;
+
+import java.sql.Date;
+
+import static org.jooq.impl.DSL.name;
+import static org.jooq.impl.DSL.schema;
+
+/**
+ * One row per trace and insert, filled by materialized view from {@link ZipkinSpans}.
+ * Rows of the same trace have to be aggregated by {@link #TRACE_ID} when read
+ */
+public class ZipkinTraceSummaries extends TableImpl<Record> {
+    public static final ZipkinTraceSummaries ZIPKIN_TRACE_SUMMARIES_TABLE = new ZipkinTraceSummaries();
+
+    private ZipkinTraceSummaries() {
+        super(name("zipkin_trace_summaries"), schema("zipkin"));
+    }
+
+    public static final TableField<Record, String> TRACE_ID = createField(DSL.name("trace_id"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    public static final TableField<Record, Date> DATE = createField(DSL.name("date"), ClickhouseDataType.DATE.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    /**
+     * Timestamp of the earliest span in microseconds
+     */
+    public static final TableField<Record, Long> START_TS = createField(DSL.name("start_ts"), ClickhouseDataType.INT64.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    /**
+     * End of the latest span in microseconds, so trace duration is {@code END_TS - START_TS}
+     */
+    public static final TableField<Record, Long> END_TS = createField(DSL.name("end_ts"), ClickhouseDataType.INT64.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    public static final TableField<Record, Long> SPAN_COUNT = createField(DSL.name("span_count"), ClickhouseDataType.INT64.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    public static final TableField<Record, Short> ERROR = createField(DSL.name("error"), ClickhouseDataType.UINT8.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    public static final TableField<Record, String> ROOT_SERVICE_NAME = createField(DSL.name("root_service_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    public static final TableField<Record, String> ROOT_SPAN_NAME = createField(DSL.name("root_span_name"), ClickhouseDataType.STRING.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+
+    /**
+     * Local service names of all spans
+     */
+    public static final TableField<Record, String[]> SERVICES = createField(DSL.name("services"), ClickhouseDataType.STRING_ARRAY.nullable(false), ZIPKIN_TRACE_SUMMARIES_TABLE);
+}
@@ -16,15 +16,20 @@
 
 package com.github.guronas.zipkin.storage.clickhouse.query.condition;
 
+import com.github.guronas.zipkin.storage.clickhouse.query.ClickhouseDataType;
 import lombok.RequiredArgsConstructor;
 import org.jooq.Condition;
 import org.jooq.Context;
 import org.jooq.Record;
 import org.jooq.TableField;
 import org.jooq.impl.CustomCondition;
+import org.jooq.impl.DSL;
 
 import java.util.Map;
 
+/**
+ * {@code mapContains(field, key)}, key is sent as a bind value
+ */
 @RequiredArgsConstructor
 public class MapContainsCondition<K, V> extends CustomCondition {
     private final TableField<Record, Map<K, V>> field;
@@ -34,9 +39,9 @@ public class MapContainsCondition<K, V> extends CustomCondition {
     public void accept(Context<?> ctx) {
         ctx.sql("mapContains(")
                 .visit(field)
-                .sql(",'")
-                .sql(key)
-                .sql("')");
+                .sql(",")
+                .visit(DSL.val(key, ClickhouseDataType.STRING))
+                .sql(")");
     }
 
     public static <K, V> Condition mapContains(TableField<Record, Map<K, V>> field, String key) {
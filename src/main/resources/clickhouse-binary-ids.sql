@@ -0,0 +1,160 @@
+-- Schema for binaryIdsEnabled storage setting, use it instead of clickhouse.sql.
+-- Trace id is stored as 16 bytes of its hex (64-bit ids are padded with zeros), span ids as Int64 with the same bits,
+-- e.g. select lower(hex(trace_id)), leftPad(lower(hex(id)), 16, '0') from zipkin.zipkin_spans
+create database if not exists zipkin;
+-- Timestamps are close to each other in date_time order, so delta codecs shrink them a lot,
+-- names and addresses have few distinct values and are stored as dictionaries
+create table if not exists zipkin.zipkin_spans
+(
+    trace_id            FixedString(16),
+    parent_id           Int64,
+    id                  Int64,
+    kind                Enum8('CLIENT'=0, 'SERVER'=1,'PRODUCER'=2,'CONSUMER'=3),
+    name                LowCardinality(String),
+    timestamp           Int64 CODEC(DoubleDelta, ZSTD(1)),
+    date_time           DateTime CODEC(DoubleDelta, ZSTD(1)),
+    duration            Int64 CODEC(T64, ZSTD(1)),
+    local_service_name  LowCardinality(String),
+    local_ipv4          LowCardinality(String),
+    local_ipv6          LowCardinality(String),
+    local_port          Int32,
+    remote_service_name LowCardinality(String),
+    remote_ipv4         LowCardinality(String),
+    remote_ipv6         LowCardinality(String),
+    remote_port         Int32,
+    annotations         Map(String, Int64) CODEC(ZSTD(1)),
+    tags                Map(String, String) CODEC(ZSTD(1)),
+    shared              UInt8,
+    debug               UInt8,
+    -- Let trace lookups and tag searches skip granules which can't contain the value
+    INDEX idx_trace_id trace_id TYPE bloom_filter(0.01) GRANULARITY 1,
+    INDEX idx_annotation_keys mapKeys(annotations) TYPE bloom_filter(0.01) GRANULARITY 1,
+    INDEX idx_tag_keys mapKeys(tags) TYPE bloom_filter(0.01) GRANULARITY 1,
+    INDEX idx_tag_values mapValues(tags) TYPE bloom_filter(0.01) GRANULARITY 1
+) engine = MergeTree
+      ORDER BY (date_time, trace_id)
+      PARTITION BY toYYYYMMDD(date_time)
+      TTL date_time + INTERVAL 1 MONTH DELETE;
+-- Time window of every trace, lets trace lookups read only the partitions the trace is stored in
+create table if not exists zipkin.zipkin_trace_index
+(
+    trace_id      FixedString(16),
+    date          Date,
+    min_date_time SimpleAggregateFunction(min, DateTime),
+    max_date_time SimpleAggregateFunction(max, DateTime)
+) engine = AggregatingMergeTree
+      ORDER BY (trace_id, date)
+      TTL date + INTERVAL 1 MONTH DELETE;
+
+create materialized view if not exists zipkin.zipkin_trace_index_mv to zipkin.zipkin_trace_index as
+select trace_id,
+       toDate(min(date_time)) as date,
+       min(date_time)         as min_date_time,
+       max(date_time)         as max_date_time
+from zipkin.zipkin_spans
+group by trace_id;
+
+-- Summary of every trace, lets searches pick and rank traces without sorting spans of the whole lookback window.
+-- Root span is the one stored with parent_id = id
+create table if not exists zipkin.zipkin_trace_summaries
+(
+    trace_id          FixedString(16),
+    date              Date,
+    start_ts          SimpleAggregateFunction(min, Int64),
+    end_ts            SimpleAggregateFunction(max, Int64),
+    span_count        SimpleAggregateFunction(sum, UInt64),
+    error             SimpleAggregateFunction(max, UInt8),
+    root_service_name SimpleAggregateFunction(max, String),
+    root_span_name    SimpleAggregateFunction(max, String),
+    services          SimpleAggregateFunction(groupUniqArrayArray, Array(String))
+) engine = AggregatingMergeTree
+      ORDER BY (date, trace_id)
+      PARTITION BY toYYYYMMDD(date)
+      TTL date + INTERVAL 1 MONTH DELETE;
+
+create materialized view if not exists zipkin.zipkin_trace_summaries_mv to zipkin.zipkin_trace_summaries as
+select trace_id,
+       toDate(min(date_time))                                             as date,
+       min(timestamp)                                                     as start_ts,
+       max(timestamp + duration)                                          as end_ts,
+       count()                                                            as span_count,
+       max(mapContains(tags, 'error'))                                    as error,
+       maxIf(local_service_name, parent_id = id)                          as root_service_name,
+       maxIf(name, parent_id = id)                                        as root_span_name,
+       groupUniqArrayIf(local_service_name, notEmpty(local_service_name)) as services
+from zipkin.zipkin_spans
+group by trace_id;
+
+-- Names for UI dropdowns, lets name queries avoid aggregating the whole span table
+create table if not exists zipkin.zipkin_span_names
+(
+    service_name String,
+    span_name    String,
+    date         Date
+) engine = ReplacingMergeTree(date)
+      ORDER BY (service_name, span_name)
+      TTL date + INTERVAL 1 MONTH DELETE;
+
+create materialized view if not exists zipkin.zipkin_span_names_mv to zipkin.zipkin_span_names as
+select local_service_name     as service_name,
+       name                   as span_name,
+       max(toDate(date_time)) as date
+from zipkin.zipkin_spans
+where notEmpty(local_service_name)
+  and notEmpty(name)
+group by service_name, span_name;
+
+create table if not exists zipkin.zipkin_remote_service_names
+(
+    service_name        String,
+    remote_service_name String,
+    date                Date
+) engine = ReplacingMergeTree(date)
+      ORDER BY (service_name, remote_service_name)
+      TTL date + INTERVAL 1 MONTH DELETE;
+
+create materialized view if not exists zipkin.zipkin_remote_service_names_mv to zipkin.zipkin_remote_service_names as
+select local_service_name     as service_name,
+       remote_service_name,
+       max(toDate(date_time)) as date
+from zipkin.zipkin_spans
+where notEmpty(local_service_name)
+  and notEmpty(remote_service_name)
+group by service_name, remote_service_name;
+
+create table if not exists zipkin.zipkin_tag_values
+(
+    key   String,
+    value String,
+    date  Date
+) engine = ReplacingMergeTree(date)
+      ORDER BY (key, value)
+      TTL date + INTERVAL 1 MONTH DELETE;
+
+-- Captures values of autocomplete keys only. Keep the key list in sync with AUTOCOMPLETE_KEYS of the server,
+-- high-cardinality tags like http.url, sql.query or ids must not get here, they would blow up the table.
+-- The list is fixed when the view is created: after AUTOCOMPLETE_KEYS change drop zipkin.zipkin_tag_values_mv
+-- and create it again with the new keys, values of added keys show up for spans inserted after that only.
+-- Not needed if the storage runs with autocompleteCacheEnabled, it writes values of autocomplete keys itself
+create materialized view if not exists zipkin.zipkin_tag_values_mv to zipkin.zipkin_tag_values as
+select key,
+       value,
+       max(toDate(date_time)) as date
+from zipkin.zipkin_spans
+    array join mapKeys(tags) as key, mapValues(tags) as value
+where key in ('environment', 'http.method', 'http.status_code')
+  and notEmpty(value)
+group by key, value;
+
+-- Calls between services aggregated per hour, filled by the dependency links rollup of the storage
+create table if not exists zipkin.zipkin_dependencies
+(
+    bucket      DateTime,
+    parent      String,
+    child       String,
+    call_count  UInt64,
+    error_count UInt64
+) engine = SummingMergeTree((call_count, error_count))
+      ORDER BY (bucket, parent, child)
+      PARTITION BY toYYYYMM(bucket)
+      TTL bucket + INTERVAL 1 MONTH DELETE;
@@ -0,0 +1,27 @@
+-- Moves zipkin_spans created by the previous clickhouse.sql or clickhouse-binary-ids.sql to the current column types, codecs and skip indexes.
+-- Type and codec changes are applied to existing parts by a background mutation, which rewrites the table,
+-- see progress in system.mutations. New indexes are built for existing parts by materialize index.
+alter table zipkin.zipkin_spans
+    modify column name LowCardinality(String),
+    modify column timestamp Int64 CODEC(DoubleDelta, ZSTD(1)),
+    modify column date_time DateTime CODEC(DoubleDelta, ZSTD(1)),
+    modify column duration Int64 CODEC(T64, ZSTD(1)),
+    modify column local_service_name LowCardinality(String),
+    modify column local_ipv4 LowCardinality(String),
+    modify column local_ipv6 LowCardinality(String),
+    modify column remote_service_name LowCardinality(String),
+    modify column remote_ipv4 LowCardinality(String),
+    modify column remote_ipv6 LowCardinality(String),
+    modify column annotations Map(String, Int64) CODEC(ZSTD(1)),
+    modify column tags Map(String, String) CODEC(ZSTD(1));
+
+alter table zipkin.zipkin_spans
+    add index if not exists idx_trace_id trace_id TYPE bloom_filter(0.01) GRANULARITY 1,
+    add index if not exists idx_annotation_keys mapKeys(annotations) TYPE bloom_filter(0.01) GRANULARITY 1,
+    add index if not exists idx_tag_keys mapKeys(tags) TYPE bloom_filter(0.01) GRANULARITY 1,
+    add index if not exists idx_tag_values mapValues(tags) TYPE bloom_filter(0.01) GRANULARITY 1;
+
+alter table zipkin.zipkin_spans materialize index idx_trace_id;
+alter table zipkin.zipkin_spans materialize index idx_annotation_keys;
+alter table zipkin.zipkin_spans materialize index idx_tag_keys;
+alter table zipkin.zipkin_spans materialize index idx_tag_values;
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import org.jooq.DSLContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+import zipkin2.storage.AutocompleteTags;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedAutocompleteTagsTest {
+    private static final Instant NOW = Instant.parse("2023-10-01T12:30:00Z");
+
+    private final List<String> insertedSql = new CopyOnWriteArrayList<>();
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        insertedSql.add(ctx.sql());
+        return new MockResult[]{new MockResult(1)};
+    });
+    private final AtomicInteger loads = new AtomicInteger();
+    private final AutocompleteTags delegate = new AutocompleteTags() {
+        @Override
+        public Call<List<String>> getKeys() {
+            return Call.create(List.of("environment"));
+        }
+
+        @Override
+        public Call<List<String>> getValues(String key) {
+            loads.incrementAndGet();
+            return Call.create(List.of("prod"));
+        }
+    };
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final MutableClock clock = new MutableClock(NOW);
+    private final CachedAutocompleteTags tags = new CachedAutocompleteTags(delegate, Runnable::run, scheduler, dslContext,
+            List.of("environment"), ClickHouseStorageSettings.builder()
+            .autocompleteCacheMaxValuesPerKey(3)
+            .autocompleteCacheValueTtl(Duration.ofDays(1))
+            .autocompleteCacheRefreshInterval(Duration.ofHours(1))
+            .autocompleteCacheFlushInterval(Duration.ofHours(1))
+            .build(), ClickHouseStorageMetrics.NOOP, clock);
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void valuesOfAcceptedSpansAreServedFromMemoryTest() throws Exception {
+        tags.record(List.of(span("staging"), span("test"), span("")));
+
+        assertEquals(List.of("prod", "staging", "test"), tags.getValues("environment").execute());
+        assertEquals(List.of("prod", "staging", "test"), tags.getValues("environment").execute());
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void newValuesAreWrittenOncePerDayTest() {
+        tags.record(List.of(span("staging"), span("staging")));
+        tags.flush();
+        tags.record(List.of(span("staging")));
+        tags.flush();
+
+        assertEquals(1, insertedSql.size());
+        assertTrue(insertedSql.get(0).startsWith("insert into `zipkin`.`zipkin_tag_values` (`key`, `value`, `date`)"), insertedSql.get(0));
+
+        clock.instant = NOW.plus(Duration.ofDays(1));
+        tags.record(List.of(span("staging")));
+        tags.flush();
+        assertEquals(2, insertedSql.size());
+    }
+
+    @Test
+    public void valuesAreCappedAndExpireTest() throws Exception {
+        tags.getValues("environment").execute();
+        tags.record(List.of(span("a"), span("b"), span("c")));
+        assertEquals(List.of("a", "b", "prod"), tags.getValues("environment").execute());
+
+        clock.instant = NOW.plus(Duration.ofHours(12));
+        tags.record(List.of(span("a")));
+        clock.instant = NOW.plus(Duration.ofHours(30));
+        //Everything but the value seen 18 hours ago has expired, the reload brings back the value stored in DB
+        assertEquals(List.of("a"), tags.getValues("environment").execute());
+        assertEquals(List.of("a", "prod"), tags.getValues("environment").execute());
+    }
+
+    @Test
+    public void otherKeysAreLoadedByDelegateTest() throws Exception {
+        assertEquals(List.of("prod"), tags.getValues("region").execute());
+        assertEquals(List.of("prod"), tags.getValues("region").execute());
+        assertEquals(2, loads.get());
+    }
+
+    private static Span span(String environment) {
+        return Span.newBuilder()
+                .traceId("1")
+                .id("2")
+                .putTag("environment", environment)
+                .build();
+    }
+
+    private static class MutableClock extends Clock {
+        private volatile Instant instant;
+
+        MutableClock(Instant instant) {
+            this.instant = instant;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return instant;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.ServiceAndSpanNames;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachedServiceAndSpanNamesTest {
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private final TestServiceAndSpanNames delegate = new TestServiceAndSpanNames();
+
+    public CachedServiceAndSpanNamesTest() {
+        executor.initialize();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void namesAreLoadedOnceTest() throws IOException {
+        CachedServiceAndSpanNames names = createNames(Duration.ofHours(1));
+        assertEquals(List.of("service1", "service2"), names.getServiceNames().execute());
+        assertEquals(List.of("service1", "service2"), names.getServiceNames().execute());
+        assertEquals(List.of("span1"), names.getSpanNames("service1").execute());
+        assertEquals(List.of("span1"), names.getSpanNames("service1").execute());
+        assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void recordedNamesAreMergedTest() throws IOException {
+        CachedServiceAndSpanNames names = createNames(Duration.ofHours(1));
+        names.record(List.of(createSpan("service3", "span3", "remote3")));
+        assertEquals(List.of("service1", "service2", "service3"), names.getServiceNames().execute());
+        assertEquals(List.of("span1", "span3"), names.getSpanNames("service3").execute());
+        assertEquals(List.of("remote1", "remote3"), names.getRemoteServiceNames("service3").execute());
+
+        names.record(List.of(createSpan("service4", "span4", null)));
+        assertEquals(List.of("service1", "service2", "service3", "service4"), names.getServiceNames().execute());
+        assertEquals(3, delegate.calls.get());
+    }
+
+    @Test
+    public void expiredNamesAreReloadedInBackgroundTest() throws Exception {
+        CachedServiceAndSpanNames names = createNames(Duration.ZERO);
+        names.getServiceNames().execute();
+        delegate.serviceNames.add("service5");
+        Thread.sleep(5);
+
+        //Stale names are returned while the new ones are loading
+        assertEquals(List.of("service1", "service2"), names.getServiceNames().execute());
+        for (int i = 0; i < 100 && delegate.calls.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(10);
+        assertEquals(List.of("service1", "service2", "service5"), names.getServiceNames().execute());
+    }
+
+    @Test
+    public void emptyServiceNameTest() throws IOException {
+        CachedServiceAndSpanNames names = createNames(Duration.ofHours(1));
+        assertTrue(names.getSpanNames("").execute().isEmpty());
+        assertTrue(names.getRemoteServiceNames(null).execute().isEmpty());
+        assertEquals(0, delegate.calls.get());
+    }
+
+    private CachedServiceAndSpanNames createNames(Duration ttl) {
+        return new CachedServiceAndSpanNames(executor, delegate, ClickHouseStorageSettings.builder()
+                .nameCacheTtl(ttl)
+                .build());
+    }
+
+    private static Span createSpan(String serviceName, String name, String remoteServiceName) {
+        return Span.newBuilder()
+                .traceId("03c9304e40394d40")
+                .id("03c9304e40394d40")
+                .name(name)
+                .localEndpoint(Endpoint.newBuilder().serviceName(serviceName).build())
+                .remoteEndpoint(remoteServiceName == null ? null : Endpoint.newBuilder().serviceName(remoteServiceName).build())
+                .build();
+    }
+
+    private static class TestServiceAndSpanNames implements ServiceAndSpanNames {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<String> serviceNames = new ArrayList<>(List.of("service1", "service2"));
+
+        @Override
+        public Call<List<String>> getServiceNames() {
+            calls.incrementAndGet();
+            return Call.create(new ArrayList<>(serviceNames));
+        }
+
+        @Override
+        public Call<List<String>> getRemoteServiceNames(String serviceName) {
+            calls.incrementAndGet();
+            return Call.create(List.of("remote1"));
+        }
+
+        @Override
+        public Call<List<String>> getSpanNames(String serviceName) {
+            calls.incrementAndGet();
+            return Call.create(List.of("span1"));
+        }
+    }
+}
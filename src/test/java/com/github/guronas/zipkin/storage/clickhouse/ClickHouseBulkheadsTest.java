@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.pause.NoPauseDetector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseBulkheadsTest {
+    private final MeterRegistry registry = createRegistry();
+    private final ClickHouseBulkheads bulkheads = ClickHouseBulkheads.create(ClickHouseStorageSettings.builder()
+            .searchThreads(1)
+            .searchQueueCapacity(1)
+            .build(), false, new ClickHouseStorageMetrics(registry));
+
+    @AfterEach
+    public void tearDown() {
+        bulkheads.close();
+    }
+
+    @Test
+    public void queryTypesAreRoutedToTheirBulkheadsTest() {
+        assertSame(bulkheads.get(Bulkhead.INGEST), bulkheads.get(QueryType.INSERT));
+        assertSame(bulkheads.get(Bulkhead.TRACE_LOOKUP), bulkheads.get(QueryType.GET_TRACE));
+        assertSame(bulkheads.get(Bulkhead.SEARCH), bulkheads.get(QueryType.GET_TRACES));
+        assertSame(bulkheads.get(Bulkhead.AUTOCOMPLETE), bulkheads.get(QueryType.TAGS));
+        assertNotSame(bulkheads.get(Bulkhead.INGEST), bulkheads.get(Bulkhead.SEARCH));
+    }
+
+    @Test
+    public void overloadedSearchDoesNotBlockIngestTest() throws Exception {
+        Executor search = bulkheads.get(Bulkhead.SEARCH);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        search.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        started.await();
+        search.execute(() -> await(release));
+
+        assertThrows(RejectedExecutionException.class, () -> search.execute(() -> {
+        }));
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.executor.rejected").tag("executor", "clickhouse-search").counter().count());
+
+        CompletableFuture<Void> inserted = new CompletableFuture<>();
+        bulkheads.get(Bulkhead.INGEST).execute(() -> inserted.complete(null));
+        inserted.get(5, TimeUnit.SECONDS);
+        release.countDown();
+    }
+
+    @Test
+    public void sharedBulkheadsUseOneExecutorTest() {
+        Executor executor = Runnable::run;
+        ClickHouseBulkheads shared = ClickHouseBulkheads.shared(executor);
+
+        for (Bulkhead bulkhead : Bulkhead.values()) {
+            assertSame(executor, shared.get(bulkhead));
+        }
+    }
+
+    private static MeterRegistry createRegistry() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().pauseDetector(new NoPauseDetector());
+        return registry;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
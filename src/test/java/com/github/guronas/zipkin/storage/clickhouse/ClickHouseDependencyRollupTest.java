@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import org.jooq.DSLContext;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinDependencies.BUCKET;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseDependencyRollupTest {
+    private static final Instant NOW = Instant.parse("2023-10-01T12:30:00Z");
+
+    private final List<Object> rolledUpBuckets = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    @Nullable
+    private Timestamp lastBucket;
+
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        if (ctx.sql().startsWith("insert into zipkin.zipkin_dependencies")) {
+            rolledUpBuckets.add(ctx.bindings()[0]);
+            return new MockResult[]{new MockResult(1)};
+        }
+        DSLContext create = DSL.using(SQLDialect.MYSQL);
+        Result<Record1<Timestamp>> result = create.newResult(DSL.max(BUCKET));
+        result.add(create.newRecord(DSL.max(BUCKET)).values(lastBucket));
+        return new MockResult[]{new MockResult(1, result)};
+    });
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void finishedHoursAreRolledUpOnceTest() {
+        ClickHouseDependencyRollup rollup = createRollup();
+        rollup.rollup();
+        //12:00 - 13:00 isn't finished yet
+        assertEquals(List.of(timestamp("2023-10-01T09:00:00Z"), timestamp("2023-10-01T10:00:00Z"), timestamp("2023-10-01T11:00:00Z")),
+                rolledUpBuckets);
+
+        rolledUpBuckets.clear();
+        rollup.rollup();
+        assertTrue(rolledUpBuckets.isEmpty());
+    }
+
+    @Test
+    public void rollupContinuesFromLastBucketTest() {
+        lastBucket = timestamp("2023-10-01T10:00:00Z");
+        createRollup().rollup();
+        assertEquals(List.of(timestamp("2023-10-01T11:00:00Z")), rolledUpBuckets);
+    }
+
+    private ClickHouseDependencyRollup createRollup() {
+        ClickHouseStorageSettings settings = ClickHouseStorageSettings.builder()
+                .dependencyRollupInterval(Duration.ofHours(1))
+                .dependencyRollupInitialLookback(Duration.ofHours(3))
+                .build();
+        return new ClickHouseDependencyRollup(executor, scheduler, dslContext, settings, ClickHouseStorageMetrics.NOOP,
+                Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    private static Timestamp timestamp(String instant) {
+        return Timestamp.from(Instant.parse(instant));
+    }
+}
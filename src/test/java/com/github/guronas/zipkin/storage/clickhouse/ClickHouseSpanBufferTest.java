@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import org.jooq.DSLContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zipkin2.Span;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseSpanBufferTest {
+    private final List<String> executedInserts = new CopyOnWriteArrayList<>();
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        executedInserts.add(ctx.sql());
+        return new MockResult[]{new MockResult(1)};
+    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ThreadPoolTaskExecutor executor = createExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    @Test
+    public void spansOfManyCallsAreInsertedTogetherTest() throws Exception {
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder()
+                .spanBufferFlushInterval(Duration.ofHours(1)));
+        for (Span span : TEST_SPANS.values()) {
+            buffer.offer(List.of(span)).execute();
+        }
+        assertEquals(TEST_SPANS.size(), buffer.size());
+        assertTrue(executedInserts.isEmpty());
+
+        buffer.close();
+        assertEquals(0, buffer.size());
+        assertEquals(1, executedInserts.size());
+    }
+
+    @Test
+    public void bufferIsFlushedInBatchesTest() {
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder()
+                .spanBufferBatchSize(3)
+                .spanBufferFlushInterval(Duration.ofHours(1)));
+        buffer.add(new ArrayList<>(TEST_SPANS.values()));
+        buffer.close();
+        assertEquals((TEST_SPANS.size() + 2) / 3, executedInserts.size());
+    }
+
+    @Test
+    public void fullBufferRejectsSpansTest() {
+        //Flush requests are never run, so the buffer can't be flushed in background
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder()
+                .spanBufferCapacity(2)
+                .spanBufferFlushInterval(Duration.ofHours(1)), task -> {
+        });
+        List<Span> spans = new ArrayList<>(TEST_SPANS.values()).subList(0, 3);
+        assertThrows(ClickHouseStorageException.class, () -> buffer.offer(spans).execute());
+        //Nothing of a rejected batch is buffered, so it can be retried without duplicates
+        assertEquals(0, buffer.size());
+
+        buffer.add(spans.subList(0, 2));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void bufferFilledBySmallBatchesRejectsSpansTest() throws Exception {
+        //Flush requests are never run, so nothing leaves the buffer until it's closed
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder()
+                .spanBufferCapacity(4)
+                .spanBufferFlushInterval(Duration.ofHours(1)), task -> {
+        });
+        List<Span> spans = new ArrayList<>(TEST_SPANS.values());
+        buffer.offer(spans.subList(0, 2)).execute();
+        buffer.offer(spans.subList(2, 3)).execute();
+
+        assertThrows(ClickHouseStorageException.class, () -> buffer.offer(spans.subList(3, 5)).execute());
+        assertEquals(3, buffer.size());
+        buffer.offer(spans.subList(3, 4)).execute();
+        assertEquals(4, buffer.size());
+        assertThrows(ClickHouseStorageException.class, () -> buffer.offer(spans.subList(4, 5)).execute());
+    }
+
+    @Test
+    public void offerWaitingForSpaceFailsOnCloseTest() throws Exception {
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder()
+                .spanBufferCapacity(2)
+                .spanBufferOverflowStrategy(SpanBufferOverflowStrategy.BLOCK)
+                .spanBufferBlockTimeout(Duration.ofMinutes(1))
+                .spanBufferFlushInterval(Duration.ofHours(1)), task -> {
+        });
+        List<Span> spans = new ArrayList<>(TEST_SPANS.values());
+        buffer.add(spans.subList(0, 2));
+        CompletableFuture<Void> offer = new CompletableFuture<>();
+        Thread offerThread = new Thread(() -> {
+            try {
+                buffer.offer(spans.subList(2, 3)).execute();
+                offer.complete(null);
+            } catch (Throwable e) {
+                offer.completeExceptionally(e);
+            }
+        });
+        offerThread.start();
+        while (offerThread.getState() != Thread.State.TIMED_WAITING) {
+            Thread.onSpinWait();
+        }
+
+        //Close frees the space the offer waits for, but the offer must not be queued after the final flush
+        buffer.close();
+        ExecutionException error = assertThrows(ExecutionException.class, () -> offer.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(ClickHouseStorageException.class, error.getCause());
+        assertEquals(0, buffer.size());
+        assertEquals(1, executedInserts.size());
+    }
+
+    @Test
+    public void closedBufferRejectsSpansTest() {
+        ClickHouseSpanBuffer buffer = createBuffer(ClickHouseStorageSettings.builder());
+        buffer.close();
+        assertThrows(ClickHouseStorageException.class, () -> buffer.offer(new ArrayList<>(TEST_SPANS.values())).execute());
+    }
+
+    private ClickHouseSpanBuffer createBuffer(ClickHouseStorageSettings.ClickHouseStorageSettingsBuilder settings) {
+        return createBuffer(settings, executor);
+    }
+
+    private ClickHouseSpanBuffer createBuffer(ClickHouseStorageSettings.ClickHouseStorageSettingsBuilder settings, Executor executor) {
+        return new ClickHouseSpanBuffer(executor, scheduler, dslContext, new SpanNameResolver(dslContext), settings.spanBufferEnabled(true).build(),
+                ClickHouseStorageMetrics.NOOP);
+    }
+
+    private static ThreadPoolTaskExecutor createExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(1);
+        executor.initialize();
+        return executor;
+    }
+}
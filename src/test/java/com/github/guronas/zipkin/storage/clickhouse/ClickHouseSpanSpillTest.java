@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jooq.DSLContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import zipkin2.Span;
+import zipkin2.codec.SpanBytesEncoder;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseSpanSpillTest {
+    private final List<Span> spans = new ArrayList<>(TEST_SPANS.values());
+    private final List<String> executedInserts = new CopyOnWriteArrayList<>();
+    private volatile boolean clickHouseAvailable;
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        if (!clickHouseAvailable) {
+            throw new SQLException("Connection refused");
+        }
+        executedInserts.add(ctx.sql());
+        return new MockResult[]{new MockResult(1)};
+    });
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    @TempDir
+    private Path directory;
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void spansAreSpilledAndReplayedTest() {
+        ClickHouseSpanSpill spill = createSpill(64 * 1024, 1024 * 1024);
+
+        assertFalse(spill.insertOrSpill(spans.subList(0, 2), insert(spans.subList(0, 2))));
+        assertTrue(spill.isEngaged());
+        //ClickHouse isn't tried while the spill is engaged
+        clickHouseAvailable = true;
+        assertFalse(spill.insertOrSpill(spans.subList(2, 4), insert(spans.subList(2, 4))));
+        assertTrue(executedInserts.isEmpty());
+        assertEquals(1, spill.getBacklog());
+
+        spill.drain();
+
+        assertFalse(spill.isEngaged());
+        assertEquals(0, spill.getBacklog());
+        //Both records are replayed with one insert, since drain batch size is 3
+        assertEquals(1, executedInserts.size());
+        assertTrue(spill.insertOrSpill(spans.subList(4, 5), insert(spans.subList(4, 5))));
+        assertEquals(2, executedInserts.size());
+    }
+
+    @Test
+    public void failedReplayIsRetriedTest() {
+        ClickHouseSpanSpill spill = createSpill(64 * 1024, 1024 * 1024);
+        spill.spill(spans.subList(0, 2));
+
+        spill.drain();
+        assertTrue(spill.isEngaged());
+        assertEquals(1, spill.getBacklog());
+
+        clickHouseAvailable = true;
+        spill.drain();
+        assertFalse(spill.isEngaged());
+        assertEquals(1, executedInserts.size());
+    }
+
+    @Test
+    public void diskUsageIsBoundedTest() {
+        byte[] record = SpanBytesEncoder.PROTO3.encodeList(spans.subList(0, 1));
+        //Two segments of two records each
+        int segmentSize = 2 * (record.length + 4) + 1;
+        ClickHouseSpanSpill spill = createSpill(segmentSize, 2L * segmentSize);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(spill.spill(spans.subList(0, 1)));
+        }
+        assertFalse(spill.spill(spans.subList(0, 1)));
+        assertEquals(2L * segmentSize, spill.getDiskUsage());
+    }
+
+    @Test
+    public void segmentsOfPreviousRunAreReplayedTest() throws Exception {
+        ClickHouseSpanSpill spill = createSpill(64 * 1024, 1024 * 1024);
+        spill.spill(spans.subList(0, 2));
+        spill.close();
+
+        ClickHouseSpanSpill restarted = createSpill(64 * 1024, 1024 * 1024);
+        assertTrue(restarted.isEngaged());
+        clickHouseAvailable = true;
+        restarted.drain();
+
+        assertEquals(1, executedInserts.size());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void corruptedRecordIsSkippedTest() throws Exception {
+        byte[] corrupted = {0x0a, 0x7f, 0x01};
+        byte[] record = SpanBytesEncoder.PROTO3.encodeList(spans.subList(0, 2));
+        ByteBuffer segment = ByteBuffer.allocate(2 * 4 + corrupted.length + record.length)
+                .putInt(corrupted.length).put(corrupted)
+                .putInt(record.length).put(record);
+        Files.write(directory.resolve("spans-00000000000000000000.log"), segment.array());
+
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ClickHouseSpanSpill spill = createSpill(64 * 1024, 1024 * 1024, new ClickHouseStorageMetrics(registry));
+        clickHouseAvailable = true;
+        spill.drain();
+
+        assertFalse(spill.isEngaged());
+        assertEquals(0, spill.getBacklog());
+        assertEquals(1, executedInserts.size());
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.spill.corrupted.records").counter().count());
+        assertEquals(2.0, registry.get("zipkin.storage.clickhouse.spill.spans").tag("result", "drained").counter().count());
+    }
+
+    private ClickHouseSpanSpill createSpill(int segmentSize, long maxDiskBytes) {
+        return createSpill(segmentSize, maxDiskBytes, ClickHouseStorageMetrics.NOOP);
+    }
+
+    private ClickHouseSpanSpill createSpill(int segmentSize, long maxDiskBytes, ClickHouseStorageMetrics metrics) {
+        ClickHouseStorageSettings settings = ClickHouseStorageSettings.builder()
+                .spillDirectory(directory)
+                .spillSegmentSize(segmentSize)
+                .spillMaxDiskBytes(maxDiskBytes)
+                .spillDrainBatchSize(3)
+                .spillDrainInterval(Duration.ofHours(1))
+                .build();
+        return new ClickHouseSpanSpill(Runnable::run, scheduler, dslContext, new SpanNameResolver(dslContext), settings,
+                metrics);
+    }
+
+    private Supplier<Void> insert(List<Span> batch) {
+        return ClickHouseStorageSettings.defaults().getSpanInsertFormat().createQuery(dslContext, batch, new SpanNameResolver(dslContext));
+    }
+}
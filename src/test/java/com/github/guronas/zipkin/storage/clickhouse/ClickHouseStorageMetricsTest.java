@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.pause.NoPauseDetector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import zipkin2.Span;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseStorageMetricsTest {
+    private final MeterRegistry registry = createRegistry();
+    private final ClickHouseStorageMetrics metrics = new ClickHouseStorageMetrics(registry);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void successfulQueryIsRecordedTest() {
+        List<String> names = metrics.record(QueryType.NAMES, () -> List.of("frontend", "backend"));
+
+        assertEquals(List.of("frontend", "backend"), names);
+        assertEquals(1, registry.get("zipkin.storage.clickhouse.query").tag("type", "names").timer().count());
+        assertEquals(2.0, registry.get("zipkin.storage.clickhouse.rows.read").tag("type", "names").counter().count());
+        assertEquals(0.0, registry.get("zipkin.storage.clickhouse.query.failures").tag("type", "names").counter().count());
+    }
+
+    @Test
+    public void failedQueryIsRecordedTest() {
+        assertThrows(ClickHouseStorageException.class, () -> metrics.record(QueryType.GET_TRACES, () -> {
+            throw new ClickHouseStorageException("Query failed");
+        }));
+
+        assertEquals(1, registry.get("zipkin.storage.clickhouse.query").tag("type", "getTraces").timer().count());
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.query.failures").tag("type", "getTraces").counter().count());
+    }
+
+    @Test
+    public void insertedSpansAreRecordedTest() {
+        List<Span> spans = new ArrayList<>(TEST_SPANS.values());
+        metrics.recordInsert(spans);
+
+        assertEquals(spans.size(), registry.get("zipkin.storage.clickhouse.spans.written").counter().count());
+        assertEquals(1, registry.get("zipkin.storage.clickhouse.insert.spans").summary().count());
+        assertTrue(registry.get("zipkin.storage.clickhouse.insert.bytes").counter().count() > 0);
+    }
+
+    @Test
+    public void executorLoadIsRecordedTest() throws Exception {
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.initialize();
+        metrics.monitorExecutor("clickhouse", executor);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        executor.execute(() -> {
+        });
+        started.await();
+
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.executor.active").tag("executor", "clickhouse").gauge().value());
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.executor.queued").tag("executor", "clickhouse").gauge().value());
+        release.countDown();
+    }
+
+    private static MeterRegistry createRegistry() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().pauseDetector(new NoPauseDetector());
+        return registry;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanInsertFormat;
+import com.github.guronas.zipkin.storage.clickhouse.query.SpanNameResolver;
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.pause.NoPauseDetector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.jooq.DSLContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClickHouseTraceCacheTest {
+    private static final Instant NOW = Instant.parse("2023-10-01T12:30:00Z");
+
+    private final MeterRegistry registry = createRegistry();
+    private final ClickHouseTraceCache cache = new ClickHouseTraceCache(ClickHouseStorageSettings.builder()
+            .traceCacheMaxSpans(3)
+            .traceCacheSettleAge(Duration.ofMinutes(5))
+            .build(), new ClickHouseStorageMetrics(registry), Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    public void settledTraceIsCachedTest() {
+        List<Span> trace = createTrace("1", Duration.ofMinutes(10), 2);
+        cache.put("1", trace);
+
+        assertEquals(trace, cache.get("1"));
+        assertNull(cache.get("2"));
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.cache.requests").tag("result", "hit").counter().count());
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.cache.requests").tag("result", "miss").counter().count());
+        assertEquals(2.0, registry.get("zipkin.storage.clickhouse.cache.size").tag("cache", "trace").gauge().value());
+    }
+
+    @Test
+    public void recentTraceIsNotCachedTest() {
+        cache.put("1", createTrace("1", Duration.ofMinutes(1), 1));
+
+        assertNull(cache.get("1"));
+    }
+
+    @Test
+    public void writtenSpansInvalidateCachedTraceTest() {
+        List<Span> trace = createTrace("a", Duration.ofMinutes(10), 2);
+        String traceId = trace.get(0).traceId();
+        cache.put(traceId, trace);
+        cache.put("b", createTrace("b", Duration.ofMinutes(10), 1));
+
+        cache.invalidate(createTrace("a", Duration.ofMinutes(1), 1));
+
+        assertNull(cache.get(traceId));
+        assertNotNull(cache.get("b"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void spansInsertedByConsumerInvalidateCachedTraceTest() throws IOException {
+        List<Span> trace = createTrace("a", Duration.ofMinutes(10), 2);
+        String traceId = trace.get(0).traceId();
+        cache.put(traceId, trace);
+        DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> new MockResult[]{new MockResult(1)});
+        ClickhouseSpanConsumer consumer = new ClickhouseSpanConsumer(Runnable::run, dslContext, new SpanNameResolver(dslContext),
+                SpanInsertFormat.SQL_VALUES, false, null, null, null, null, cache, ClickHouseStorageMetrics.NOOP);
+
+        consumer.accept(createTrace("a", Duration.ofMinutes(1), 1)).execute();
+
+        assertNull(cache.get(traceId));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void leastRecentlyUsedTracesAreEvictedTest() {
+        cache.put("1", createTrace("1", Duration.ofMinutes(10), 1));
+        cache.put("2", createTrace("2", Duration.ofMinutes(10), 2));
+        cache.get("1");
+        cache.put("3", createTrace("3", Duration.ofMinutes(10), 1));
+        //Doesn't fit the cache at all
+        cache.put("4", createTrace("4", Duration.ofMinutes(10), 4));
+
+        assertNotNull(cache.get("1"));
+        assertNull(cache.get("2"));
+        assertNotNull(cache.get("3"));
+        assertNull(cache.get("4"));
+        assertEquals(2, cache.size());
+    }
+
+    private static List<Span> createTrace(String traceId, Duration age, int spans) {
+        long end = TimeUnit.MILLISECONDS.toMicros(NOW.minus(age).toEpochMilli());
+        return IntStream.rangeClosed(1, spans)
+                .mapToObj(id -> Span.newBuilder()
+                        .traceId(traceId)
+                        .id(id)
+                        .name("get")
+                        .timestamp(end - 1000L)
+                        .duration(1000L)
+                        .build())
+                .toList();
+    }
+
+    private static MeterRegistry createRegistry() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().pauseDetector(new NoPauseDetector());
+        return registry;
+    }
+}
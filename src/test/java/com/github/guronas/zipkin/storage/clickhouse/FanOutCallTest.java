@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider;
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Span;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FanOutCallTest {
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @AfterEach
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void resultsAreInOrderOfCallsTest() throws Exception {
+        List<Call<Integer>> calls = IntStream.range(0, 20)
+                .mapToObj(this::createCall)
+                .toList();
+
+        List<Integer> results = new FanOutCall<>(calls, 3).execute();
+
+        assertEquals(IntStream.range(0, 20).boxed().toList(), results);
+        assertTrue(maxInFlight.get() <= 3, "In flight: " + maxInFlight.get());
+    }
+
+    @Test
+    public void firstFailureFailsFanOutTest() {
+        List<Call<Integer>> calls = new ArrayList<>();
+        calls.add(createCall(0));
+        calls.add(new ClickHouseCall<>(executor, ClickHouseStorageMetrics.NOOP, QueryType.GET_TRACE, () -> {
+            throw new ClickHouseStorageException("Query failed");
+        }));
+        calls.add(createCall(2));
+
+        ClickHouseStorageException e = assertThrows(ClickHouseStorageException.class, () -> new FanOutCall<>(calls, 1).execute());
+        assertEquals("Query failed", e.getMessage());
+    }
+
+    @Test
+    public void traceLookupIsSplitIntoChunksTest() throws Exception {
+        List<String> traceIds = TEST_SPANS.keySet().stream().sorted().limit(5).toList();
+        ClickHouseStorageSettings settings = ClickHouseStorageSettings.builder()
+                .traceIndexEnabled(false)
+                .traceLookupChunkSize(2)
+                .build();
+        ClickHouseSpanStore spanStore = new ClickHouseSpanStore(ClickHouseBulkheads.shared(executor),
+                TestJooqUtils.getTestDSLContext(new SpansMockDataProvider()), false, settings,
+                new ClickHouseServiceAndSpanNames(executor, TestJooqUtils.getTestDSLContext(new SpansMockDataProvider())),
+                ClickHouseStorageMetrics.NOOP);
+
+        List<List<Span>> traces = spanStore.getTraces(traceIds).execute();
+
+        assertEquals(traceIds.stream().map(id -> List.of(TEST_SPANS.get(id))).toList(), traces);
+    }
+
+    private Call<Integer> createCall(int value) {
+        return new ClickHouseCall<>(executor, ClickHouseStorageMetrics.NOOP, QueryType.GET_TRACE, () -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inFlight.decrementAndGet();
+            return value;
+        });
+    }
+}
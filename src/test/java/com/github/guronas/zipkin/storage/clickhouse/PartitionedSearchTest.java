@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider;
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.Call;
+import zipkin2.Endpoint;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PartitionedSearchTest {
+    private static final long END_TS = Instant.parse("2009-02-14T01:00:00Z").toEpochMilli();
+    private static final String TRACE_ID_VALUE = "03c9304e40394d41";
+
+    @Test
+    public void requestIsSplitByDayTest() {
+        QueryRequest request = createQueryRequest(TimeUnit.HOURS.toMillis(50));
+
+        List<QueryRequest> partitions = PartitionedSearch.splitByDay(request);
+
+        assertTrue(PartitionedSearch.isSplittable(request));
+        assertEquals(List.of(
+                List.of("2009-02-14T00:00:00Z", "2009-02-14T01:00:00Z"),
+                List.of("2009-02-13T00:00:00Z", "2009-02-14T00:00:00Z"),
+                List.of("2009-02-12T00:00:00Z", "2009-02-13T00:00:00Z"),
+                List.of("2009-02-11T23:00:00Z", "2009-02-12T00:00:00Z")), partitions.stream()
+                .map(partition -> List.of(Instant.ofEpochMilli(partition.endTs() - partition.lookback()).toString(),
+                        Instant.ofEpochMilli(partition.endTs()).toString()))
+                .toList());
+        partitions.forEach(partition -> assertEquals(request.serviceName(), partition.serviceName()));
+        partitions.forEach(partition -> assertEquals(request.limit(), partition.limit()));
+    }
+
+    @Test
+    public void requestWithinDayIsNotSplitTest() {
+        assertFalse(PartitionedSearch.isSplittable(createQueryRequest(TimeUnit.HOURS.toMillis(1))));
+    }
+
+    @Test
+    public void traceIdsAreMergedNewestFirstTest() {
+        Set<String> merged = PartitionedSearch.merge(List.of(
+                List.of("3", "2"),
+                //Trace 2 crosses midnight and is found in both partitions
+                List.of("2", "1", "0")), 3);
+
+        assertEquals(List.of("3", "2", "1"), new ArrayList<>(merged));
+    }
+
+    @Test
+    public void failedPartitionsAreSkippedTest() throws IOException {
+        Call<List<String>> failed = Call.<List<String>>create(List.of())
+                .map(traceIds -> {
+                    throw new ClickHouseStorageException("Query getTraces timed out");
+                });
+
+        List<List<String>> partitions = new ArrayList<>(Arrays.asList(List.of("1"),
+                failed.handleError(PartitionedSearch.<List<String>>skipFailed(createQueryRequest(1L))).execute()));
+
+        assertNull(partitions.get(1));
+        assertEquals(Set.of("1"), PartitionedSearch.merge(partitions, 10));
+        assertThrows(ClickHouseStorageException.class, () -> PartitionedSearch.merge(Arrays.asList(null, null), 10));
+    }
+
+    @Test
+    public void traceCrossingMidnightIsReadWholeTest() throws IOException {
+        Span beforeMidnight = span(TRACE_ID_VALUE, "a", Instant.parse("2009-02-13T23:59:59Z"));
+        Span afterMidnight = span(TRACE_ID_VALUE, "b", Instant.parse("2009-02-14T00:00:01Z"));
+        DSLContext mockContext = DSL.using(SQLDialect.MYSQL);
+        List<String> executed = new ArrayList<>();
+        List<Object> lookupBindings = new ArrayList<>();
+        DSLContext mockDslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+            executed.add(ctx.sql());
+            if (ctx.sql().startsWith("select distinct")) {
+                //Only the partition of the latest day finds the trace, its other span is in the previous partition
+                Result<Record1<String>> result = mockContext.newResult(ZipkinSpans.TRACE_ID);
+                if (((Timestamp) ctx.bindings()[1]).getTime() == END_TS) {
+                    result.add(mockContext.newRecord(ZipkinSpans.TRACE_ID).value1(TRACE_ID_VALUE));
+                }
+                return new MockResult[]{new MockResult(result.size(), result)};
+            }
+            lookupBindings.addAll(List.of(ctx.bindings()));
+            Result<Record> result = mockContext.newResult(ZipkinSpans.ZIPKIN_SPANS_TABLE);
+            result.add(SpansMockDataProvider.createRecord(beforeMidnight));
+            result.add(SpansMockDataProvider.createRecord(afterMidnight));
+            return new MockResult[]{new MockResult(result.size(), result)};
+        });
+        ClickHouseStorageSettings settings = ClickHouseStorageSettings.builder()
+                .partitionedSearchEnabled(true)
+                .partitionedSearchTimeout(Duration.ofSeconds(5))
+                .build();
+        DSLContext dslContext = DSL.using(mockDslContext.configuration()
+                .derive(new DefaultExecuteListenerProvider(new QueryLimitsListener(settings.getQueryLimits()))));
+        ClickHouseSpanStore spanStore = new ClickHouseSpanStore(Runnable::run, dslContext, false, settings,
+                new ClickHouseServiceAndSpanNames(Runnable::run, dslContext), ClickHouseStorageMetrics.NOOP);
+
+        List<List<Span>> traces = spanStore.getTraces(createQueryRequest(TimeUnit.HOURS.toMillis(2))).execute();
+
+        assertEquals(List.of(List.of(beforeMidnight.id(), afterMidnight.id())), traces.stream()
+                .map(trace -> trace.stream().map(Span::id).toList())
+                .toList());
+        //Two partitions find trace ids, the trace is read once, in the lookback window and with the search timeout
+        assertEquals(3, executed.size());
+        assertTrue(executed.get(2).endsWith(" SETTINGS max_execution_time = 5.0"), executed.get(2));
+        assertEquals(List.of(Timestamp.from(Instant.parse("2009-02-13T22:00:00Z")), Timestamp.from(Instant.parse("2009-02-14T02:00:00Z"))),
+                lookupBindings.subList(0, 2));
+    }
+
+    private static QueryRequest createQueryRequest(long lookback) {
+        return QueryRequest.newBuilder()
+                .serviceName("serviceName")
+                .endTs(END_TS)
+                .lookback(lookback)
+                .limit(10)
+                .build();
+    }
+
+    private static Span span(String traceId, String id, Instant timestamp) {
+        return Span.newBuilder()
+                .traceId(traceId)
+                .id(id)
+                .name("get")
+                .localEndpoint(Endpoint.newBuilder().serviceName("serviceName").build())
+                .remoteEndpoint(Endpoint.newBuilder().serviceName("remoteServiceName").build())
+                .timestamp(TimeUnit.MILLISECONDS.toMicros(timestamp.toEpochMilli()))
+                .duration(1000L)
+                .build();
+    }
+}
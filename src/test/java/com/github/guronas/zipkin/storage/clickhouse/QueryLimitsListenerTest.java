@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import com.github.guronas.zipkin.storage.clickhouse.query.TestJooqUtils;
+import com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.Callback;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryLimitsListenerTest {
+    private static final Map<QueryType, QueryLimits> LIMITS = Map.of(QueryType.GET_TRACES, QueryLimits.builder()
+            .maxExecutionTime(Duration.ofMillis(1500))
+            .maxRowsToRead(1_000_000)
+            .maxMemoryUsage(1L << 30)
+            .build());
+
+    private static final Result<Record> EMPTY_SPANS = DSL.using(SQLDialect.MYSQL).newResult(ZipkinSpans.ZIPKIN_SPANS_TABLE);
+
+    private final List<String> executedSql = new ArrayList<>();
+
+    @Test
+    public void limitsOfQueryTypeAreAppendedTest() {
+        DSLContext dslContext = createDSLContext(ctx -> new MockResult[]{new MockResult(0, EMPTY_SPANS)});
+
+        new QueryExecution(QueryType.GET_TRACES).run(selectSpans(dslContext));
+        new QueryExecution(QueryType.GET_TRACE).run(selectSpans(dslContext));
+        selectSpans(dslContext).get();
+
+        assertEquals(3, executedSql.size());
+        assertTrue(executedSql.get(0).endsWith(" SETTINGS max_execution_time = 1.5, max_rows_to_read = 1000000, max_memory_usage = 1073741824"),
+                executedSql.get(0));
+        assertFalse(executedSql.get(1).contains("SETTINGS"));
+        assertFalse(executedSql.get(2).contains("SETTINGS"));
+    }
+
+    @Test
+    public void limitsOfExecutionOverrideLimitsOfQueryTypeTest() {
+        DSLContext dslContext = createDSLContext(ctx -> new MockResult[]{new MockResult(0, EMPTY_SPANS)});
+        QueryLimits limits = LIMITS.get(QueryType.GET_TRACES).toBuilder()
+                .maxExecutionTime(Duration.ofSeconds(10))
+                .build();
+
+        new QueryExecution(QueryType.GET_TRACES, limits).run(selectSpans(dslContext));
+
+        assertTrue(executedSql.get(0).endsWith(" SETTINGS max_execution_time = 10.0, max_rows_to_read = 1000000, max_memory_usage = 1073741824"),
+                executedSql.get(0));
+    }
+
+    @Test
+    public void timeoutIsReportedAsStorageErrorTest() {
+        DSLContext dslContext = createDSLContext(ctx -> {
+            throw new SQLException("Code: 159, Timeout exceeded: elapsed 1.5 seconds", "HY000", 159);
+        });
+
+        ClickHouseStorageException e = assertThrows(ClickHouseStorageException.class,
+                () -> new QueryExecution(QueryType.GET_TRACES).run(selectSpans(dslContext)));
+        assertEquals("Query getTraces timed out", e.getMessage());
+        assertNotNull(e.getCause());
+    }
+
+    @Test
+    public void callCanceledInQueueIsNotExecutedTest() {
+        DSLContext dslContext = createDSLContext(ctx -> new MockResult[]{new MockResult(0, EMPTY_SPANS)});
+        List<Runnable> queue = new ArrayList<>();
+        ClickHouseCall<Integer> call = new ClickHouseCall<>(queue::add, ClickHouseStorageMetrics.NOOP, QueryType.GET_TRACES,
+                selectSpans(dslContext));
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        call.enqueue(new Callback<>() {
+            @Override
+            public void onSuccess(Integer value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+
+        call.cancel();
+        queue.forEach(Runnable::run);
+
+        ExecutionException e = assertThrows(ExecutionException.class, result::get);
+        assertEquals("Query getTraces is canceled", e.getCause().getMessage());
+        assertTrue(executedSql.isEmpty());
+    }
+
+    private DSLContext createDSLContext(MockDataProvider provider) {
+        return TestJooqUtils.getTestDSLContext(ctx -> {
+                    executedSql.add(ctx.sql());
+                    return provider.execute(ctx);
+                })
+                .configuration()
+                .derive(new DefaultExecuteListenerProvider(new QueryLimitsListener(LIMITS)))
+                .dsl();
+    }
+
+    private static Supplier<Integer> selectSpans(DSLContext dslContext) {
+        return () -> dslContext.selectFrom(ZipkinSpans.ZIPKIN_SPANS_TABLE).fetch().size();
+    }
+}
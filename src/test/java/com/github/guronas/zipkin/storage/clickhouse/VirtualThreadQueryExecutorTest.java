@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.distribution.pause.NoPauseDetector;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import zipkin2.Callback;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VirtualThreadQueryExecutorTest {
+    private final MeterRegistry registry = createRegistry();
+    private final ClickHouseStorageMetrics metrics = new ClickHouseStorageMetrics(registry);
+    //Platform threads stand in for virtual ones, so the limiter is tested on any JVM
+    private final VirtualThreadQueryExecutor executor = new VirtualThreadQueryExecutor(Executors.newCachedThreadPool(), 1, "test", metrics);
+
+    @AfterEach
+    public void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    public void queriesAboveLimitAreRejectedTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> {
+            started.countDown();
+            await(release);
+        });
+        started.await();
+
+        assertThrows(RejectedExecutionException.class, () -> executor.execute(() -> {
+        }));
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.executor.active").tag("executor", "test").gauge().value());
+        assertEquals(1.0, registry.get("zipkin.storage.clickhouse.executor.rejected").tag("executor", "test").counter().count());
+
+        release.countDown();
+        CompletableFuture<Void> next = new CompletableFuture<>();
+        awaitPermit();
+        executor.execute(() -> next.complete(null));
+        next.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void rejectedCallFailsCallbackTest() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.execute(() -> await(release));
+
+        CompletableFuture<List<String>> result = new CompletableFuture<>();
+        new ClickHouseCall<>(executor, metrics, QueryType.NAMES, () -> List.of("frontend")).enqueue(new Callback<>() {
+            @Override
+            public void onSuccess(List<String> value) {
+                result.complete(value);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        release.countDown();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+
+    private void awaitPermit() throws InterruptedException {
+        while (registry.get("zipkin.storage.clickhouse.executor.active").tag("executor", "test").gauge().value() > 0) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static MeterRegistry createRegistry() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        registry.config().pauseDetector(new NoPauseDetector());
+        return registry;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -30,4 +30,20 @@ public class AggregationByServiceNameQueryTest extends AbstractClickHouseQueryTe
         List<String> values = query.get();
         assertEquals(List.of("testName1", "testName2"), values);
     }
+
+    @Test
+    public void testSelectSpanNamesFromNameTableQuery() {
+        AggregationByServiceNameQuery query = new AggregationByServiceNameQuery(dslContext, "testService",
+                ZipkinSpanNames.SPAN_NAME, ZipkinSpanNames.SERVICE_NAME);
+        List<String> values = query.get();
+        assertEquals(List.of("testName1", "testName2"), values);
+    }
+
+    @Test
+    public void testSelectRemoteServiceNamesFromNameTableQuery() {
+        AggregationByServiceNameQuery query = new AggregationByServiceNameQuery(dslContext, "testService",
+                ZipkinRemoteServiceNames.REMOTE_SERVICE_NAME, ZipkinRemoteServiceNames.SERVICE_NAME);
+        List<String> values = query.get();
+        assertEquals(List.of("testRemoteService1"), values);
+    }
 }
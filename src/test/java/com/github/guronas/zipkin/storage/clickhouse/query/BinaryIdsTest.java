@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import ru.yandex.clickhouse.settings.ClickHouseProperties;
+import ru.yandex.clickhouse.util.ClickHouseRowBinaryStream;
+import zipkin2.Span;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.TimeZone;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinaryIdsTest {
+    private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+
+    @ParameterizedTest
+    @ValueSource(strings = {"03c9304e40394d40", "f3c9304e40394d40", "0000000000000001", "463ac35c9f6413ad48485a3953bb6124"})
+    public void traceIdRoundTripTest(String traceId) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryIds.writeTraceId(new ClickHouseRowBinaryStream(out, TimeZone.getTimeZone("UTC"), new ClickHouseProperties()), traceId);
+        byte[] bytes = out.toByteArray();
+
+        String paddedTraceId = traceId.length() == 32 ? traceId : "0000000000000000" + traceId;
+        assertEquals(paddedTraceId, toHex(bytes));
+        Span span = Span.newBuilder()
+                .traceId(BinaryIds.readLong(bytes, 0), BinaryIds.readLong(bytes, 8))
+                .id(1L)
+                .build();
+        assertEquals(traceId, span.traceId());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"03c9304e40394d41", "ffffffffffffffff", "8000000000000000"})
+    public void idRoundTripTest(String id) {
+        Span span = Span.newBuilder()
+                .traceId("03c9304e40394d40")
+                .id(BinaryIds.low(id))
+                .build();
+        assertEquals(id, span.id());
+    }
+
+    @Test
+    public void upperHexIsRejectedTest() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryIds.low("03C9304E40394D41"));
+    }
+
+    @Test
+    public void trimTraceIdTest() {
+        assertEquals("03c9304e40394d40", BinaryIds.trimTraceId("000000000000000003c9304e40394d40"));
+        assertEquals("463ac35c9f6413ad48485a3953bb6124", BinaryIds.trimTraceId("463ac35c9f6413ad48485a3953bb6124"));
+    }
+
+    @Test
+    public void idConditionsTest() {
+        assertEquals("(`zipkin`.`zipkin_spans`.`trace_id` in (unhex('000000000000000003c9304e40394d40'), " +
+                        "unhex('463ac35c9f6413ad48485a3953bb6124')))",
+                dslContext.renderInlined(BinaryIds.traceIdIn(TRACE_ID, List.of("03c9304e40394d40", "463ac35c9f6413ad48485a3953bb6124"))));
+        assertEquals("(`zipkin`.`zipkin_spans`.`id` in (-1, 1))",
+                dslContext.renderInlined(BinaryIds.idIn(ID, List.of("ffffffffffffffff", "0000000000000001"))));
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append("%02x".formatted(b));
+        }
+        return hex.toString();
+    }
+}
@@ -16,6 +16,10 @@
 
 package com.github.guronas.zipkin.storage.clickhouse.query;
 
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -24,6 +28,8 @@ import org.junit.jupiter.params.provider.MethodSource;
 import zipkin2.Span;
 import zipkin2.storage.QueryRequest;
 
+import java.sql.Timestamp;
+import java.time.Instant;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -65,6 +71,89 @@ public class GetAllSpansQueryTest extends AbstractClickHouseQueryTest {
         assertTrue(spans.isEmpty());
     }
 
+    @ParameterizedTest
+    @MethodSource("getSelectSpansArgs")
+    public void selectCertainTraceIdsTest(String expectedTrace, QueryRequest queryRequest) {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest);
+        assertEquals(List.of(expectedTrace), query.getTraceIds());
+    }
+
+    @ParameterizedTest
+    @MethodSource("getSelectSpansArgs")
+    public void selectCertainSpansWithSingleQueryTest(String expectedTrace, QueryRequest queryRequest) {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest, true);
+        List<Span> spans = query.get();
+        assertEquals(1, spans.size());
+        Assertions.assertEquals(SpansMockDataProvider.TEST_SPANS.get(expectedTrace), spans.get(0));
+    }
+
+    @Test
+    public void selectAllSpansWithSingleQueryTest() {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, createQueryRequest().build(), true);
+        List<Span> spans = query.get();
+        assertEquals(new ArrayList<>(SpansMockDataProvider.TEST_SPANS.values()), spans);
+    }
+
+    @Test
+    public void emptySpansResultWithSingleQueryTest() {
+        QueryRequest queryRequest = createQueryRequest()
+                .endTs(9234567890000L)
+                .lookback(1L)
+                .build();
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest, true);
+        assertTrue(query.get().isEmpty());
+    }
+
+    @ParameterizedTest
+    @MethodSource("getSelectSpansArgs")
+    public void selectCertainSpansWithTraceSummariesTest(String expectedTrace, QueryRequest queryRequest) {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest, false, true);
+        List<Span> spans = query.get();
+        assertEquals(1, spans.size());
+        Assertions.assertEquals(SpansMockDataProvider.TEST_SPANS.get(expectedTrace), spans.get(0));
+    }
+
+    @ParameterizedTest
+    @MethodSource("getSelectSpansArgs")
+    public void selectCertainSpansWithSingleQueryAndTraceSummariesTest(String expectedTrace, QueryRequest queryRequest) {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest, true, true);
+        List<Span> spans = query.get();
+        assertEquals(1, spans.size());
+        Assertions.assertEquals(SpansMockDataProvider.TEST_SPANS.get(expectedTrace), spans.get(0));
+    }
+
+    @Test
+    public void selectAllSpansWithTraceSummariesTest() {
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, createQueryRequest().build(), false, true);
+        List<Span> spans = query.get();
+        assertEquals(new ArrayList<>(SpansMockDataProvider.TEST_SPANS.values()), spans);
+    }
+
+    @Test
+    public void emptySpansResultWithTraceSummariesTest() {
+        QueryRequest queryRequest = createQueryRequest()
+                .endTs(9234567890000L)
+                .lookback(1L)
+                .build();
+        GetAllSpansQuery query = new GetAllSpansQuery(dslContext, queryRequest, true, true);
+        assertTrue(query.get().isEmpty());
+    }
+
+    @Test
+    public void traceSummariesAreReadADayAroundWindowTest() {
+        List<Object[]> bindings = new ArrayList<>();
+        DSLContext recordingContext = TestJooqUtils.getTestDSLContext(ctx -> {
+            bindings.add(ctx.bindings());
+            return new MockResult[]{new MockResult(0, DSL.using(SQLDialect.MYSQL).newResult(ZipkinTraceSummaries.TRACE_ID))};
+        });
+
+        new GetAllSpansQuery(recordingContext, createQueryRequest().build(), false, true).getTraceIds();
+
+        //Rows of a trace crossing midnight are dated by the first span of their insert
+        assertEquals(Timestamp.from(Instant.parse("2009-02-12T23:31:29.999Z")), bindings.get(0)[0]);
+        assertEquals(Timestamp.from(Instant.parse("2009-02-14T23:31:30Z")), bindings.get(0)[1]);
+    }
+
     public static Stream<Arguments> getSelectSpansArgs() {
         HashMap<String, String> annotations = new HashMap<>();
         annotations.put("certainAnnotation", null);
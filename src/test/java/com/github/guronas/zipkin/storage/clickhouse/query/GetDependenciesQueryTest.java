@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.Record4;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.DependencyLink;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinDependencies.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GetDependenciesQueryTest {
+    private static final String SQL_DEPENDENCIES = """
+            select `zipkin`.`zipkin_dependencies`.`parent`, `zipkin`.`zipkin_dependencies`.`child`, \
+            sum(`zipkin`.`zipkin_dependencies`.`call_count`), sum(`zipkin`.`zipkin_dependencies`.`error_count`) \
+            from `zipkin`.`zipkin_dependencies` \
+            where (`zipkin`.`zipkin_dependencies`.`bucket` >= ? and `zipkin`.`zipkin_dependencies`.`bucket` < ?) \
+            group by `zipkin`.`zipkin_dependencies`.`parent`, `zipkin`.`zipkin_dependencies`.`child`""";
+
+    @Test
+    public void dependenciesQueryTest() {
+        DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+            assertEquals(SQL_DEPENDENCIES, ctx.sql());
+            DSLContext create = DSL.using(SQLDialect.MYSQL);
+            Result<Record4<String, String, BigDecimal, BigDecimal>> result =
+                    create.newResult(PARENT, CHILD, DSL.sum(CALL_COUNT), DSL.sum(ERROR_COUNT));
+            result.add(create.newRecord(PARENT, CHILD, DSL.sum(CALL_COUNT), DSL.sum(ERROR_COUNT))
+                    .values("frontend", "backend", BigDecimal.valueOf(10), BigDecimal.valueOf(2)));
+            return new MockResult[]{new MockResult(1, result)};
+        });
+
+        List<DependencyLink> links = new GetDependenciesQuery(dslContext, 0L, 3_600_000L).get();
+        DependencyLink expected = DependencyLink.newBuilder()
+                .parent("frontend")
+                .child("backend")
+                .callCount(10)
+                .errorCount(2)
+                .build();
+        assertEquals(List.of(expected), links);
+    }
+}
@@ -31,4 +31,12 @@ public class GetServiceNameQueryTest extends AbstractClickHouseQueryTest{
         List<String> expectedServiceNames = List.of("testServiceName1", "testServiceName2");
         assertEquals(expectedServiceNames, serviceNames);
     }
+
+    @Test
+    public void serviceNameFromNameTableQueryTest() {
+        GetServiceNamesQuery query = new GetServiceNamesQuery(dslContext, true);
+        List<String> serviceNames = query.get();
+        List<String> expectedServiceNames = List.of("testServiceName1", "testServiceName2");
+        assertEquals(expectedServiceNames, serviceNames);
+    }
 }
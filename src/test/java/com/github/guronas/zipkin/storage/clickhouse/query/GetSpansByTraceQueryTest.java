@@ -16,9 +16,11 @@
 
 package com.github.guronas.zipkin.storage.clickhouse.query;
 
+import org.jooq.DSLContext;
 import org.junit.jupiter.api.Test;
 import zipkin2.Span;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -41,4 +43,32 @@ public class GetSpansByTraceQueryTest extends AbstractClickHouseQueryTest {
                 .collect(Collectors.toList());
         assertEquals(expectedSpans, spans);
     }
+
+    @Test
+    public void spansByTraceWithTraceIndexQueryTest() {
+        List<String> traces = List.of("03c9304e40394d43", "03c9304e40394d44");
+        GetSpansByTraceQuery query = new GetSpansByTraceQuery(dslContext, traces, true);
+        List<Span> spans = query.get();
+        List<Span> expectedSpans = traces.stream()
+                .map(TEST_SPANS::get)
+                .collect(Collectors.toList());
+        assertEquals(expectedSpans, spans);
+    }
+
+    @Test
+    public void traceIndexWindowIsNotUsedIfSomeTracesAreNotIndexedTest() {
+        List<String> executedSql = new ArrayList<>();
+        SpansMockDataProvider dataProvider = new SpansMockDataProvider();
+        DSLContext recordingContext = TestJooqUtils.getTestDSLContext(ctx -> {
+            executedSql.add(ctx.sql());
+            return dataProvider.execute(ctx);
+        });
+        List<String> traces = List.of("03c9304e40394d43", "03c9304e40394d44", "0000000000000001");
+
+        List<Span> spans = new GetSpansByTraceQuery(recordingContext, traces, true).get();
+
+        assertEquals(List.of(TEST_SPANS.get("03c9304e40394d43"), TEST_SPANS.get("03c9304e40394d44")), spans);
+        assertEquals(2, executedSql.size());
+        assertFalse(executedSql.get(1).contains("`date_time` between"), executedSql.get(1));
+    }
 }
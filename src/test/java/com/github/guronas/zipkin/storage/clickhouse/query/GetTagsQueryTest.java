@@ -16,8 +16,16 @@
 
 package com.github.guronas.zipkin.storage.clickhouse.query;
 
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
 import org.junit.jupiter.api.Test;
 
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -35,4 +43,28 @@ public class GetTagsQueryTest extends AbstractClickHouseQueryTest {
         List<String> expectedValues = List.of("certainValue1", "certainValue2", "certainValue3");
         assertEquals(expectedValues, tagValues);
     }
+
+    @Test
+    public void tagsFromTagValuesTableQueryTest() {
+        GetTagsQuery query = new GetTagsQuery(dslContext, "certainTag1", true);
+        List<String> tagValues = query.get();
+        List<String> expectedValues = List.of("certainValue1", "certainValue2", "certainValue3");
+        assertEquals(expectedValues, tagValues);
+    }
+
+    @Test
+    public void tagsSinceDayAreReadFromSpansTest() {
+        List<String> executedSql = new ArrayList<>();
+        List<Object> executedBindings = new ArrayList<>();
+        DSLContext recordingContext = TestJooqUtils.getTestDSLContext(ctx -> {
+            executedSql.add(ctx.sql());
+            executedBindings.addAll(List.of(ctx.bindings()));
+            return new MockResult[]{new MockResult(0, DSL.using(SQLDialect.MYSQL).newResult(DSL.field("value", String.class)))};
+        });
+
+        new GetTagsQuery(recordingContext, "certainTag1", false, LocalDate.parse("2009-02-14")).get();
+
+        assertTrue(executedSql.get(0).endsWith("and `zipkin`.`zipkin_spans`.`date_time` >= ?)"), executedSql.get(0));
+        assertEquals(Timestamp.from(Instant.parse("2009-02-14T00:00:00Z")), executedBindings.get(executedBindings.size() - 1));
+    }
 }
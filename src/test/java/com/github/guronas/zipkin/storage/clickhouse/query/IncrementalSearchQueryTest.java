@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockDataProvider;
+import org.jooq.tools.jdbc.MockExecuteContext;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+import zipkin2.storage.QueryRequest;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalSearchQueryTest {
+    private static final String TRACE_ID_VALUE = "03c9304e40394d41";
+    private static final long END_TS = Instant.parse("2009-02-14T01:00:00Z").toEpochMilli();
+    private static final long INITIAL_SLICE = TimeUnit.MINUTES.toMillis(15);
+
+    @Test
+    public void stopsAsSoonAsEnoughTracesAreFoundTest() {
+        SlicesMockDataProvider dataProvider = new SlicesMockDataProvider(Map.of(3, List.of(TRACE_ID_VALUE)));
+        QueryRequest request = createQueryRequest(TimeUnit.DAYS.toMillis(2), 1);
+
+        List<Span> spans = new IncrementalSearchQuery(TestJooqUtils.getTestDSLContext(dataProvider), request,
+                INITIAL_SLICE, false, false, false).get();
+
+        assertEquals(List.of(TEST_SPANS.get(TRACE_ID_VALUE)), spans);
+        //Slices double, but the third one stops at the start of the day
+        assertEquals(List.of(
+                slice("2009-02-14T00:45:00Z", "2009-02-14T01:00:00Z"),
+                slice("2009-02-14T00:15:00Z", "2009-02-14T00:45:00Z"),
+                slice("2009-02-14T00:00:00Z", "2009-02-14T00:15:00Z")), dataProvider.slices);
+        //Slices don't read spans, the trace is read once in the lookback window with an hour of slack
+        assertEquals(List.of(slice("2009-02-12T00:00:00Z", "2009-02-14T02:00:00Z")), dataProvider.traceLookups);
+    }
+
+    @Test
+    public void traceOfTwoSlicesDoesNotTakeSlotOfOlderSliceTest() {
+        String otherTraceId = "03c9304e40394d42";
+        SlicesMockDataProvider dataProvider = new SlicesMockDataProvider(Map.of(
+                1, List.of(TRACE_ID_VALUE),
+                2, List.of(TRACE_ID_VALUE, otherTraceId)));
+        QueryRequest request = createQueryRequest(TimeUnit.DAYS.toMillis(2), 2);
+
+        List<Span> spans = new IncrementalSearchQuery(TestJooqUtils.getTestDSLContext(dataProvider), request,
+                INITIAL_SLICE, false, false, false).get();
+
+        assertEquals(List.of(TEST_SPANS.get(TRACE_ID_VALUE), TEST_SPANS.get(otherTraceId)), spans);
+        assertEquals(2, dataProvider.slices.size());
+        assertEquals(1, dataProvider.traceLookups.size());
+    }
+
+    @Test
+    public void searchesWholeLookbackIfTracesAreNotFoundTest() {
+        SlicesMockDataProvider dataProvider = new SlicesMockDataProvider(Map.of());
+        QueryRequest request = createQueryRequest(TimeUnit.HOURS.toMillis(3), 10);
+
+        List<Span> spans = new IncrementalSearchQuery(TestJooqUtils.getTestDSLContext(dataProvider), request,
+                INITIAL_SLICE, false, false, false).get();
+
+        assertTrue(spans.isEmpty());
+        assertEquals(List.of(
+                slice("2009-02-14T00:45:00Z", "2009-02-14T01:00:00Z"),
+                slice("2009-02-14T00:15:00Z", "2009-02-14T00:45:00Z"),
+                slice("2009-02-14T00:00:00Z", "2009-02-14T00:15:00Z"),
+                slice("2009-02-13T22:00:00Z", "2009-02-14T00:00:00Z")), dataProvider.slices);
+        assertTrue(dataProvider.traceLookups.isEmpty());
+    }
+
+    @Test
+    public void startOfDayTest() {
+        assertEquals(Instant.parse("2009-02-14T00:00:00Z").toEpochMilli(),
+                ClickHouseQueryUtils.startOfDay(Instant.parse("2009-02-14T23:59:59.999Z").toEpochMilli()));
+        assertEquals(Instant.parse("2009-02-14T00:00:00Z").toEpochMilli(),
+                ClickHouseQueryUtils.startOfDay(Instant.parse("2009-02-14T00:00:00Z").toEpochMilli()));
+    }
+
+    private static QueryRequest createQueryRequest(long lookback, int limit) {
+        return QueryRequest.newBuilder()
+                .serviceName("serviceName")
+                .endTs(END_TS)
+                .lookback(lookback)
+                .limit(limit)
+                .build();
+    }
+
+    private static List<Long> slice(String begin, String end) {
+        return List.of(Instant.parse(begin).toEpochMilli(), Instant.parse(end).toEpochMilli());
+    }
+
+    /**
+     * Finds the given traces in slices of a search, remembers time ranges of all searched slices and trace lookups
+     */
+    private static class SlicesMockDataProvider implements MockDataProvider {
+        private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+        private final Map<Integer, List<String>> traceIdsBySlice;
+        private final List<List<Long>> slices = new ArrayList<>();
+        private final List<List<Long>> traceLookups = new ArrayList<>();
+
+        SlicesMockDataProvider(Map<Integer, List<String>> traceIdsBySlice) {
+            this.traceIdsBySlice = traceIdsBySlice;
+        }
+
+        @Override
+        public MockResult[] execute(MockExecuteContext ctx) {
+            Object[] bindings = ctx.bindings();
+            List<Long> window = List.of(((Timestamp) bindings[0]).getTime(), ((Timestamp) bindings[1]).getTime());
+            if (ctx.sql().startsWith("select distinct")) {
+                slices.add(window);
+                int limit = ((Number) bindings[bindings.length - 1]).intValue();
+                Result<Record1<String>> result = dslContext.newResult(TRACE_ID);
+                traceIdsBySlice.getOrDefault(slices.size(), List.of())
+                        .stream()
+                        .limit(limit)
+                        .forEach(traceId -> result.add(dslContext.newRecord(TRACE_ID).value1(traceId)));
+                return new MockResult[]{new MockResult(result.size(), result)};
+            }
+
+            traceLookups.add(window);
+            Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+            Arrays.stream(bindings)
+                    .distinct()
+                    .filter(TEST_SPANS::containsKey)
+                    .forEach(traceId -> result.add(SpansMockDataProvider.createRecord(TEST_SPANS.get(traceId))));
+            return new MockResult[]{new MockResult(result.size(), result)};
+        }
+    }
+}
@@ -16,15 +16,22 @@
 
 package com.github.guronas.zipkin.storage.clickhouse.query;
 
+import org.jooq.Record;
+import org.jooq.Result;
 import org.jooq.tools.jdbc.MockDataProvider;
 import org.jooq.tools.jdbc.MockResult;
 import org.junit.jupiter.api.Test;
+import zipkin2.Span;
 
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
 
 public class InsertSpansQueryTest extends AbstractClickHouseQueryTest {
     private static final MockDataProvider dataProvider = spy(new SpansMockDataProvider());
@@ -44,4 +51,51 @@ public class InsertSpansQueryTest extends AbstractClickHouseQueryTest {
         InsertSpansQuery query = new InsertSpansQuery(dslContext, TEST_SPANS.values());
         query.get();
     }
+
+    @Test
+    public void endpointsAreWrittenToTheirColumnsTest() {
+        Span span = TEST_SPANS.get("03c9304e40394d42");
+        Record record = new InsertSpansQuery(dslContext, List.of(span)).createRecord(span, span.name());
+        assertEquals("testlocalservice", record.get(LOCAL_SERVICE_NAME));
+        assertEquals("1.1.1.1", record.get(LOCAL_IPV4));
+        assertEquals("1:1:1:1:1:1:1:1", record.get(LOCAL_IPV6));
+        assertEquals(123, record.get(LOCAL_PORT));
+        assertEquals("", record.get(REMOTE_SERVICE_NAME));
+        assertEquals("2.2.2.3", record.get(REMOTE_IPV4));
+        assertEquals("2:2:2:2:2:2:2:3", record.get(REMOTE_IPV6));
+        assertEquals(323, record.get(REMOTE_PORT));
+    }
+
+    @Test
+    public void insertedSpansAreReadBackTest() throws SQLException {
+        Span withoutEndpoints = Span.newBuilder()
+                .traceId("03c9304e40394d4a")
+                .id("03c9304e40394d4a")
+                .name("withoutEndpoints")
+                .timestamp(1234567889999001L)
+                .duration(100L)
+                .shared(false)
+                .debug(false)
+                .build();
+        Span withoutRemoteEndpoint = TEST_SPANS.get("03c9304e40394d40").toBuilder()
+                .remoteEndpoint(null)
+                .build();
+        List<Span> spans = new ArrayList<>(TEST_SPANS.values());
+        spans.add(withoutEndpoints);
+        spans.add(withoutRemoteEndpoint);
+
+        InsertSpansQuery query = new InsertSpansQuery(dslContext, spans);
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        spans.forEach(span -> result.add(query.createRecord(span, span.name())));
+
+        List<Span> readSpans = new ArrayList<>();
+        SpanRowDecoder decoder = new SpanRowDecoder();
+        try (ResultSet resultSet = result.intoResultSet()) {
+            while (resultSet.next()) {
+                readSpans.add(decoder.decode(resultSet));
+            }
+        }
+        assertEquals(spans, readSpans);
+        assertEquals(spans, result.map(ClickHouseQueryUtils::buildSpan));
+    }
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.Query;
+import org.jooq.Record1;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.storage.QueryRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static com.github.guronas.zipkin.storage.clickhouse.query.condition.MapContainsCondition.mapContains;
+import static com.github.guronas.zipkin.storage.clickhouse.query.condition.TwoValueEqualsCondition.twoValueEquals;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryTemplatesTest {
+    private final List<String> executedSql = new ArrayList<>();
+    private final List<List<Object>> executedBindings = new ArrayList<>();
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        executedSql.add(ctx.sql());
+        executedBindings.add(List.of(ctx.bindings()));
+        Result<Record1<String>> result = DSL.using(SQLDialect.MYSQL).newResult(TRACE_ID);
+        return new MockResult[]{new MockResult(0, result)};
+    });
+
+    @Test
+    public void queriesOfOneShapeShareSqlTest() {
+        QueryTemplates templates = QueryTemplates.of(dslContext);
+        List<Supplier<Query>> built = new ArrayList<>();
+
+        templates.prepare(dslContext, "tags", List.of("key", "value", "key"), record(built, () -> selectTraceIds("key", "value"))).fetch();
+        templates.prepare(dslContext, "tags", List.of("other'key", "other\\value", "other'key"),
+                record(built, () -> selectTraceIds("other'key", "other\\value"))).fetch();
+
+        assertSame(templates, QueryTemplates.of(dslContext));
+        assertEquals(1, templates.size());
+        assertEquals(1, built.size());
+        assertEquals(executedSql.get(0), executedSql.get(1));
+        assertEquals("select `zipkin`.`zipkin_spans`.`trace_id` from `zipkin`.`zipkin_spans` "
+                + "where (`zipkin`.`zipkin_spans`.`tags`[?] = ? and mapContains(`zipkin`.`zipkin_spans`.`annotations`,?))", executedSql.get(0));
+        assertEquals(List.of("key", "value", "key"), executedBindings.get(0));
+        assertEquals(List.of("other'key", "other\\value", "other'key"), executedBindings.get(1));
+    }
+
+    @Test
+    public void queryWithWronglyListedBindValuesIsRenderedTest() {
+        QueryTemplates templates = QueryTemplates.of(dslContext);
+
+        templates.prepare(dslContext, "ids", List.of("1"), () -> dslContext.select(TRACE_ID).from(ZIPKIN_SPANS_TABLE).where(TRACE_ID.in("1", "2"))).fetch();
+
+        assertEquals(0, templates.size());
+        assertTrue(executedSql.get(0).endsWith("in (?, ?)"), executedSql.get(0));
+        assertEquals(List.of("1", "2"), executedBindings.get(0));
+    }
+
+    @Test
+    public void leastRecentlyUsedTemplateIsEvictedTest() {
+        QueryTemplates templates = new QueryTemplates(2);
+        List<Object> params = List.of("key", "value", "key");
+
+        templates.prepare(dslContext, "a", params, () -> selectTraceIds("key", "value")).fetch();
+        templates.prepare(dslContext, "b", params, () -> selectTraceIds("key", "value")).fetch();
+        templates.prepare(dslContext, "a", params, () -> selectTraceIds("key", "value")).fetch();
+        templates.prepare(dslContext, "c", params, () -> selectTraceIds("key", "value")).fetch();
+        //Only a cached template would be sent instead of the query
+        templates.prepare(dslContext, "a", params, () -> selectIds("key", "value")).fetch();
+        templates.prepare(dslContext, "b", params, () -> selectIds("key", "value")).fetch();
+
+        assertEquals(2, templates.size());
+        assertEquals(executedSql.get(0), executedSql.get(4));
+        assertNotEquals(executedSql.get(0), executedSql.get(5));
+    }
+
+    @Test
+    public void searchesListTheirBindValuesTest() {
+        QueryRequest request = QueryRequest.newBuilder()
+                .serviceName("service")
+                .remoteServiceName("remote")
+                .spanName("span")
+                .parseAnnotationQuery("error and http.method=GET")
+                .minDuration(1L)
+                .maxDuration(2L)
+                .endTs(1234567890000L)
+                .lookback(1000L)
+                .limit(10)
+                .build();
+
+        new GetAllSpansQuery(dslContext, request, false, false, false).getTraceIds();
+        new GetAllSpansQuery(dslContext, request, false, true, true).getTraceIds();
+        new GetAllSpansQuery(dslContext, request.toBuilder().remoteServiceName(null).spanName(null).parseAnnotationQuery(null)
+                .minDuration(null).maxDuration(null).build(), false, true, false).getTraceIds();
+        new GetSpansByTraceQuery(dslContext, List.of("1", "0000000000000001000000000000000a"), true, true, request).get();
+
+        //A query which doesn't match its listed values isn't cached
+        assertEquals(5, QueryTemplates.of(dslContext).size());
+    }
+
+    @Test
+    public void listsArePaddedToBucketsTest() {
+        assertEquals(List.of(), QueryTemplates.padToBucket(List.of()));
+        assertEquals(List.of("1"), QueryTemplates.padToBucket(List.of("1")));
+        assertEquals(List.of("1", "2"), QueryTemplates.padToBucket(List.of("1", "2")));
+        assertEquals(List.of("1", "2", "3", "3"), QueryTemplates.padToBucket(List.of("1", "2", "3")));
+        assertEquals(8, QueryTemplates.padToBucket(List.of("1", "2", "3", "4", "5")).size());
+    }
+
+    @Test
+    public void traceLookupsOfOneBucketShareSqlTest() {
+        new GetSpansByTraceQuery(dslContext, List.of("1", "2", "3")).get();
+        new GetSpansByTraceQuery(dslContext, List.of("1", "2", "3", "4")).get();
+
+        assertEquals(1, QueryTemplates.of(dslContext).size());
+        assertEquals(executedSql.get(0), executedSql.get(1));
+        assertEquals(List.of("1", "2", "3", "3"), executedBindings.get(0));
+    }
+
+    @Test
+    public void mapValuesAreEscapedTest() {
+        String sql = dslContext.renderInlined(dslContext.select(MapFieldValue.map(Map.of("it's", "C:\\"))));
+
+        assertEquals("select '{''it\\\\''s'':''C:\\\\\\\\''}'", sql);
+    }
+
+    private static Supplier<Query> record(List<Supplier<Query>> built, Supplier<Query> query) {
+        return () -> {
+            built.add(query);
+            return query.get();
+        };
+    }
+
+    private Query selectIds(String key, String value) {
+        return dslContext.select(ID)
+                .from(ZIPKIN_SPANS_TABLE)
+                .where(twoValueEquals(GetMapValueExpression.getMapValue(TAGS, key, ClickhouseDataType.STRING), DSL.val(value, ClickhouseDataType.STRING)))
+                .and(mapContains(ANNOTATIONS, key));
+    }
+
+    private Query selectTraceIds(String key, String value) {
+        return dslContext.select(TRACE_ID)
+                .from(ZIPKIN_SPANS_TABLE)
+                .where(twoValueEquals(GetMapValueExpression.getMapValue(TAGS, key, ClickhouseDataType.STRING), DSL.val(value, ClickhouseDataType.STRING)))
+                .and(mapContains(ANNOTATIONS, key));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.jooq.tools.jdbc.MockResult;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpanNameResolverTest {
+    private final AtomicInteger executedQueries = new AtomicInteger();
+    private final DSLContext dslContext = TestJooqUtils.getTestDSLContext(ctx -> {
+        executedQueries.incrementAndGet();
+        DSLContext context = DSL.using(SQLDialect.MYSQL);
+        Result<Record3<String, String, String>> result = context.newResult(ID, PARENT_ID, NAME);
+        result.add(context.newRecord(ID, PARENT_ID, NAME).values("000000000000000a", "000000000000000a", "db"));
+        return new MockResult[]{new MockResult(result.size(), result)};
+    });
+    private final SpanNameResolver resolver = new SpanNameResolver(dslContext, 100, Duration.ofMinutes(1));
+
+    @Test
+    public void namesAreResolvedFromSameBatchTest() {
+        List<Span> spans = List.of(
+                createSpan("0000000000000001", null, "parent"),
+                createSpan("0000000000000002", "0000000000000001", null),
+                createSpan("0000000000000003", "0000000000000009", null),
+                createSpan("0000000000000004", "0000000000000003", "child"));
+        List<String> names = resolver.resolve(spans);
+        assertEquals(List.of("parent", "parent", "child", "child"), names);
+        assertEquals(0, executedQueries.get());
+    }
+
+    @Test
+    public void namesAreResolvedFromCacheTest() {
+        resolver.resolve(List.of(createSpan("0000000000000001", null, "cached")));
+        List<String> names = resolver.resolve(List.of(createSpan("0000000000000002", "0000000000000001", null)));
+        assertEquals(List.of("cached"), names);
+        assertEquals(0, executedQueries.get());
+    }
+
+    @Test
+    public void namesAreResolvedFromDbWithOneQueryTest() {
+        List<Span> spans = List.of(
+                createSpan("000000000000000b", "000000000000000a", null),
+                createSpan("000000000000000c", "000000000000000a", null),
+                createSpan("000000000000000d", "000000000000000e", null));
+        List<String> names = resolver.resolve(spans);
+        assertEquals(List.of("db", "db", SpanNameResolver.DEFAULT_SPAN_NAME), names);
+        assertEquals(1, executedQueries.get());
+
+        //Resolved names are cached
+        resolver.resolve(List.of(createSpan("000000000000000b", "000000000000000a", null)));
+        assertEquals(1, executedQueries.get());
+    }
+
+    private static Span createSpan(String id, String parentId, String name) {
+        return Span.newBuilder()
+                .traceId("03c9304e40394d40")
+                .id(id)
+                .parentId(parentId)
+                .name(name)
+                .timestamp(1234567889999001L)
+                .build();
+    }
+}
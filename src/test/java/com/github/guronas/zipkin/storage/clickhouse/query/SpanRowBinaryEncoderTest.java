@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.junit.jupiter.api.Test;
+import ru.yandex.clickhouse.settings.ClickHouseProperties;
+import ru.yandex.clickhouse.util.ClickHouseRowBinaryStream;
+import zipkin2.Span;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpanRowBinaryEncoderTest {
+    private final SpanRowBinaryEncoder encoder = new SpanRowBinaryEncoder();
+
+    @Test
+    public void insertSqlTest() {
+        assertEquals("INSERT INTO zipkin.zipkin_spans (`trace_id`, `parent_id`, `id`, `kind`, `name`, `timestamp`, `date_time`, " +
+                        "`duration`, `local_service_name`, `local_ipv4`, `local_ipv6`, `local_port`, `remote_service_name`, `remote_ipv4`, " +
+                        "`remote_ipv6`, `remote_port`, `annotations`, `tags`, `shared`, `debug`)",
+                SpanRowBinaryEncoder.INSERT_SQL);
+    }
+
+    @Test
+    public void spanRowTest() throws IOException {
+        Span span = TEST_SPANS.get("03c9304e40394d42").toBuilder()
+                .putTag("unicodeKey", "\u0437\u043d\u0430\u0447\u0435\u043d\u0438\u0435")
+                .build();
+        ByteBuffer row = encode(span, "testName");
+
+        assertEquals(span.traceId(), readString(row));
+        assertEquals(span.parentId(), readString(row));
+        assertEquals(span.id(), readString(row));
+        assertEquals(Span.Kind.SERVER.ordinal(), row.get());
+        assertEquals("testName", readString(row));
+        assertEquals(span.timestampAsLong(), row.getLong());
+        assertEquals(span.timestampAsLong() / 1_000_000, Integer.toUnsignedLong(row.getInt()));
+        assertEquals(span.durationAsLong(), row.getLong());
+
+        assertEquals(span.localServiceName(), readString(row));
+        assertEquals(span.localEndpoint().ipv4(), readString(row));
+        assertEquals(span.localEndpoint().ipv6(), readString(row));
+        assertEquals(span.localEndpoint().portAsInt(), row.getInt());
+
+        assertEquals("", readString(row));
+        assertEquals(span.remoteEndpoint().ipv4(), readString(row));
+        assertEquals(span.remoteEndpoint().ipv6(), readString(row));
+        assertEquals(span.remoteEndpoint().portAsInt(), row.getInt());
+
+        int annotationsCount = row.get();
+        assertEquals(span.annotations().size(), annotationsCount);
+        for (int i = 0; i < annotationsCount; i++) {
+            assertEquals(span.annotations().get(i).value(), readString(row));
+            assertEquals(span.annotations().get(i).timestamp(), row.getLong());
+        }
+
+        int tagsCount = row.get();
+        Map<String, String> tags = new HashMap<>();
+        for (int i = 0; i < tagsCount; i++) {
+            tags.put(readString(row), readString(row));
+        }
+        assertEquals(span.tags(), tags);
+
+        assertEquals(1, row.get());
+        assertEquals(1, row.get());
+        assertFalse(row.hasRemaining());
+    }
+
+    @Test
+    public void spanWithoutParentAndEndpointsTest() throws IOException {
+        Span span = Span.newBuilder()
+                .traceId("03c9304e40394d40")
+                .id("03c9304e40394d41")
+                .build();
+        ByteBuffer row = encode(span, SpanNameResolver.DEFAULT_SPAN_NAME);
+
+        assertEquals(span.traceId(), readString(row));
+        assertEquals(span.id(), readString(row));
+        assertEquals(span.id(), readString(row));
+        assertEquals(0, row.get());
+        assertEquals(SpanNameResolver.DEFAULT_SPAN_NAME, readString(row));
+        row.position(row.position() + 8 + 4);
+        assertEquals(0L, row.getLong());
+        for (int i = 0; i < 2; i++) {
+            assertEquals("", readString(row));
+            assertEquals("", readString(row));
+            assertEquals("", readString(row));
+            assertEquals(0, row.getInt());
+        }
+        assertEquals(0, row.get());
+        assertEquals(0, row.get());
+        assertEquals(0, row.get());
+        assertEquals(0, row.get());
+        assertFalse(row.hasRemaining());
+    }
+
+    @Test
+    public void binaryIdsTest() throws IOException {
+        Span span = TEST_SPANS.get("03c9304e40394d42");
+        ByteBuffer row = encode(new SpanRowBinaryEncoder(true), span, "testName");
+
+        //FixedString(16) keeps bytes in the order of hex chars
+        row.order(ByteOrder.BIG_ENDIAN);
+        assertEquals(0L, row.getLong());
+        assertEquals(Long.parseUnsignedLong(span.traceId(), 16), row.getLong());
+        row.order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(Long.parseUnsignedLong(span.parentId(), 16), row.getLong());
+        assertEquals(Long.parseUnsignedLong(span.id(), 16), row.getLong());
+        assertEquals(Span.Kind.SERVER.ordinal(), row.get());
+        assertEquals("testName", readString(row));
+    }
+
+    private ByteBuffer encode(Span span, String name) throws IOException {
+        return encode(encoder, span, name);
+    }
+
+    private static ByteBuffer encode(SpanRowBinaryEncoder encoder, Span span, String name) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ClickHouseRowBinaryStream stream = new ClickHouseRowBinaryStream(out, TimeZone.getTimeZone("UTC"), new ClickHouseProperties());
+        encoder.write(stream, span, name);
+        return ByteBuffer.wrap(out.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        //All the test strings are shorter than 128 bytes, so their length takes one byte
+        byte[] bytes = new byte[buffer.get()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2023 Maksim Frolov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.guronas.zipkin.storage.clickhouse.query;
+
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.SQLDialect;
+import org.jooq.impl.DSL;
+import org.junit.jupiter.api.Test;
+import zipkin2.Span;
+
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.TEST_SPANS;
+import static com.github.guronas.zipkin.storage.clickhouse.query.SpansMockDataProvider.createRecord;
+import static com.github.guronas.zipkin.storage.clickhouse.query.ZipkinSpans.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpanRowDecoderTest {
+    private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
+
+    @Test
+    public void decodedSpansAreSameAsBuiltFromRecordsTest() throws Exception {
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        TEST_SPANS.values().forEach(span -> result.add(createRecord(span)));
+
+        List<Span> decodedSpans = new ArrayList<>();
+        SpanRowDecoder decoder = new SpanRowDecoder();
+        try (ResultSet resultSet = result.intoResultSet()) {
+            while (resultSet.next()) {
+                decodedSpans.add(decoder.decode(resultSet));
+            }
+        }
+
+        assertEquals(result.map(ClickHouseQueryUtils::buildSpan), decodedSpans);
+    }
+
+    @Test
+    public void emptyEndpointsAreSkippedTest() throws Exception {
+        Record record = createRecord(TEST_SPANS.get("03c9304e40394d40"));
+        record.set(REMOTE_SERVICE_NAME, "");
+        record.set(REMOTE_IPV4, "");
+        record.set(REMOTE_IPV6, "");
+        record.set(REMOTE_PORT, 0);
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        result.add(record);
+
+        try (ResultSet resultSet = result.intoResultSet()) {
+            assertTrue(resultSet.next());
+            Span span = new SpanRowDecoder().decode(resultSet);
+            assertNotNull(span.localEndpoint());
+            assertNull(span.remoteEndpoint());
+        }
+    }
+
+    @Test
+    public void equalEndpointsAreReusedTest() throws Exception {
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        result.add(createRecord(TEST_SPANS.get("03c9304e40394d40")));
+        result.add(createRecord(TEST_SPANS.get("03c9304e40394d43")));
+
+        SpanRowDecoder decoder = new SpanRowDecoder();
+        try (ResultSet resultSet = result.intoResultSet()) {
+            assertTrue(resultSet.next());
+            Span first = decoder.decode(resultSet);
+            assertTrue(resultSet.next());
+            Span second = decoder.decode(resultSet);
+            assertNotEquals(first.id(), second.id());
+            assertSame(first.localEndpoint(), second.localEndpoint());
+        }
+    }
+}
@@ -28,9 +28,12 @@ import zipkin2.Span;
 
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -52,7 +55,15 @@ public class SpansMockDataProvider implements MockDataProvider {
             (and `zipkin`\\.`zipkin_spans`\\.`duration` <= \\d+)?\\s?\
             \\)? order by `zipkin`\\.`zipkin_spans`\\.`timestamp` desc limit \\d+$""";
 
-    private static final String SQL_SELECT_SPANS_PATTERN = """
+    private static final String SQL_TRACE_SUMMARIES_PATTERN = """
+            ^select `zipkin`\\.`zipkin_trace_summaries`\\.`trace_id` from `zipkin`\\.`zipkin_trace_summaries` \
+            where \\(?`zipkin`\\.`zipkin_trace_summaries`\\.`date` between toDate\\(\\{ts '[^']+'}\\) and toDate\\(\\{ts '[^']+'}\\)\
+            ( and `zipkin`\\.`zipkin_trace_summaries`\\.`trace_id` in \\(select `zipkin`\\.`zipkin_spans`\\.`trace_id` \
+            from `zipkin`\\.`zipkin_spans` where .+\\)\\))? \
+            group by `zipkin`\\.`zipkin_trace_summaries`\\.`trace_id` having .+ \
+            order by min\\(`zipkin`\\.`zipkin_trace_summaries`\\.`start_ts`\\) desc limit \\d+$""";
+
+    private static final String SQL_SELECT_SPANS_COLUMNS = """
             ^select `zipkin`\\.`zipkin_spans`\\.`trace_id`, `zipkin`\\.`zipkin_spans`\\.`parent_id`, `zipkin`\\.`zipkin_spans`\\.`id`, \
             `zipkin`\\.`zipkin_spans`\\.`kind`, `zipkin`\\.`zipkin_spans`\\.`name`, `zipkin`\\.`zipkin_spans`\\.`timestamp`, \
             `zipkin`\\.`zipkin_spans`\\.`date_time`, `zipkin`\\.`zipkin_spans`\\.`duration`, `zipkin`\\.`zipkin_spans`\\.`local_service_name`, \
@@ -60,23 +71,34 @@ public class SpansMockDataProvider implements MockDataProvider {
             `zipkin`\\.`zipkin_spans`\\.`remote_service_name`, `zipkin`\\.`zipkin_spans`\\.`remote_ipv4`, `zipkin`\\.`zipkin_spans`\\.`remote_ipv6`, \
             `zipkin`\\.`zipkin_spans`\\.`remote_port`, `zipkin`\\.`zipkin_spans`\\.`annotations`, `zipkin`\\.`zipkin_spans`\\.`tags`, \
             `zipkin`\\.`zipkin_spans`\\.`shared`, `zipkin`\\.`zipkin_spans`\\.`debug` \
-            from `zipkin`\\.`zipkin_spans` where \\(?(`zipkin`\\.`zipkin_spans`\\.`date_time` between \\{ts '\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{0,3}'} \
+            from `zipkin`\\.`zipkin_spans` where\s""";
+
+    private static final String SQL_SELECT_SPANS_PATTERN = SQL_SELECT_SPANS_COLUMNS + """
+            \\(?(`zipkin`\\.`zipkin_spans`\\.`date_time` between \\{ts '\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{0,3}'} \
             and \\{ts '\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\.\\d{0,3}'} \
-            and\\s)?`zipkin`\\.`zipkin_spans`\\.`trace_id` in \\(('.{16}',?\\s?)+\\)\\)?$""";
+            and\\s)*`zipkin`\\.`zipkin_spans`\\.`trace_id` in \\(('.{16}',?\\s?)+\\)\\)?$""";
+
+    private static final String SQL_SEARCH_SPANS_PATTERN = SQL_SELECT_SPANS_COLUMNS + """
+            \\(`zipkin`\\.`zipkin_spans`\\.`date_time` between \\{ts '[^']+'} and \\{ts '[^']+'} \
+            and `zipkin`\\.`zipkin_spans`\\.`trace_id` in \\((.+)\\)\\)$""";
 
     private static final String SQL_TAGS_PATTERN = """
             ^select distinct `zipkin`\\.`zipkin_spans`\\.`tags`\\['(\\S+)'] as value \
             from `zipkin`\\.`zipkin_spans` where notEmpty\\(value\\)$""";
 
+    private static final String SQL_TAG_VALUES_PATTERN = """
+            ^select distinct `zipkin`\\.`zipkin_tag_values`\\.`value` from `zipkin`\\.`zipkin_tag_values` \
+            where `zipkin`\\.`zipkin_tag_values`\\.`key` = '(\\S+)' order by `zipkin`\\.`zipkin_tag_values`\\.`value`$""";
+
     private static final String SQL_INSERT_SPANS_PATTERN = """
-            ^insert into `zipkin`\\.`zipkin_spans` \\((`local_ipv4`, `local_ipv6`, `local_port`,\\s)?(`remote_ipv4`, `remote_ipv6`, `remote_port`,\\s)?\
-            `trace_id`, `parent_id`, `id`, `kind`, `name`, `timestamp`, `date_time`, `duration`, `local_service_name`, `remote_service_name`, \
+            ^insert into `zipkin`\\.`zipkin_spans` \\(`trace_id`, `parent_id`, `id`, `kind`, `name`, `timestamp`, `date_time`, `duration`, \
+            `local_service_name`, `local_ipv4`, `local_ipv6`, `local_port`, `remote_service_name`, `remote_ipv4`, `remote_ipv6`, `remote_port`, \
             `annotations`, `tags`, `shared`, `debug`\\) \
             values (.+)+$""";
 
     private static final String SQL_INSERT_VALUES_PATTERN = """
-            (('.*'|null), ('.*'|null), (\\d*|null),\\s){0,2}'.{16}', '.{16}', '.{16}', ('.*'|null), ('.*'|null), \\d*, \
-            \\{ts '.*'}, \\d*, ('.*'|null), ('.*'|null), ('\\{('.*':('.*'|\\d*))*}',\\s){2}[01], [01]""";
+            '.{16}', '.{16}', '.{16}', ('.*'|null), ('.*'|null), \\d*, \\{ts '.*'}, (\\d*|null), \
+            ('.*', '.*', '.*', \\d+,\\s){2}('\\{('.*':('.*'|\\d*))*}',\\s){2}[01], [01]""";
 
     private static final String SQL_ANNOTATION_QUERY_PATTERN = """
             ^select distinct `zipkin`\\.`zipkin_spans`\\.`trace_id` \
@@ -87,6 +109,12 @@ public class SpansMockDataProvider implements MockDataProvider {
             or mapContains\\(`zipkin`\\.`zipkin_spans`\\.`tags`,'\\S+'\\s?\\))\\)*\\s?\
             \\)? order by `zipkin`\\.`zipkin_spans`\\.`timestamp` desc limit \\d+$""";
 
+    private static final String SQL_TRACE_WINDOW_PATTERN = """
+            ^select uniqExact\\(`zipkin`\\.`zipkin_trace_index`\\.`trace_id`\\), min\\(`zipkin`\\.`zipkin_trace_index`\\.`min_date_time`\\), \
+            max\\(`zipkin`\\.`zipkin_trace_index`\\.`max_date_time`\\) \
+            from `zipkin`\\.`zipkin_trace_index` \
+            where `zipkin`\\.`zipkin_trace_index`\\.`trace_id` in \\(('.{16}',?\\s?)+\\)$""";
+
     public static final Map<String, Span> TEST_SPANS = fillUpSpans();
 
     private final DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
@@ -167,16 +195,22 @@ public class SpansMockDataProvider implements MockDataProvider {
         sql = dslContext.query(sql, bindings).toString();
 
         //Check sql query and timestamp bounds
-        if (sql.matches(SQL_TRACE_ID_PATTERN) || sql.matches(SQL_ANNOTATION_QUERY_PATTERN)) {
-            if (bindings[0].equals(Timestamp.valueOf("2009-02-14 02:31:29.999")) && bindings[1].equals(Timestamp.valueOf("2009-02-14 02:31:30.0"))) {
+        if (isTraceIdsQuery(sql)) {
+            if (sql.matches(SQL_TRACE_SUMMARIES_PATTERN) ? isTestSummariesDateRange(bindings) : isTestTimeRange(bindings)) {
                 return createTraceIdsResult(sql);
             } else {
                 return new MockResult[]{new MockResult(0, dslContext.newResult(TRACE_ID))};
             }
+        } else if (sql.matches(SQL_TRACE_WINDOW_PATTERN)) {
+            return createTraceWindowResult(bindings);
         } else if (sql.matches(SQL_SELECT_SPANS_PATTERN)) {
             return createSelectSpansResult(bindings);
+        } else if (sql.matches(SQL_SEARCH_SPANS_PATTERN)) {
+            return createSearchSpansResult(sql, bindings);
         } else if (sql.matches(SQL_TAGS_PATTERN)) {
-            return createTagsResult(sql);
+            return createTagsResult(sql, SQL_TAGS_PATTERN);
+        } else if (sql.matches(SQL_TAG_VALUES_PATTERN)) {
+            return createTagsResult(sql, SQL_TAG_VALUES_PATTERN);
         } else if (sql.matches(SQL_INSERT_SPANS_PATTERN) && matchesValuesPattern(sql)) {
             return createSpansInsertResult(sql);
         } else {
@@ -184,28 +218,74 @@ public class SpansMockDataProvider implements MockDataProvider {
         }
     }
 
+    private static boolean isTraceIdsQuery(String sql) {
+        return sql.matches(SQL_TRACE_ID_PATTERN) || sql.matches(SQL_ANNOTATION_QUERY_PATTERN) || sql.matches(SQL_TRACE_SUMMARIES_PATTERN);
+    }
+
+    private static boolean isTestTimeRange(Object[] bindings) {
+        return bindings[0].equals(Timestamp.valueOf("2009-02-14 02:31:29.999")) && bindings[1].equals(Timestamp.valueOf("2009-02-14 02:31:30.0"));
+    }
+
+    /**
+     * Summary rows are read a day around the test time range
+     */
+    private static boolean isTestSummariesDateRange(Object[] bindings) {
+        return bindings[0].equals(Timestamp.valueOf("2009-02-13 02:31:29.999")) && bindings[1].equals(Timestamp.valueOf("2009-02-15 02:31:30.0"));
+    }
+
     private MockResult[] createTraceIdsResult(String sql) {
         Result<Record1<String>> result = dslContext.newResult(TRACE_ID);
-        Span span;
-        if (sql.contains("`local_service_name`")) {
-            span = TEST_SPANS.get("03c9304e40394d41");
-        } else if (sql.contains("`remote_service_name`")) {
-            span = TEST_SPANS.get("03c9304e40394d42");
-        } else if (sql.contains("`name`")) {
-            span = TEST_SPANS.get("03c9304e40394d43");
-        } else if (sql.contains("`annotations`")) {
-            span = TEST_SPANS.get("03c9304e40394d44");
-        } else if (sql.contains("`tags`")) {
-            span = TEST_SPANS.get("03c9304e40394d45");
-        } else if (sql.contains("`duration`")) {
-            span = TEST_SPANS.get("03c9304e40394d46");
-        } else {
-            TEST_SPANS.values()
-                    .forEach(s -> result.add(dslContext.newRecord(TRACE_ID).value1(s.traceId())));
-            return new MockResult[]{new MockResult(TEST_SPANS.size(), result)};
+        List<Span> spans = findSpans(sql);
+        spans.forEach(span -> result.add(dslContext.newRecord(TRACE_ID).value1(span.traceId())));
+        return new MockResult[]{new MockResult(spans.size(), result)};
+    }
+
+    /**
+     * Spans are matched by the traces subquery, which is checked the same way as a separate trace ids query
+     */
+    private MockResult[] createSearchSpansResult(String sql, Object[] bindings) {
+        Matcher matcher = Pattern.compile(SQL_SEARCH_SPANS_PATTERN).matcher(sql);
+        //MySQL dialect wraps subqueries with limit into a derived table
+        String traceIdsSql = matcher.find() ? matcher.group(1).replaceFirst("^select \\* from \\((.+)\\) as `t`$", "$1") : "";
+        if (!isTraceIdsQuery(traceIdsSql)) {
+            throw new IllegalArgumentException("Incorrect traces subquery in sql %s".formatted(sql));
+        }
+
+        Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
+        if (isTestTimeRange(bindings)) {
+            findSpans(traceIdsSql).forEach(span -> result.add(createRecord(span)));
         }
+        return new MockResult[]{new MockResult(result.size(), result)};
+    }
 
-        result.add(dslContext.newRecord(TRACE_ID).value1(span.traceId()));
+    private static List<Span> findSpans(String traceIdsSql) {
+        if (traceIdsSql.contains("`local_service_name`") || traceIdsSql.contains("`services`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d41"));
+        } else if (traceIdsSql.contains("`remote_service_name`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d42"));
+        } else if (traceIdsSql.contains("`name`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d43"));
+        } else if (traceIdsSql.contains("`annotations`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d44"));
+        } else if (traceIdsSql.contains("`tags`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d45"));
+        } else if (traceIdsSql.contains("`duration`")) {
+            return List.of(TEST_SPANS.get("03c9304e40394d46"));
+        }
+        return new ArrayList<>(TEST_SPANS.values());
+    }
+
+    private MockResult[] createTraceWindowResult(Object[] bindings) {
+        Field<Integer> count = DSL.count();
+        Field<Timestamp> minDateTime = DSL.min(ZipkinTraceIndex.MIN_DATE_TIME);
+        Field<Timestamp> maxDateTime = DSL.max(ZipkinTraceIndex.MAX_DATE_TIME);
+        Result<Record3<Integer, Timestamp, Timestamp>> result = dslContext.newResult(count, minDateTime, maxDateTime);
+        int indexedTraces = (int) Arrays.stream(bindings)
+                .filter(TEST_SPANS::containsKey)
+                .distinct()
+                .count();
+        result.add(dslContext.newRecord(count, minDateTime, maxDateTime)
+                .values(indexedTraces, Timestamp.valueOf("2009-02-14 02:31:29"), Timestamp.valueOf("2009-02-14 02:31:30")));
         return new MockResult[]{new MockResult(1, result)};
     }
 
@@ -213,17 +293,18 @@ public class SpansMockDataProvider implements MockDataProvider {
         Result<Record> result = dslContext.newResult(ZIPKIN_SPANS_TABLE);
         //This is for cases when we have date_time range in condition
         int startIndex = bindings[0] instanceof Timestamp ? 2 : 0;
-        for (int i = startIndex; i < bindings.length; i++) {
-            Object binding = bindings[i];
-            Span span = TEST_SPANS.get((String) binding);
-            result.add(createRecord(span));
-        }
+        //Ids padded by repeating the last one match its spans once, like in ClickHouse
+        Arrays.stream(bindings, startIndex, bindings.length)
+                .distinct()
+                .map(TEST_SPANS::get)
+                .filter(Objects::nonNull)
+                .forEach(span -> result.add(createRecord(span)));
 
         return new MockResult[]{new MockResult(3, result)};
     }
 
-    private MockResult[] createTagsResult(String sql) {
-        Pattern pattern = Pattern.compile(SQL_TAGS_PATTERN);
+    private MockResult[] createTagsResult(String sql, String sqlPattern) {
+        Pattern pattern = Pattern.compile(sqlPattern);
         Matcher matcher = pattern.matcher(sql);
         if (matcher.find() && (matcher.group(1)).equals("certainTag1")) {
             Field<String> field = DSL.field("value", String.class);
@@ -262,7 +343,7 @@ public class SpansMockDataProvider implements MockDataProvider {
                 .allMatch(values -> values.matches(SQL_INSERT_VALUES_PATTERN));
     }
 
-    private Record createRecord(Span span) {
+    public static Record createRecord(Span span) {
         DSLContext dslContext = DSL.using(SQLDialect.MYSQL);
         Record record = dslContext.newRecord(ZIPKIN_SPANS_TABLE.fields());
         Endpoint localEndpoint = span.localEndpoint();
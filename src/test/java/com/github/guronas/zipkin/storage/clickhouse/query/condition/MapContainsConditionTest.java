@@ -22,20 +22,31 @@ import org.jooq.DSLContext;
 import org.jooq.tools.jdbc.MockDataProvider;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class MapContainsConditionTest {
-    private static final String EXPECT_MAP_CONTAINS_QUERY = "select * from testTable where mapContains(`zipkin`.`zipkin_spans`.`tags`,'testKey')";
+    private static final String EXPECT_MAP_CONTAINS_QUERY = "select * from testTable where mapContains(`zipkin`.`zipkin_spans`.`tags`,?)";
 
     @Test
     public void mapContainsConditionTest() {
+        assertMapContainsKeyIsBound("testKey");
+    }
+
+    @Test
+    public void keyWithQuotesIsBoundTest() {
+        assertMapContainsKeyIsBound("test'Key\\");
+    }
+
+    private static void assertMapContainsKeyIsBound(String key) {
         MockDataProvider mockDataProvider = ctx -> {
             assertEquals(EXPECT_MAP_CONTAINS_QUERY, ctx.sql());
+            assertArrayEquals(new Object[]{key}, ctx.bindings());
             return null;
         };
         DSLContext dslContext = TestJooqUtils.getTestDSLContext(mockDataProvider);
         dslContext.selectFrom("testTable")
-                .where(MapContainsCondition.mapContains(ZipkinSpans.TAGS, "testKey"))
+                .where(MapContainsCondition.mapContains(ZipkinSpans.TAGS, key))
                 .fetch();
     }
 